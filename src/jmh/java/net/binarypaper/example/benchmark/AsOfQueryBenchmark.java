@@ -0,0 +1,79 @@
+package net.binarypaper.example.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import net.binarypaper.example.config.AuditRevisionHelper;
+import net.binarypaper.example.config.AuditRevisionHelperRegistry;
+import net.binarypaper.example.foo.Foo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Reads Foos as they were at a revision in the middle of a history of 1000
+ * Foos with 100 revisions each, with the validity and the default audit
+ * strategy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AsOfQueryBenchmark {
+
+    private static final int FOOS = 1000;
+
+    private static final long REVISIONS = 100;
+
+    @Param({"validity", "default"})
+    private String auditStrategy;
+
+    private ConfigurableApplicationContext context;
+
+    private EntityManager em;
+
+    private TransactionTemplate transactionTemplate;
+
+    private AuditRevisionHelper<Foo> auditRevisionHelper;
+
+    @Setup
+    public void setUp() {
+        boolean validity = auditStrategy.equals("validity");
+        context = BenchmarkApplication.start("spring.jpa.properties.org.hibernate.envers.audit_strategy="
+                + (validity ? "org.hibernate.envers.strategy.ValidityAuditStrategy" : "org.hibernate.envers.strategy.DefaultAuditStrategy"));
+        BenchmarkApplication.insertHistory(context, FOOS, (int) REVISIONS, validity);
+        em = context.getBean(EntityManager.class);
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        transactionTemplate.setReadOnly(true);
+        auditRevisionHelper = context.getBean(AuditRevisionHelperRegistry.class).getAuditRevisionHelper(Foo.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Foo getEntityAsOf() {
+        return transactionTemplate.execute(status -> auditRevisionHelper.getEntityAsOf(em, (long) FOOS / 2, REVISIONS / 2));
+    }
+
+    @Benchmark
+    public List<Foo> getAllEntitiesAsOf() {
+        return transactionTemplate.execute(status -> auditRevisionHelper.getAllEntitiesAsOf(em, REVISIONS / 2));
+    }
+}
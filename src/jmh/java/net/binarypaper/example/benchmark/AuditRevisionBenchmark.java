@@ -0,0 +1,79 @@
+package net.binarypaper.example.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import net.binarypaper.example.config.AuditRevision;
+import net.binarypaper.example.config.AuditRevisionListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
+
+/**
+ * The per-revision work of an AuditRevision: creating it in the revision
+ * listener, and formatting its date.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuditRevisionBenchmark {
+
+    private final AuditRevisionListener auditRevisionListener = new AuditRevisionListener();
+
+    private ObjectWriter revisionWriter;
+
+    private AuditRevision auditRevision;
+
+    @Setup
+    public void setUp() {
+        User user = new User("willy", "", AuthorityUtils.createAuthorityList("ROLE_admin"));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()));
+        revisionWriter = Jackson2ObjectMapperBuilder.json().build().writerWithView(AuditRevision.class);
+        auditRevision = new AuditRevision();
+        auditRevision.setRev(12345L);
+        auditRevision.setRevisionTimestamp(1581065259000L);
+        auditRevision.setUsername("willy");
+        auditRevision.setRevisionType("MOD");
+    }
+
+    @TearDown
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Benchmark
+    public AuditRevision newRevision() {
+        AuditRevision revision = new AuditRevision();
+        revision.setRevisionTimestamp(System.currentTimeMillis());
+        auditRevisionListener.newRevision(revision);
+        return revision;
+    }
+
+    @Benchmark
+    public Date getRevisionDate() {
+        return auditRevision.getRevisionDate();
+    }
+
+    @Benchmark
+    public String serializeAuditRevision() throws JsonProcessingException {
+        return revisionWriter.writeValueAsString(auditRevision);
+    }
+}
@@ -0,0 +1,66 @@
+package net.binarypaper.example.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import net.binarypaper.example.config.AuditRevisionHelper;
+import net.binarypaper.example.config.AuditRevisionHelperRegistry;
+import net.binarypaper.example.foo.Foo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Reads the complete revision history of one Foo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuditRevisionHelperBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    private int revisions;
+
+    private ConfigurableApplicationContext context;
+
+    private EntityManager em;
+
+    private TransactionTemplate transactionTemplate;
+
+    private AuditRevisionHelper<Foo> auditRevisionHelper;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start();
+        BenchmarkApplication.insertHistory(context, 1, revisions, true);
+        em = context.getBean(EntityManager.class);
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        transactionTemplate.setReadOnly(true);
+        auditRevisionHelper = context.getBean(AuditRevisionHelperRegistry.class).getAuditRevisionHelper(Foo.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Foo> getAllAuditRevisions() {
+        return transactionTemplate.execute(status -> auditRevisionHelper.getAllAuditRevisions(em, 1L));
+    }
+}
@@ -0,0 +1,62 @@
+package net.binarypaper.example.benchmark;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import net.binarypaper.example.config.CachingAuthenticationProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.crypto.factory.PasswordEncoderFactories;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
+
+/**
+ * Authenticates the HTTP Basic credentials of a request with and without the
+ * credentials cache, on a single thread, so the scores are per core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthenticationBenchmark {
+
+    private DaoAuthenticationProvider daoAuthenticationProvider;
+
+    private CachingAuthenticationProvider cachingAuthenticationProvider;
+
+    @Setup
+    public void setUp() {
+        // The same bcrypt strength as the password of application.yml
+        PasswordEncoder passwordEncoder = PasswordEncoderFactories.createDelegatingPasswordEncoder();
+        daoAuthenticationProvider = new DaoAuthenticationProvider();
+        daoAuthenticationProvider.setPasswordEncoder(passwordEncoder);
+        daoAuthenticationProvider.setUserDetailsService(new InMemoryUserDetailsManager(User.withUsername("willy")
+                .password(passwordEncoder.encode("willy"))
+                .roles("user", "admin")
+                .build()));
+        cachingAuthenticationProvider = new CachingAuthenticationProvider(daoAuthenticationProvider, Duration.ofMinutes(1), 10000);
+    }
+
+    @Benchmark
+    public Authentication bcrypt() {
+        return daoAuthenticationProvider.authenticate(new UsernamePasswordAuthenticationToken("willy", "willy"));
+    }
+
+    @Benchmark
+    public Authentication credentialsCache() {
+        return cachingAuthenticationProvider.authenticate(new UsernamePasswordAuthenticationToken("willy", "willy"));
+    }
+}
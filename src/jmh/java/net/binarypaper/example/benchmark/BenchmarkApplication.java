@@ -0,0 +1,59 @@
+package net.binarypaper.example.benchmark;
+
+import java.util.Arrays;
+import net.binarypaper.example.Application;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Starts the application against its own embedded H2 database and fills the
+ * audit tables directly, so that a large history takes seconds to create.
+ */
+final class BenchmarkApplication {
+
+    private BenchmarkApplication() {
+    }
+
+    /**
+     * @param properties Properties that override application.yml
+     */
+    static ConfigurableApplicationContext start(String... properties) {
+        return new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .properties(
+                        "spring.main.banner-mode=off",
+                        "spring.datasource.generate-unique-name=true",
+                        "logging.level.root=ERROR",
+                        // The create-drop schema is dropped after the database has been closed
+                        "logging.level.org.hibernate.tool.schema=OFF")
+                .run(Arrays.stream(properties).map(property -> "--" + property).toArray(String[]::new));
+    }
+
+    /**
+     * Create Foos 1 to foos with revisions 1 to revisions each. Every revision
+     * changes all the Foos, the first one adds them.
+     *
+     * @param validity Whether the audit rows have the REVEND columns of the
+     * validity audit strategy
+     */
+    static void insertHistory(ConfigurableApplicationContext context, int foos, int revisions, boolean validity) {
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        jdbcTemplate.update("INSERT INTO AUDIT_REVISION (REV, REV_TIMESTAMP, USER_NAME)"
+                + " SELECT X, 1580515200000 + X * 1000, 'benchmark' FROM SYSTEM_RANGE(1, ?)", revisions);
+        jdbcTemplate.update("INSERT INTO FOO (ID, VERSION, NAME, DESCRIPTION)"
+                + " SELECT X, ? - 1, 'name ' || X || ' ' || ?, 'description ' || X FROM SYSTEM_RANGE(1, ?)",
+                revisions, revisions, foos);
+        jdbcTemplate.update("INSERT INTO FOO_AUD (ID, REV, REVTYPE, "
+                + (validity ? "REVEND, REVEND_TSTMP, " : "")
+                + "NAME, NAME_MOD, DESCRIPTION, DESCRIPTION_MOD)"
+                + " SELECT F.X, R.X, CASE WHEN R.X = 1 THEN 0 ELSE 1 END, "
+                + (validity ? "CASE WHEN R.X < ? THEN R.X + 1 END,"
+                        + " CASE WHEN R.X < ? THEN DATEADD('SECOND', R.X + 1, TIMESTAMP '2020-02-01 00:00:00') END, " : "")
+                + "'name ' || F.X || ' ' || R.X, TRUE, 'description ' || F.X, R.X = 1"
+                + " FROM SYSTEM_RANGE(1, ?) AS F, SYSTEM_RANGE(1, ?) AS R",
+                validity ? new Object[]{revisions, revisions, foos, revisions} : new Object[]{foos, revisions});
+    }
+}
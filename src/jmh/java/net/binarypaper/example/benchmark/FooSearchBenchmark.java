@@ -0,0 +1,127 @@
+package net.binarypaper.example.benchmark;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import net.binarypaper.example.foo.Foo;
+import net.binarypaper.example.foo.FooSearchIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Searches a million Foos for the first page of 20 Foos with the
+ * FooSearchIndex, and by scanning the names and descriptions of all Foos like
+ * a LIKE '%word%' query does. The words of the Foos are drawn from a
+ * vocabulary of 50000 words, the first words much more often than the last.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class FooSearchBenchmark {
+
+    private static final int FOOS = 1000000;
+
+    private static final int VOCABULARY = 50000;
+
+    /**
+     * The positions in the vocabulary of the searched words, a prefix is the
+     * first 3 letters of a word.
+     */
+    @Param({"rare:10000", "medium:1000", "prefix:1000", "two:100,1000"})
+    private String query;
+
+    private final FooSearchIndex index = new FooSearchIndex(Duration.ofMinutes(1));
+
+    private final List<Foo> foos = new ArrayList<>();
+
+    private final String[] words = new String[VOCABULARY];
+
+    private FooSearchIndex.Query parsedQuery;
+
+    private String scannedWord;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(20200301);
+        for (int i = 0; i < VOCABULARY; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 4 + random.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            words[i] = word.toString();
+        }
+        for (int i = 0; i < FOOS; i++) {
+            Foo foo = new Foo((long) i, text(random, 3));
+            foo.setVersion(0);
+            foo.setDescription(text(random, 12));
+            foos.add(foo);
+        }
+        for (int from = 0; from < FOOS; from += 10000) {
+            index.indexAll(foos.subList(from, from + 10000));
+        }
+        String[] parts = query.split(":");
+        String[] positions = parts[1].split(",");
+        StringBuilder text = new StringBuilder();
+        for (String position : positions) {
+            text.append(words[Integer.parseInt(position)]).append(' ');
+        }
+        if (parts[0].equals("prefix")) {
+            text.setLength(3);
+            text.append('*');
+        }
+        parsedQuery = FooSearchIndex.Query.parse(text.toString());
+        scannedWord = words[Integer.parseInt(positions[0])];
+        if (parts[0].equals("prefix")) {
+            scannedWord = scannedWord.substring(0, 3);
+        }
+    }
+
+    /**
+     * Draw a word, the word at position n about 1 / n times as often as the
+     * first word.
+     */
+    private String text(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            int position = (int) Math.pow(VOCABULARY, random.nextDouble()) - 1;
+            text.append(i == 0 ? words[position].toUpperCase(Locale.ROOT) : words[position]).append(' ');
+        }
+        return text.toString();
+    }
+
+    @Benchmark
+    public List<FooSearchIndex.Hit> index() {
+        return index.search(parsedQuery, 20, null);
+    }
+
+    @Benchmark
+    public List<Foo> scan() {
+        List<Foo> page = new ArrayList<>();
+        for (Foo foo : foos) {
+            if (foo.getName().toLowerCase(Locale.ROOT).contains(scannedWord)
+                    || foo.getDescription().contains(scannedWord)) {
+                page.add(foo);
+                if (page.size() == 20) {
+                    break;
+                }
+            }
+        }
+        return page;
+    }
+}
@@ -0,0 +1,112 @@
+package net.binarypaper.example.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManagerFactory;
+import net.binarypaper.example.foo.Foo;
+import net.binarypaper.example.foo.FooRestController;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.web.context.request.ServletWebRequest;
+
+/**
+ * Updates a Foo through PUT /foo/{id} with a changed name, among 1000 Foos
+ * that are all in the second-level cache or with the cache disabled. Prints
+ * the number of statements per update.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FooUpdateBenchmark {
+
+    private static final int FOOS = 1000;
+
+    @Param({"enabled", "disabled"})
+    private String cache;
+
+    private ConfigurableApplicationContext context;
+
+    private FooRestController fooRestController;
+
+    private Statistics statistics;
+
+    private final int[] versions = new int[FOOS + 1];
+
+    private long sequence;
+
+    private int updates;
+
+    @Setup
+    public void setUp() {
+        boolean enabled = cache.equals("enabled");
+        context = BenchmarkApplication.start(
+                "spring.jpa.properties.hibernate.cache.use_second_level_cache=" + enabled,
+                "spring.jpa.properties.hibernate.cache.use_query_cache=" + enabled);
+        BenchmarkApplication.insertHistory(context, FOOS, 1, true);
+        // The revisions of the updates follow the inserted revision
+        context.getBean(JdbcTemplate.class).execute("ALTER SEQUENCE AUDIT_REVISION_SEQ RESTART WITH 1000");
+        fooRestController = context.getBean(FooRestController.class);
+        statistics = context.getBean(EntityManagerFactory.class).unwrap(SessionFactory.class).getStatistics();
+        User user = new User("willy", "", AuthorityUtils.createAuthorityList("ROLE_admin"));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()));
+        // Every Foo is read once, which puts it in the cache when enabled
+        for (long id = 1; id <= FOOS; id++) {
+            fooRestController.getFooById(id, null, null, new ServletWebRequest(new MockHttpServletRequest()),
+                    new MockHttpServletResponse());
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void clearStatistics() {
+        statistics.clear();
+        updates = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void printStatements() {
+        System.out.printf("%n%.2f statements per update (%.2f entity loads)%n",
+                (double) statistics.getPrepareStatementCount() / updates,
+                (double) statistics.getEntityLoadCount() / updates);
+    }
+
+    @TearDown
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+        context.close();
+    }
+
+    @Benchmark
+    public Foo updateFoo() {
+        long id = 1 + sequence++ % FOOS;
+        updates++;
+        Foo foo = new Foo(id, "updated name " + id + " " + sequence);
+        foo.setDescription("description " + id);
+        foo.setVersion(versions[(int) id]++);
+        return fooRestController.updateFoo(id, foo, new ServletWebRequest(new MockHttpServletRequest()),
+                new MockHttpServletResponse());
+    }
+}
@@ -0,0 +1,105 @@
+package net.binarypaper.example.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.binarypaper.example.config.AuditRevision;
+import net.binarypaper.example.config.AuditRevisionJsonSerializer;
+import net.binarypaper.example.foo.Foo;
+import net.binarypaper.example.foo.FooJsonSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Serializes a Foo with each of its JSON views, and a list of 1000 Foo
+ * revisions, with the Jackson bean serializers and with the direct serializers.
+ * Run with -prof gc to compare the allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonViewBenchmark {
+
+    @Param({"List", "All", "AuditRevision"})
+    private String view;
+
+    @Param({"jackson", "direct"})
+    private String serializers;
+
+    private ObjectWriter fooWriter;
+
+    private ObjectWriter revisionsWriter;
+
+    private Foo foo;
+
+    private List<Foo> revisions;
+
+    @Setup
+    public void setUp() {
+        Class<?> viewClass;
+        switch (view) {
+            case "List":
+                viewClass = Foo.List.class;
+                break;
+            case "All":
+                viewClass = Foo.All.class;
+                break;
+            default:
+                viewClass = AuditRevision.class;
+        }
+        // Configured like the ObjectMapper of the application
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json();
+        if (serializers.equals("direct")) {
+            builder.serializers(new FooJsonSerializer(), new AuditRevisionJsonSerializer());
+        }
+        ObjectMapper objectMapper = builder.build();
+        fooWriter = objectMapper.writerWithView(viewClass);
+        revisionsWriter = objectMapper.writerWithView(AuditRevision.class);
+        foo = createFoo(12345L);
+        revisions = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            revisions.add(createFoo(12345L + i));
+        }
+    }
+
+    private static Foo createFoo(long rev) {
+        AuditRevision auditRevision = new AuditRevision();
+        auditRevision.setRev(rev);
+        auditRevision.setRevisionTimestamp(1581065259000L + rev * 1000);
+        auditRevision.setUsername("willy");
+        auditRevision.setRevisionType("MOD");
+        Foo foo = new Foo();
+        foo.setId(42L);
+        foo.setVersion(3);
+        foo.setName("The name of the Foo");
+        foo.setDescription("The description of the Foo, which is a bit longer than its name");
+        foo.setRevision(auditRevision);
+        return foo;
+    }
+
+    @Benchmark
+    public byte[] serializeFoo() throws JsonProcessingException {
+        return fooWriter.writeValueAsBytes(foo);
+    }
+
+    @Benchmark
+    public byte[] serializeRevisions() throws JsonProcessingException {
+        return revisionsWriter.writeValueAsBytes(revisions);
+    }
+}
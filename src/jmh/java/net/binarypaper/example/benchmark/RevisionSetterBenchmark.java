@@ -0,0 +1,68 @@
+package net.binarypaper.example.benchmark;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import net.binarypaper.example.config.AuditRevision;
+import net.binarypaper.example.foo.Foo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sets the AuditRevision of a revision row the way the AuditRevisionHelper
+ * used to, looking up the set method for every row, and the way it does now,
+ * through a setter created once with the LambdaMetafactory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RevisionSetterBenchmark {
+
+    private final Foo foo = new Foo();
+
+    private final AuditRevision auditRevision = new AuditRevision();
+
+    private BiConsumer<Foo, AuditRevision> revisionSetter;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Throwable {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        CallSite callSite = LambdaMetafactory.metafactory(
+                lookup,
+                "accept",
+                MethodType.methodType(BiConsumer.class),
+                MethodType.methodType(void.class, Object.class, Object.class),
+                lookup.unreflect(Foo.class.getMethod("setRevision", AuditRevision.class)),
+                MethodType.methodType(void.class, Foo.class, AuditRevision.class));
+        revisionSetter = (BiConsumer<Foo, AuditRevision>) callSite.getTarget().invokeExact();
+    }
+
+    @Benchmark
+    public Foo reflectionPerRow() throws ReflectiveOperationException {
+        Method method = foo.getClass().getMethod("setRevision", AuditRevision.class);
+        method.invoke(foo, auditRevision);
+        return foo;
+    }
+
+    @Benchmark
+    public Foo lambdaMetafactory() {
+        revisionSetter.accept(foo, auditRevision);
+        return foo;
+    }
+}
@@ -0,0 +1,282 @@
+package net.binarypaper.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.web.server.LocalServerPort;
+
+/**
+ * Drives a mixed workload of Foo requests through the whole stack and compares
+ * the throughput and latency of every operation with the committed baseline.
+ * <p>
+ * Every worker thread creates, reads, updates, lists and deletes its own Foos,
+ * so that the updates do not conflict. Requests made during the warmup are not
+ * recorded. The results are written to target/load-test-results.json, and
+ * with load-test.update-baseline=true to the baseline file as well.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+    "spring.datasource.generate-unique-name=true",
+    "logging.level.root=WARN"
+})
+class FooLoadTest {
+
+    private enum Operation {
+        CREATE("POST /foo", 10),
+        GET("GET /foo/{id}", 35),
+        UPDATE("PUT /foo/{id}", 15),
+        LIST("GET /foo?limit=50", 20),
+        REVISIONS("GET /foo/{id}/revisions", 15),
+        DELETE("DELETE /foo/{id}", 5);
+
+        private final String endpoint;
+        private final int weight;
+
+        Operation(String endpoint, int weight) {
+            this.endpoint = endpoint;
+            this.weight = weight;
+        }
+    }
+
+    private static final int CONCURRENCY = Integer.getInteger("load-test.concurrency", 16);
+    private static final Duration WARMUP = Duration.parse(System.getProperty("load-test.warmup", "PT10S"));
+    private static final Duration DURATION = Duration.parse(System.getProperty("load-test.duration", "PT30S"));
+    private static final double MARGIN = Double.parseDouble(System.getProperty("load-test.margin", "0.5"));
+    private static final Path BASELINE = Paths.get(System.getProperty("load-test.baseline",
+            "src/load-test/resources/load-test-baseline.json"));
+    private static final boolean UPDATE_BASELINE = Boolean.getBoolean("load-test.update-baseline");
+    private static final Path RESULTS = Paths.get("target/load-test-results.json");
+    private static final String AUTHORIZATION = "Basic "
+            + Base64.getEncoder().encodeToString("willy:willy".getBytes(StandardCharsets.UTF_8));
+    private static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private final HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+    private final AtomicLong errors = new AtomicLong();
+
+    @LocalServerPort
+    private int port;
+
+    private volatile boolean recording;
+
+    @Test
+    void mixedWorkloadStaysWithinTheBaseline() throws Exception {
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new Recorder(HIGHEST_LATENCY_MICROS, 3));
+        }
+        long end = System.nanoTime() + WARMUP.plus(DURATION).toNanos();
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < CONCURRENCY; i++) {
+            int worker = i;
+            workers.add(executor.submit(() -> {
+                runWorker(worker, end);
+                return null;
+            }));
+        }
+        Thread.sleep(WARMUP.toMillis());
+        recorders.values().forEach(Recorder::reset);
+        errors.set(0);
+        recording = true;
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        executor.shutdown();
+
+        ObjectNode results = report();
+        Files.createDirectories(RESULTS.getParent());
+        objectMapper.writeValue(RESULTS.toFile(), results);
+        if (UPDATE_BASELINE) {
+            objectMapper.writeValue(BASELINE.toFile(), results);
+        }
+        assertThat(errors.get()).as("failed requests").isZero();
+        assertThat(compareWithBaseline(results)).isEmpty();
+    }
+
+    private void runWorker(int worker, long end) throws IOException, InterruptedException {
+        List<JsonNode> foos = new ArrayList<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int sequence = 0;
+        while (System.nanoTime() < end) {
+            Operation operation = foos.size() < 2 ? Operation.CREATE : nextOperation(random);
+            int index = foos.isEmpty() ? -1 : random.nextInt(foos.size());
+            JsonNode foo = index < 0 ? null : foos.get(index);
+            switch (operation) {
+                case CREATE:
+                    foos.add(send(operation, request("/foo")
+                            .POST(json(fooBody(null, "foo " + worker + " " + sequence++, null))), 201));
+                    break;
+                case GET:
+                    send(operation, request("/foo/" + foo.get("id")).GET(), 200);
+                    break;
+                case UPDATE:
+                    JsonNode updated = send(operation, request("/foo/" + foo.get("id"))
+                            .header("If-Match", "\"" + foo.get("id") + "-" + foo.get("version") + "\"")
+                            .PUT(json(fooBody(foo.get("id").asLong(), foo.get("name").asText(), "update " + sequence++))), 200);
+                    if (updated != null) {
+                        foos.set(index, updated);
+                    }
+                    break;
+                case LIST:
+                    send(operation, request("/foo?limit=50").GET(), 200);
+                    break;
+                case REVISIONS:
+                    send(operation, request("/foo/" + foo.get("id") + "/revisions").GET(), 200);
+                    break;
+                case DELETE:
+                    send(operation, request("/foo/" + foo.get("id"))
+                            .header("If-Match", "\"" + foo.get("id") + "-" + foo.get("version") + "\"")
+                            .DELETE(), 200);
+                    foos.remove(index);
+                    break;
+            }
+        }
+    }
+
+    private static Operation nextOperation(ThreadLocalRandom random) {
+        int value = random.nextInt(100);
+        for (Operation operation : Operation.values()) {
+            value -= operation.weight;
+            if (value < 0) {
+                return operation;
+            }
+        }
+        return Operation.GET;
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .header("Authorization", AUTHORIZATION)
+                .header("Accept", "application/json");
+    }
+
+    private HttpRequest.BodyPublisher json(ObjectNode body) throws IOException {
+        return HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body));
+    }
+
+    private ObjectNode fooBody(Long id, String name, String description) {
+        ObjectNode body = objectMapper.createObjectNode();
+        if (id != null) {
+            body.put("id", id);
+        }
+        body.put("name", name);
+        body.put("description", description);
+        return body;
+    }
+
+    /**
+     * Send a request and record its latency.
+     *
+     * @return The response body, or null if the status was not the expected one
+     */
+    private JsonNode send(Operation operation, HttpRequest.Builder request, int expectedStatus)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        HttpResponse<byte[]> response = httpClient.send(request.header("Content-Type", "application/json").build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        recorders.get(operation).recordValue(Math.min(latency, HIGHEST_LATENCY_MICROS));
+        if (response.statusCode() != expectedStatus) {
+            if (recording) {
+                errors.incrementAndGet();
+            }
+            return null;
+        }
+        return response.body().length == 0 ? null : objectMapper.readTree(response.body());
+    }
+
+    private ObjectNode report() {
+        ObjectNode results = objectMapper.createObjectNode();
+        results.put("concurrency", CONCURRENCY);
+        results.put("durationSeconds", DURATION.getSeconds());
+        ObjectNode endpoints = results.putObject("endpoints");
+        System.out.printf("%n%-26s %9s %10s %10s %10s %10s %10s%n",
+                "Endpoint", "Requests", "Req/s", "p50 ms", "p99 ms", "p999 ms", "Max ms");
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = recorders.get(operation).getIntervalHistogram();
+            ObjectNode endpoint = endpoints.putObject(operation.endpoint);
+            endpoint.put("requests", histogram.getTotalCount());
+            endpoint.put("throughput", round((double) histogram.getTotalCount() / DURATION.getSeconds()));
+            endpoint.put("p50", millis(histogram.getValueAtPercentile(50)));
+            endpoint.put("p99", millis(histogram.getValueAtPercentile(99)));
+            endpoint.put("p999", millis(histogram.getValueAtPercentile(99.9)));
+            endpoint.put("max", millis(histogram.getMaxValue()));
+            System.out.printf("%-26s %9d %10.1f %10.2f %10.2f %10.2f %10.2f%n", operation.endpoint,
+                    histogram.getTotalCount(), endpoint.get("throughput").asDouble(), endpoint.get("p50").asDouble(),
+                    endpoint.get("p99").asDouble(), endpoint.get("p999").asDouble(), endpoint.get("max").asDouble());
+        }
+        System.out.printf("Failed requests: %d%n%n", errors.get());
+        return results;
+    }
+
+    /**
+     * Compare the throughput, p50 and p99 of every endpoint with the baseline.
+     * The p999 and max latencies are reported, but too noisy to compare. A
+     * baseline recorded with a different concurrency can not be compared.
+     *
+     * @return The regressions beyond the margin
+     */
+    private List<String> compareWithBaseline(ObjectNode results) throws IOException {
+        List<String> regressions = new ArrayList<>();
+        if (!Files.exists(BASELINE)) {
+            return regressions;
+        }
+        JsonNode baseline = objectMapper.readTree(BASELINE.toFile());
+        if (baseline.get("concurrency").asInt() != CONCURRENCY) {
+            regressions.add("The baseline was recorded with a concurrency of " + baseline.get("concurrency")
+                    + ", update it with -Dload-test.update-baseline=true");
+            return regressions;
+        }
+        baseline.get("endpoints").fields().forEachRemaining(entry -> {
+            JsonNode expected = entry.getValue();
+            JsonNode actual = results.get("endpoints").get(entry.getKey());
+            if (actual.get("throughput").asDouble() < expected.get("throughput").asDouble() * (1 - MARGIN)) {
+                regressions.add(entry.getKey() + " throughput " + actual.get("throughput") + " < " + expected.get("throughput"));
+            }
+            for (String percentile : new String[]{"p50", "p99"}) {
+                if (actual.get(percentile).asDouble() > expected.get(percentile).asDouble() * (1 + MARGIN)) {
+                    regressions.add(entry.getKey() + " " + percentile + " " + actual.get(percentile) + " ms > "
+                            + expected.get(percentile) + " ms");
+                }
+            }
+        });
+        return regressions;
+    }
+
+    private static double millis(long micros) {
+        return round(micros / 1000.0);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,154 @@
+package net.binarypaper.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Measures the time from starting a JVM with the packaged application until
+ * the first successful GET /foo, and compares the median of several starts with
+ * the committed baseline.
+ * <p>
+ * The default mode starts the Spring Boot jar. The fast-start mode, which is
+ * only measured after a build with the fast-start profile, starts the
+ * fast-start jar with its class-data-sharing archive and the fast-start
+ * Spring profile.
+ */
+class FooStartupIT {
+
+    private static final int RUNS = Integer.getInteger("load-test.startup-runs", 3);
+    private static final Duration TIMEOUT = Duration.ofMinutes(2);
+    private static final double MARGIN = Double.parseDouble(System.getProperty("load-test.margin", "0.5"));
+    private static final Path JAR = Paths.get(System.getProperty("startup-test.jar", "target/app.jar"));
+    private static final Path FAST_START_JAR = Paths.get(System.getProperty("startup-test.fast-start-jar",
+            "target/fast-start/app.jar"));
+    private static final Path BASELINE = Paths.get(System.getProperty("load-test.startup-baseline",
+            "src/load-test/resources/startup-baseline.json"));
+    private static final boolean UPDATE_BASELINE = Boolean.getBoolean("load-test.update-baseline");
+    private static final Path RESULTS = Paths.get("target/startup-results.json");
+    private static final String AUTHORIZATION = "Basic "
+            + Base64.getEncoder().encodeToString("willy:willy".getBytes(StandardCharsets.UTF_8));
+
+    private final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+
+    @Test
+    void timeToFirstRequestStaysWithinTheBaseline() throws Exception {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ObjectNode results = objectMapper.createObjectNode();
+        System.out.printf("%n%-12s %s%n", "Mode", "Time to first GET /foo (s)");
+        measure(results, "default", JAR.getParent(), Arrays.asList(java, "-jar", JAR.toString()));
+        if (Files.exists(FAST_START_JAR)) {
+            measure(results, "fast-start", FAST_START_JAR.getParent(), Arrays.asList(java,
+                    "-Xshare:auto", "-XX:SharedArchiveFile=app.jsa", "-jar", FAST_START_JAR.getFileName().toString(),
+                    "--spring.profiles.active=fast-start"));
+        }
+        System.out.println();
+        Files.createDirectories(RESULTS.getParent());
+        objectMapper.writeValue(RESULTS.toFile(), results);
+        if (UPDATE_BASELINE) {
+            ObjectNode baseline = Files.exists(BASELINE)
+                    ? (ObjectNode) objectMapper.readTree(BASELINE.toFile())
+                    : objectMapper.createObjectNode();
+            baseline.setAll(results);
+            objectMapper.writeValue(BASELINE.toFile(), baseline);
+        }
+        assertThat(compareWithBaseline(results)).isEmpty();
+    }
+
+    private void measure(ObjectNode results, String mode, Path directory, List<String> command)
+            throws IOException, InterruptedException {
+        List<Double> seconds = new ArrayList<>();
+        for (int i = 0; i < RUNS; i++) {
+            seconds.add(timeToFirstRequest(directory, command, Paths.get("target", "startup-" + mode + "-" + i + ".log")));
+        }
+        Collections.sort(seconds);
+        double median = seconds.get(seconds.size() / 2);
+        ObjectNode result = results.putObject(mode);
+        result.put("median", median);
+        result.putPOJO("runs", seconds);
+        System.out.printf("%-12s %.2f %s%n", mode, median, seconds);
+    }
+
+    private double timeToFirstRequest(Path directory, List<String> command, Path log)
+            throws IOException, InterruptedException {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        List<String> arguments = new ArrayList<>(command);
+        arguments.add("--server.port=" + port);
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/foo"))
+                .header("Authorization", AUTHORIZATION)
+                .build();
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(arguments)
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(log.toAbsolutePath().toFile())
+                .start();
+        try {
+            while (System.nanoTime() - start < TIMEOUT.toNanos()) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("The application exited with " + process.exitValue() + ", see " + log);
+                }
+                try {
+                    if (httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return Math.round((System.nanoTime() - start) / 1e7) / 100.0;
+                    }
+                } catch (ConnectException ex) {
+                    // Not listening yet
+                }
+                Thread.sleep(20);
+            }
+            throw new IllegalStateException("The application did not respond within " + TIMEOUT + ", see " + log);
+        } finally {
+            process.destroy();
+            if (!process.waitFor(1, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * @return The modes whose median is more than the margin slower than the
+     * baseline
+     */
+    private List<String> compareWithBaseline(ObjectNode results) throws IOException {
+        List<String> regressions = new ArrayList<>();
+        if (!Files.exists(BASELINE)) {
+            return regressions;
+        }
+        JsonNode baseline = objectMapper.readTree(BASELINE.toFile());
+        results.fields().forEachRemaining(result -> {
+            JsonNode expected = baseline.get(result.getKey());
+            double median = result.getValue().get("median").asDouble();
+            if (expected != null && median > expected.get("median").asDouble() * (1 + MARGIN)) {
+                regressions.add(result.getKey() + " " + median + " s > " + expected.get("median") + " s");
+            }
+        });
+        return regressions;
+    }
+}
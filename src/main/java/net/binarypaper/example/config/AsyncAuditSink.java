@@ -0,0 +1,700 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManagerFactory;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.envers.RevisionType;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.envers.internal.synchronization.work.AddWorkUnit;
+import org.hibernate.envers.internal.synchronization.work.AuditWorkUnit;
+import org.hibernate.envers.internal.synchronization.work.DelWorkUnit;
+import org.hibernate.envers.internal.synchronization.work.ModWorkUnit;
+import org.hibernate.envers.tools.Pair;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.event.spi.PreUpdateEvent;
+import org.hibernate.event.spi.PreUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Write-behind sink for the audit data of the @Audited entities.
+ * <p>
+ * Replaces the Envers event listeners when application.audit.mode is async.
+ * The audit work units of a transaction are created and merged the same way
+ * Envers does it, but only the audit data they generate is kept. After a
+ * successful commit that data is put on a bounded queue together with the user
+ * name and the commit timestamp, and a background writer saves the
+ * AUDIT_REVISION and audit table rows of up to batchSize transactions in one
+ * database transaction, together with the AuditSummary of the changed
+ * entities, and publishes them to the AuditChangeFeed once they are
+ * committed. Audited collections and relations are not supported.
+ * <p>
+ * When the queue is full the committing thread blocks until there is space or,
+ * with overflow set to spill, appends the audit record to the spill file. Once
+ * the spill file is in use every audit record goes there until the writer has
+ * replayed it, so audit records are written in the order they were queued. The
+ * audit records that are not written within the shutdown timeout are saved as
+ * well, and a spill file left behind by a previous run is replayed at startup;
+ * the number of replayed records is kept in an offset file, so after a crash
+ * at most one batch is written twice.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@Component
+@Lazy(false)
+@ConditionalOnProperty(prefix = "application.audit", name = "mode", havingValue = "async")
+// Lombok annotations
+@Slf4j
+public class AsyncAuditSink implements PostInsertEventListener, PreUpdateEventListener, PostUpdateEventListener, PostDeleteEventListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private static final long MAX_RETRY_DELAY_MILLIS = 30000;
+
+    private final SessionFactoryImplementor sessionFactory;
+
+    private final EnversService enversService;
+
+    private final AuditSinkProperties properties;
+
+    private final AuditChangeFeed auditChangeFeed;
+
+    private final AuditSummaryService auditSummaryService;
+
+    private final BlockingQueue<AuditRecord> queue;
+
+    private final Map<SharedSessionContractImplementor, PendingAuditRecord> pendingAuditRecords = new ConcurrentHashMap<>();
+
+    private final Object spillLock = new Object();
+
+    private final Path spillFile;
+
+    private final Path replayFile;
+
+    private final Path replayOffsetFile;
+
+    private DataOutputStream spillOutput;
+
+    private volatile boolean spilling;
+
+    private volatile boolean running = true;
+
+    private final Timer lagTimer;
+
+    private final Counter writtenCounter;
+
+    private final Counter failureCounter;
+
+    private final Thread writer;
+
+    public AsyncAuditSink(EntityManagerFactory entityManagerFactory, AuditSinkProperties properties,
+            AuditChangeFeed auditChangeFeed, AuditSummaryService auditSummaryService, MeterRegistry meterRegistry) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        this.enversService = sessionFactory.getServiceRegistry().getService(EnversService.class);
+        this.properties = properties;
+        this.auditChangeFeed = auditChangeFeed;
+        this.auditSummaryService = auditSummaryService;
+        this.queue = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+        this.spillFile = Paths.get(properties.getSpillFile());
+        this.replayFile = Paths.get(properties.getSpillFile() + ".replay");
+        this.replayOffsetFile = Paths.get(properties.getSpillFile() + ".replay.offset");
+        this.spilling = Files.exists(replayFile) || sizeOf(spillFile) > 0;
+        Gauge.builder("audit.sink.queue.depth", queue, BlockingQueue::size)
+                .description("The number of committed transactions waiting in memory for the audit writer")
+                .register(meterRegistry);
+        Gauge.builder("audit.sink.queue.oldest.age", this, AsyncAuditSink::getOldestQueuedAgeSeconds)
+                .description("The time since the commit of the oldest transaction waiting in memory for the audit writer")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("audit.sink.spill.size", this, sink -> sizeOf(sink.spillFile) + sizeOf(sink.replayFile))
+                .description("The size of the audit records waiting in the spill file")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.lagTimer = Timer.builder("audit.sink.lag")
+                .description("The time from the commit of a transaction until its audit data is written")
+                .register(meterRegistry);
+        this.writtenCounter = Counter.builder("audit.sink.records.written")
+                .description("The number of committed transactions whose audit data was written")
+                .register(meterRegistry);
+        this.failureCounter = Counter.builder("audit.sink.write.failures")
+                .description("The number of failed attempts to write a batch of audit data")
+                .register(meterRegistry);
+        this.writer = new Thread(this::writeAuditRecords, "audit-sink-writer");
+        this.writer.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void start() {
+        EventListenerRegistry eventListenerRegistry = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+        eventListenerRegistry.appendListeners(EventType.POST_INSERT, this);
+        eventListenerRegistry.appendListeners(EventType.PRE_UPDATE, this);
+        eventListenerRegistry.appendListeners(EventType.POST_UPDATE, this);
+        eventListenerRegistry.appendListeners(EventType.POST_DELETE, this);
+        writer.start();
+        log.info("Writing audit data asynchronously, overflow {}", properties.getOverflow());
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writer.join(properties.getShutdownTimeout().toMillis());
+        if (writer.isAlive()) {
+            writer.interrupt();
+            writer.join();
+        }
+        synchronized (spillLock) {
+            closeSpillOutput();
+        }
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        String entityName = event.getPersister().getEntityName();
+        if (isAudited(entityName)) {
+            EventSource session = event.getSession();
+            getPendingAuditRecord(session).addWorkUnit(
+                    new AddWorkUnit(session, entityName, enversService, event.getId(), event.getPersister(), event.getState()));
+        }
+    }
+
+    /**
+     * Cache the database state of a detached entity that is being updated.
+     * <p>
+     * Envers needs the old state to calculate the modified flags, but Hibernate
+     * only knows it for entities that were loaded in the session.
+     *
+     * @param event The pre update event
+     * @return false, the update is never vetoed
+     */
+    @Override
+    public boolean onPreUpdate(PreUpdateEvent event) {
+        String entityName = event.getPersister().getEntityName();
+        if (isAudited(entityName) && event.getOldState() == null && hasModifiedFlags(entityName)) {
+            EventSource session = event.getSession();
+            getPendingAuditRecord(session).cacheEntityState(entityName, event.getId(),
+                    event.getPersister().getDatabaseSnapshot(event.getId(), session));
+        }
+        return false;
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        String entityName = event.getPersister().getEntityName();
+        if (isAudited(entityName)) {
+            EventSource session = event.getSession();
+            PendingAuditRecord pendingAuditRecord = getPendingAuditRecord(session);
+            Object[] oldState = event.getOldState();
+            Object[] newState = event.getState().clone();
+            if (oldState != null) {
+                // Properties that are not updatable keep their old value
+                boolean[] propertyUpdateability = event.getPersister().getPropertyUpdateability();
+                for (int i = 0; i < newState.length; i++) {
+                    if (!propertyUpdateability[i]) {
+                        newState[i] = oldState[i];
+                    }
+                }
+            } else if (hasModifiedFlags(entityName)) {
+                oldState = pendingAuditRecord.removeCachedEntityState(entityName, event.getId());
+            }
+            pendingAuditRecord.addWorkUnit(
+                    new ModWorkUnit(session, entityName, enversService, event.getId(), event.getPersister(), newState, oldState));
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        String entityName = event.getPersister().getEntityName();
+        if (isAudited(entityName)) {
+            EventSource session = event.getSession();
+            getPendingAuditRecord(session).addWorkUnit(
+                    new DelWorkUnit(session, entityName, enversService, event.getId(), event.getPersister(), event.getDeletedState()));
+        }
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return false;
+    }
+
+    /**
+     * @deprecated Still abstract in PostActionEventListener, see
+     * requiresPostCommitHandling
+     */
+    @Override
+    @Deprecated
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return requiresPostCommitHandling(persister);
+    }
+
+    private boolean isAudited(String entityName) {
+        return enversService.getEntitiesConfigurations().isVersioned(entityName);
+    }
+
+    private boolean hasModifiedFlags(String entityName) {
+        return enversService.getEntitiesConfigurations().get(entityName).getPropertyMapper().hasPropertiesWithModifiedFlag();
+    }
+
+    private PendingAuditRecord getPendingAuditRecord(EventSource session) {
+        PendingAuditRecord pendingAuditRecord = pendingAuditRecords.get(session);
+        if (pendingAuditRecord == null) {
+            pendingAuditRecord = new PendingAuditRecord(AuditRevisionListener.getCurrentUsername());
+            pendingAuditRecords.put(session, pendingAuditRecord);
+            session.getActionQueue().registerProcess((AfterTransactionCompletionProcess) this::afterTransactionCompletion);
+        }
+        return pendingAuditRecord;
+    }
+
+    private void afterTransactionCompletion(boolean success, SharedSessionContractImplementor session) {
+        PendingAuditRecord pendingAuditRecord = pendingAuditRecords.remove(session);
+        if (success && pendingAuditRecord != null && !pendingAuditRecord.isEmpty()) {
+            enqueue(pendingAuditRecord.toAuditRecord(System.currentTimeMillis()));
+        }
+    }
+
+    private void enqueue(AuditRecord auditRecord) {
+        if (properties.getOverflow() == AuditSinkProperties.Overflow.SPILL) {
+            if (!spilling && queue.offer(auditRecord)) {
+                return;
+            }
+            synchronized (spillLock) {
+                if (!spilling && queue.offer(auditRecord)) {
+                    return;
+                }
+                try {
+                    spill(auditRecord);
+                    spilling = true;
+                    return;
+                } catch (IOException ex) {
+                    log.error("Could not append an audit record to " + spillFile + ", waiting for space in the queue", ex);
+                }
+            }
+        }
+        try {
+            queue.put(auditRecord);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while waiting for space in the audit queue, the audit record of user {} at {} is lost",
+                    auditRecord.getUsername(), auditRecord.getTimestamp());
+        }
+    }
+
+    private void spill(AuditRecord auditRecord) throws IOException {
+        if (spillOutput == null) {
+            Files.createDirectories(spillFile.toAbsolutePath().getParent());
+            spillOutput = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(spillFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        }
+        writeSpilledAuditRecord(spillOutput, auditRecord);
+        spillOutput.flush();
+    }
+
+    private static void writeSpilledAuditRecord(DataOutputStream output, AuditRecord auditRecord) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutput = new ObjectOutputStream(bytes)) {
+            objectOutput.writeObject(auditRecord);
+        }
+        output.writeInt(bytes.size());
+        bytes.writeTo(output);
+    }
+
+    private void closeSpillOutput() {
+        if (spillOutput != null) {
+            try {
+                spillOutput.close();
+            } catch (IOException ex) {
+                log.warn("Could not close " + spillFile, ex);
+            }
+            spillOutput = null;
+        }
+    }
+
+    private void writeAuditRecords() {
+        List<AuditRecord> batch = new ArrayList<>(properties.getBatchSize());
+        try {
+            while (running || !queue.isEmpty()) {
+                AuditRecord auditRecord = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (auditRecord != null) {
+                    batch.add(auditRecord);
+                    queue.drainTo(batch, properties.getBatchSize() - 1);
+                    write(batch);
+                    batch.clear();
+                } else if (spilling && running) {
+                    replaySpillFile();
+                }
+            }
+        } catch (InterruptedException ex) {
+            batch.addAll(queue);
+            handleUnwrittenAuditRecords(batch);
+        }
+    }
+
+    /**
+     * Write a batch of audit records in as few database transactions as
+     * possible.
+     * <p>
+     * A new database transaction is started before every audit record that
+     * changes an entity that was already changed in the current one, as the
+     * ValidityAuditStrategy sets the end revision of the previous audit row of
+     * an entity at the commit, once all the audit rows have been inserted.
+     */
+    private void write(List<AuditRecord> batch) throws InterruptedException {
+        Set<Pair<String, Serializable>> changedEntities = new HashSet<>();
+        int from = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            List<Pair<String, Serializable>> entities = new ArrayList<>();
+            for (AuditChange auditChange : batch.get(i).getChanges()) {
+                entities.add(Pair.make(auditChange.getEntityName(), auditChange.getId()));
+            }
+            if (!Collections.disjoint(changedEntities, entities)) {
+                writeWithRetries(batch.subList(from, i));
+                from = i;
+                changedEntities.clear();
+            }
+            changedEntities.addAll(entities);
+        }
+        writeWithRetries(batch.subList(from, batch.size()));
+    }
+
+    /**
+     * Write audit records in one database transaction, retrying with an
+     * increasing delay until the audit tables are available again.
+     */
+    private void writeWithRetries(List<AuditRecord> batch) throws InterruptedException {
+        long retryDelay = POLL_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                writeBatch(batch);
+                return;
+            } catch (RuntimeException ex) {
+                failureCounter.increment();
+                log.warn("Could not write the audit data of " + batch.size() + " transactions, retrying in " + retryDelay + " ms", ex);
+                Thread.sleep(retryDelay);
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+            }
+        }
+    }
+
+    private void writeBatch(List<AuditRecord> batch) {
+        String originalIdPropName = enversService.getAuditEntitiesConfiguration().getOriginalIdPropName();
+        String revisionFieldName = enversService.getAuditEntitiesConfiguration().getRevisionFieldName();
+        String revisionTypePropName = enversService.getAuditEntitiesConfiguration().getRevisionTypePropName();
+        List<AuditChangeEvent> events = new ArrayList<>();
+        try (Session session = sessionFactory.openSession()) {
+            Transaction transaction = session.beginTransaction();
+            try {
+                for (AuditRecord auditRecord : batch) {
+                    AuditRevision auditRevision = new AuditRevision();
+                    auditRevision.setUsername(auditRecord.getUsername());
+                    auditRevision.setRevisionTimestamp(auditRecord.getTimestamp());
+                    session.save(auditRevision);
+                    for (AuditChange auditChange : auditRecord.getChanges()) {
+                        // Copies, so that a failed batch can be written again
+                        Map<String, Object> data = new HashMap<>(auditChange.getData());
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> originalId = new HashMap<>((Map<String, Object>) data.get(originalIdPropName));
+                        originalId.put(revisionFieldName, auditRevision);
+                        data.put(originalIdPropName, originalId);
+                        enversService.getAuditStrategy().perform(session, auditChange.getEntityName(),
+                                enversService.getAuditEntitiesConfiguration(), auditChange.getId(), data, auditRevision);
+                        auditSummaryService.recordRevision(session, auditChange.getEntityName(), auditChange.getId(),
+                                auditRevision, (RevisionType) data.get(revisionTypePropName));
+                        events.add(new AuditChangeEvent(auditChange.getEntityName(), auditChange.getId(),
+                                auditRevision.getRev(), data.get(revisionTypePropName).toString(),
+                                auditRecord.getUsername(), auditRecord.getTimestamp()));
+                    }
+                }
+                transaction.commit();
+            } catch (RuntimeException ex) {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw ex;
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (AuditRecord auditRecord : batch) {
+            lagTimer.record(now - auditRecord.getTimestamp(), TimeUnit.MILLISECONDS);
+        }
+        writtenCounter.increment(batch.size());
+        auditChangeFeed.publish(events);
+    }
+
+    /**
+     * Write the audit records of the spill file.
+     * <p>
+     * The spill file is renamed to the replay file first, so that audit records
+     * that are spilled in the meantime go to a new spill file that is replayed
+     * next. Only once there is no spill file left do audit records go to the
+     * queue again.
+     */
+    private void replaySpillFile() throws InterruptedException {
+        try {
+            if (!Files.exists(replayFile)) {
+                synchronized (spillLock) {
+                    closeSpillOutput();
+                    if (sizeOf(spillFile) == 0) {
+                        Files.deleteIfExists(spillFile);
+                        spilling = false;
+                        return;
+                    }
+                    Files.move(spillFile, replayFile);
+                }
+            }
+            long offset = Files.exists(replayOffsetFile)
+                    ? Long.parseLong(new String(Files.readAllBytes(replayOffsetFile), StandardCharsets.US_ASCII).trim())
+                    : 0;
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(replayFile)))) {
+                List<AuditRecord> batch = new ArrayList<>(properties.getBatchSize());
+                long count = 0;
+                AuditRecord auditRecord;
+                while ((auditRecord = readSpilledAuditRecord(input)) != null) {
+                    if (count++ < offset) {
+                        continue;
+                    }
+                    batch.add(auditRecord);
+                    if (batch.size() == properties.getBatchSize()) {
+                        write(batch);
+                        batch.clear();
+                        Files.write(replayOffsetFile, Long.toString(count).getBytes(StandardCharsets.US_ASCII));
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    write(batch);
+                }
+            }
+            Files.delete(replayFile);
+            Files.deleteIfExists(replayOffsetFile);
+        } catch (IOException | ClassNotFoundException ex) {
+            log.error("Could not replay " + replayFile + ", retrying in " + MAX_RETRY_DELAY_MILLIS + " ms", ex);
+            Thread.sleep(MAX_RETRY_DELAY_MILLIS);
+        }
+    }
+
+    private AuditRecord readSpilledAuditRecord(DataInputStream input) throws IOException, ClassNotFoundException {
+        byte[] bytes;
+        try {
+            bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+        } catch (EOFException ex) {
+            // The end of the file, or a record that was only partly written
+            return null;
+        }
+        try (ObjectInputStream objectInput = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (AuditRecord) objectInput.readObject();
+        }
+    }
+
+    /**
+     * Keep the audit records that were taken from the queue but not written
+     * when the application is stopped.
+     * <p>
+     * They were committed before every audit record in the spill file, so they
+     * go to a new replay file, which is replayed before the spill file at the
+     * next startup. A replay file only exists while the queue is not used, but
+     * if there is one they are appended to the spill file.
+     */
+    private void handleUnwrittenAuditRecords(List<AuditRecord> auditRecords) {
+        if (auditRecords.isEmpty()) {
+            return;
+        }
+        if (properties.getOverflow() == AuditSinkProperties.Overflow.SPILL) {
+            synchronized (spillLock) {
+                try {
+                    if (Files.exists(replayFile)) {
+                        for (AuditRecord auditRecord : auditRecords) {
+                            spill(auditRecord);
+                        }
+                        log.warn("Appended the audit data of {} transactions to {}", auditRecords.size(), spillFile);
+                    } else {
+                        Files.createDirectories(replayFile.toAbsolutePath().getParent());
+                        Files.deleteIfExists(replayOffsetFile);
+                        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(replayFile)))) {
+                            for (AuditRecord auditRecord : auditRecords) {
+                                writeSpilledAuditRecord(output, auditRecord);
+                            }
+                        }
+                        log.warn("Saved the audit data of {} transactions to {}", auditRecords.size(), replayFile);
+                    }
+                    return;
+                } catch (IOException ex) {
+                    log.error("Could not save the audit data of " + auditRecords.size() + " transactions", ex);
+                }
+            }
+        }
+        log.error("The audit data of {} transactions was not written", auditRecords.size());
+    }
+
+    private double getOldestQueuedAgeSeconds() {
+        AuditRecord auditRecord = queue.peek();
+        return auditRecord == null ? 0 : (System.currentTimeMillis() - auditRecord.getTimestamp()) / 1000.0;
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.exists(path) ? Files.size(path) : 0;
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * The audit work units of one transaction, merged per entity like the
+     * Envers AuditProcess does it.
+     */
+    private static class PendingAuditRecord {
+
+        private final String username;
+
+        private final List<AuditWorkUnit> workUnits = new LinkedList<>();
+
+        private final Map<Pair<String, Object>, AuditWorkUnit> usedIds = new HashMap<>();
+
+        private final Map<Pair<String, Object>, Object[]> entityStateCache = new HashMap<>();
+
+        PendingAuditRecord(String username) {
+            this.username = username;
+        }
+
+        void addWorkUnit(AuditWorkUnit workUnit) {
+            if (!workUnit.containsWork()) {
+                return;
+            }
+            Pair<String, Object> key = Pair.make(workUnit.getEntityName(), workUnit.getEntityId());
+            AuditWorkUnit previousWorkUnit = usedIds.get(key);
+            if (previousWorkUnit == null) {
+                usedIds.put(key, workUnit);
+                workUnits.add(workUnit);
+                return;
+            }
+            AuditWorkUnit mergedWorkUnit = workUnit.dispatch(previousWorkUnit);
+            if (mergedWorkUnit != previousWorkUnit) {
+                workUnits.remove(previousWorkUnit);
+                if (mergedWorkUnit == null) {
+                    usedIds.remove(key);
+                } else {
+                    usedIds.put(key, mergedWorkUnit);
+                    workUnits.add(mergedWorkUnit);
+                }
+            }
+        }
+
+        void cacheEntityState(String entityName, Object id, Object[] entityState) {
+            entityStateCache.put(Pair.make(entityName, id), entityState);
+        }
+
+        Object[] removeCachedEntityState(String entityName, Object id) {
+            return entityStateCache.remove(Pair.make(entityName, id));
+        }
+
+        boolean isEmpty() {
+            return workUnits.isEmpty();
+        }
+
+        AuditRecord toAuditRecord(long timestamp) {
+            List<AuditChange> changes = new ArrayList<>(workUnits.size());
+            for (AuditWorkUnit workUnit : workUnits) {
+                changes.add(new AuditChange(workUnit.getEntityName(), workUnit.getEntityId(), new HashMap<>(workUnit.generateData(null))));
+            }
+            return new AuditRecord(username, timestamp, changes);
+        }
+    }
+
+    /**
+     * The audit data of one committed transaction.
+     */
+    // Lombok annotations
+    @Value
+    private static class AuditRecord implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        String username;
+
+        long timestamp;
+
+        List<AuditChange> changes;
+    }
+
+    /**
+     * The audit table row of one entity, without the revision.
+     */
+    // Lombok annotations
+    @Value
+    private static class AuditChange implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        String entityName;
+
+        Serializable id;
+
+        HashMap<String, Object> data;
+    }
+}
@@ -0,0 +1,557 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.envers.RevisionType;
+import org.springframework.stereotype.Component;
+
+/**
+ * The audit rows that the AuditArchiver moved out of the audit tables, kept in
+ * compressed segment files.
+ * <p>
+ * A segment file holds audit rows of one entity class. The rows of each entity
+ * ID are compressed together into one block, and the footer of the file
+ * indexes the blocks by entity ID, so the archived revisions of an entity are
+ * read from a segment with a single positioned read. The footer also keeps the
+ * timestamps of the archived revisions, because their AUDIT_REVISION rows are
+ * deleted.
+ * <p>
+ * A segment file is written to a temporary file that is renamed once it is
+ * complete, and it is never changed afterwards. When an archival run is
+ * stopped before it commits, its audit rows are both in a segment and in the
+ * audit table, and the next run archives them again. Therefore every read
+ * returns an archived revision once, however many segments it is in.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@Component
+// Lombok annotations
+@Slf4j
+public class AuditArchive {
+
+    private static final int SEGMENT_MAGIC = 0x41554441;
+
+    private static final int SEGMENT_FORMAT_VERSION = 1;
+
+    private static final int HEADER_LENGTH = 2 * Integer.BYTES;
+
+    private static final int TRAILER_LENGTH = Long.BYTES + Integer.BYTES;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final Path directory;
+
+    private final Map<String, List<Segment>> segments = new ConcurrentHashMap<>();
+
+    private final List<Segment> retiredSegments = new ArrayList<>();
+
+    private final AtomicLong segmentSequence = new AtomicLong();
+
+    public AuditArchive(AuditArchiveProperties properties) {
+        this.directory = Paths.get(properties.getDirectory());
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.sorted().collect(Collectors.toList());
+        }
+        int count = 0;
+        for (Path path : paths) {
+            String fileName = path.getFileName().toString();
+            if (fileName.endsWith(TEMPORARY_SUFFIX)) {
+                // A segment of an archival run that was stopped while writing it
+                Files.delete(path);
+            } else if (fileName.endsWith(SEGMENT_SUFFIX)) {
+                publish(Segment.open(path));
+                segmentSequence.set(Math.max(segmentSequence.get(), Long.parseLong(fileName.substring(0, fileName.indexOf('-')))));
+                count++;
+            }
+        }
+        log.info("Opened {} audit archive segments in {}", count, directory.toAbsolutePath());
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        segments.values().forEach(entitySegments -> entitySegments.forEach(Segment::close));
+        segments.clear();
+        retiredSegments.forEach(Segment::close);
+        retiredSegments.clear();
+    }
+
+    public boolean hasSegments(String entityName) {
+        return !getSegments(entityName).isEmpty();
+    }
+
+    public int getSegmentCount(String entityName) {
+        return getSegments(entityName).size();
+    }
+
+    /**
+     * Get the archived revisions of an entity.
+     *
+     * @param entityName The entity name
+     * @param id The ID of the entity
+     * @return The archived revisions ordered from oldest to newest
+     */
+    public List<ArchivedRevision> getRevisions(String entityName, Object id) {
+        List<Segment> entitySegments = getSegments(entityName);
+        if (entitySegments.isEmpty()) {
+            return Collections.emptyList();
+        }
+        TreeMap<Long, ArchivedRevision> revisions = new TreeMap<>();
+        for (Segment segment : entitySegments) {
+            for (ArchivedRevision revision : segment.read(id)) {
+                revisions.putIfAbsent(revision.getRev(), revision);
+            }
+        }
+        return new ArrayList<>(revisions.values());
+    }
+
+    /**
+     * Get the archived revision of an entity that was valid at a revision.
+     *
+     * @param entityName The entity name
+     * @param id The ID of the entity
+     * @param rev The revision number
+     * @return The archived revision, or null if none of the archived revisions
+     * of the entity was valid at the revision
+     */
+    public ArchivedRevision findAsOf(String entityName, Object id, long rev) {
+        for (ArchivedRevision revision : getRevisions(entityName, id)) {
+            if (revision.isValidAt(rev)) {
+                return revision;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the archived revisions of all entities that were valid at a
+     * revision.
+     * <p>
+     * Only the segments with rows that were valid at the revision are read.
+     *
+     * @param entityName The entity name
+     * @param rev The revision number
+     * @return The archived revisions
+     */
+    public List<ArchivedRevision> findAllAsOf(String entityName, long rev) {
+        Map<Object, ArchivedRevision> revisions = new LinkedHashMap<>();
+        for (Segment segment : getSegments(entityName)) {
+            if (segment.footer.minRev <= rev && segment.footer.maxRevisionEnd > rev) {
+                for (Object id : segment.footer.blocks.keySet()) {
+                    for (ArchivedRevision revision : segment.read(id)) {
+                        if (revision.isValidAt(rev)) {
+                            revisions.putIfAbsent(id, revision);
+                        }
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(revisions.values());
+    }
+
+    /**
+     * Get the latest archived revision number at a point in time.
+     *
+     * @param timestamp The point in time in milliseconds since the epoch
+     * @return The latest archived revision number at the timestamp, or null if
+     * no revision before the timestamp has been archived
+     */
+    public Long getRevisionNumberForDate(long timestamp) {
+        Long rev = null;
+        for (List<Segment> entitySegments : segments.values()) {
+            for (Segment segment : entitySegments) {
+                long[] timestamps = segment.footer.revisionTimestamps;
+                int index = Arrays.binarySearch(timestamps, timestamp);
+                if (index < 0) {
+                    index = -index - 2;
+                } else {
+                    // The last of the revisions with this exact timestamp
+                    while (index + 1 < timestamps.length && timestamps[index + 1] == timestamp) {
+                        index++;
+                    }
+                }
+                if (index >= 0 && (rev == null || segment.footer.maxRevisionNumbers[index] > rev)) {
+                    rev = segment.footer.maxRevisionNumbers[index];
+                }
+            }
+        }
+        return rev;
+    }
+
+    /**
+     * Write archived revisions to a new segment file.
+     * <p>
+     * The segment is read from as soon as this method returns, so the audit
+     * rows must only be deleted from the audit table afterwards.
+     *
+     * @param entityName The entity name
+     * @param revisions The archived revisions
+     * @throws IOException If the segment file could not be written
+     */
+    public void write(String entityName, List<ArchivedRevision> revisions) throws IOException {
+        Map<Object, List<ArchivedRevision>> blocks = new LinkedHashMap<>();
+        revisions.stream()
+                .sorted(Comparator.comparingLong(ArchivedRevision::getRev))
+                .forEach(revision -> blocks.computeIfAbsent(revision.getId(), id -> new ArrayList<>()).add(revision));
+        try (SegmentWriter writer = new SegmentWriter(entityName)) {
+            for (Map.Entry<Object, List<ArchivedRevision>> block : blocks.entrySet()) {
+                writer.writeBlock(block.getKey(), block.getValue());
+            }
+            publish(writer.finish());
+        }
+    }
+
+    /**
+     * Merge all the segments of an entity into one new segment.
+     * <p>
+     * The merged segments are retired rather than closed, because they may
+     * still be read from. Their files are deleted by closeRetiredSegments.
+     *
+     * @param entityName The entity name
+     * @throws IOException If the new segment file could not be written
+     */
+    public synchronized void compact(String entityName) throws IOException {
+        List<Segment> entitySegments = getSegments(entityName);
+        if (entitySegments.size() < 2) {
+            return;
+        }
+        Set<Object> ids = new LinkedHashSet<>();
+        for (Segment segment : entitySegments) {
+            ids.addAll(segment.footer.blocks.keySet());
+        }
+        Segment compacted;
+        try (SegmentWriter writer = new SegmentWriter(entityName)) {
+            for (Object id : ids) {
+                TreeMap<Long, ArchivedRevision> revisions = new TreeMap<>();
+                for (Segment segment : entitySegments) {
+                    for (ArchivedRevision revision : segment.read(id)) {
+                        revisions.putIfAbsent(revision.getRev(), revision);
+                    }
+                }
+                writer.writeBlock(id, new ArrayList<>(revisions.values()));
+            }
+            compacted = writer.finish();
+        }
+        segments.compute(entityName, (name, current) -> {
+            List<Segment> remaining = new ArrayList<>(current);
+            remaining.removeAll(entitySegments);
+            remaining.add(compacted);
+            return Collections.unmodifiableList(remaining);
+        });
+        retiredSegments.addAll(entitySegments);
+        log.info("Compacted {} audit archive segments of {} into {}", entitySegments.size(), entityName, compacted.path.getFileName());
+    }
+
+    /**
+     * Close and delete the segments that were merged by an earlier compaction.
+     *
+     * @throws IOException If a segment file could not be deleted
+     */
+    public synchronized void closeRetiredSegments() throws IOException {
+        for (Segment segment : retiredSegments) {
+            segment.close();
+            Files.deleteIfExists(segment.path);
+        }
+        retiredSegments.clear();
+    }
+
+    private List<Segment> getSegments(String entityName) {
+        return segments.getOrDefault(entityName, Collections.emptyList());
+    }
+
+    private void publish(Segment segment) {
+        segments.merge(segment.footer.entityName, Collections.singletonList(segment), (current, added) -> {
+            List<Segment> merged = new ArrayList<>(current);
+            merged.addAll(added);
+            return Collections.unmodifiableList(merged);
+        });
+    }
+
+    private static byte[] compress(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutput = new ObjectOutputStream(new GZIPOutputStream(bytes))) {
+            objectOutput.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object decompress(byte[] bytes) throws IOException {
+        try (ObjectInputStream objectInput = new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(bytes)))) {
+            return objectInput.readObject();
+        } catch (ClassNotFoundException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * An audit table row that has been archived, with its revision.
+     */
+    // Lombok annotations
+    @Value
+    public static class ArchivedRevision implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        Serializable id;
+
+        long rev;
+
+        long revisionTimestamp;
+
+        String username;
+
+        RevisionType revisionType;
+
+        /**
+         * The revision that superseded this revision.
+         */
+        long revisionEnd;
+
+        /**
+         * The audit table row without the revision columns, keyed by property
+         * name like the Envers audit entity.
+         */
+        HashMap<String, Object> data;
+
+        boolean isValidAt(long rev) {
+            return this.rev <= rev && revisionEnd > rev && revisionType != RevisionType.DEL;
+        }
+    }
+
+    /**
+     * The index of a segment file.
+     */
+    private static class SegmentFooter implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String entityName;
+
+        /**
+         * The offset and length of the block of each entity ID.
+         */
+        private LinkedHashMap<Object, long[]> blocks = new LinkedHashMap<>();
+
+        private long minRev = Long.MAX_VALUE;
+
+        private long maxRevisionEnd = Long.MIN_VALUE;
+
+        /**
+         * The timestamps of the archived revisions in ascending order.
+         */
+        private long[] revisionTimestamps;
+
+        /**
+         * The highest revision number up to each of the revisionTimestamps.
+         */
+        private long[] maxRevisionNumbers;
+    }
+
+    private static class Segment {
+
+        private final Path path;
+
+        private final FileChannel channel;
+
+        private final SegmentFooter footer;
+
+        private Segment(Path path, FileChannel channel, SegmentFooter footer) {
+            this.path = path;
+            this.channel = channel;
+            this.footer = footer;
+        }
+
+        static Segment open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                ByteBuffer header = read(channel, 0, HEADER_LENGTH);
+                if (size < HEADER_LENGTH + TRAILER_LENGTH || header.getInt() != SEGMENT_MAGIC
+                        || header.getInt() != SEGMENT_FORMAT_VERSION) {
+                    throw new IOException(path + " is not an audit archive segment");
+                }
+                ByteBuffer trailer = read(channel, size - TRAILER_LENGTH, TRAILER_LENGTH);
+                long footerOffset = trailer.getLong();
+                if (trailer.getInt() != SEGMENT_MAGIC) {
+                    throw new IOException(path + " is not a complete audit archive segment");
+                }
+                SegmentFooter footer = (SegmentFooter) decompress(
+                        read(channel, footerOffset, (int) (size - TRAILER_LENGTH - footerOffset)).array());
+                return new Segment(path, channel, footer);
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        List<ArchivedRevision> read(Object id) {
+            long[] block = footer.blocks.get(id);
+            if (block == null) {
+                return Collections.emptyList();
+            }
+            try {
+                return (List<ArchivedRevision>) decompress(read(channel, block[0], (int) block[1]).array());
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Could not read audit archive segment " + path, ex);
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                log.warn("Could not close " + path, ex);
+            }
+        }
+
+        private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of audit archive segment");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Writes a new segment file block by block, so that only one block is kept
+     * in memory.
+     */
+    private class SegmentWriter implements AutoCloseable {
+
+        private final Path path;
+
+        private final Path temporaryPath;
+
+        private final FileChannel channel;
+
+        private final DataOutputStream output;
+
+        private final SegmentFooter footer = new SegmentFooter();
+
+        private final Map<Long, Long> revisionTimestamps = new HashMap<>();
+
+        private long position = HEADER_LENGTH;
+
+        private boolean finished;
+
+        SegmentWriter(String entityName) throws IOException {
+            Files.createDirectories(directory);
+            path = directory.resolve(String.format("%010d-%s%s", segmentSequence.incrementAndGet(), entityName, SEGMENT_SUFFIX));
+            temporaryPath = path.resolveSibling(path.getFileName() + TEMPORARY_SUFFIX);
+            channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            output.writeInt(SEGMENT_MAGIC);
+            output.writeInt(SEGMENT_FORMAT_VERSION);
+            footer.entityName = entityName;
+        }
+
+        void writeBlock(Object id, List<ArchivedRevision> revisions) throws IOException {
+            byte[] block = compress(new ArrayList<>(revisions));
+            output.write(block);
+            footer.blocks.put(id, new long[]{position, block.length});
+            position += block.length;
+            for (ArchivedRevision revision : revisions) {
+                footer.minRev = Math.min(footer.minRev, revision.getRev());
+                footer.maxRevisionEnd = Math.max(footer.maxRevisionEnd, revision.getRevisionEnd());
+                revisionTimestamps.put(revision.getRev(), revision.getRevisionTimestamp());
+            }
+        }
+
+        Segment finish() throws IOException {
+            List<Map.Entry<Long, Long>> revisions = new ArrayList<>(revisionTimestamps.entrySet());
+            revisions.sort(Map.Entry.<Long, Long>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+            footer.revisionTimestamps = new long[revisions.size()];
+            footer.maxRevisionNumbers = new long[revisions.size()];
+            long maxRev = Long.MIN_VALUE;
+            for (int i = 0; i < revisions.size(); i++) {
+                maxRev = Math.max(maxRev, revisions.get(i).getKey());
+                footer.revisionTimestamps[i] = revisions.get(i).getValue();
+                footer.maxRevisionNumbers[i] = maxRev;
+            }
+            output.write(compress(footer));
+            output.writeLong(position);
+            output.writeInt(SEGMENT_MAGIC);
+            output.flush();
+            channel.force(true);
+            output.close();
+            finished = true;
+            Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE);
+            path.toFile().setReadOnly();
+            return Segment.open(path);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                output.close();
+                Files.deleteIfExists(temporaryPath);
+            }
+        }
+    }
+}
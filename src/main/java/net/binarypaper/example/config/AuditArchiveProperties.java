@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The application.audit.archive configuration properties.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@ConfigurationProperties(prefix = "application.audit.archive")
+// Lombok annotations
+@Data
+public class AuditArchiveProperties {
+
+    /**
+     * Whether audit rows are moved from the audit tables to segment files.
+     * Segment files that already exist are always read.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The directory of the segment files.
+     */
+    private String directory = "audit-archive";
+
+    /**
+     * How long after an audit row has been superseded by a newer revision it
+     * is moved to a segment file.
+     */
+    private Duration maxAge = Duration.ofDays(90);
+
+    /**
+     * The time between the end of one archival run and the start of the next.
+     */
+    private Duration interval = Duration.ofHours(1);
+
+    /**
+     * The maximum number of audit rows moved to one segment file.
+     */
+    private int batchSize = 10000;
+
+    /**
+     * The number of segment files of an entity above which they are merged
+     * into one.
+     */
+    private int maxSegments = 16;
+}
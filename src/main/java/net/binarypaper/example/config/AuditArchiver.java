@@ -0,0 +1,257 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import net.binarypaper.example.config.AuditArchive.ArchivedRevision;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.envers.RevisionType;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.envers.configuration.internal.AuditEntitiesConfiguration;
+import org.hibernate.envers.internal.entities.mapper.id.IdMapper;
+import org.hibernate.tuple.DynamicMapInstantiator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves old audit rows from the audit tables to the AuditArchive.
+ * <p>
+ * Every interval the audit rows that were superseded by a newer revision more
+ * than maxAge ago are written to a segment file and deleted from the audit
+ * table, batchSize rows at a time. The latest audit row of an entity is never
+ * archived, so the audit tables keep the current state and every deletion.
+ * Afterwards the AUDIT_REVISION rows that no audit row refers to any more are
+ * deleted, and the segments of an entity are compacted into one when there are
+ * more than maxSegments of them.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@Component
+@Lazy(false)
+@ConditionalOnProperty(prefix = "application.audit.archive", name = "enabled", havingValue = "true")
+// Lombok annotations
+@Slf4j
+public class AuditArchiver {
+
+    private final SessionFactoryImplementor sessionFactory;
+
+    private final EnversService enversService;
+
+    private final AuditArchive auditArchive;
+
+    private final AuditArchiveProperties properties;
+
+    private final List<String> entityNames;
+
+    private final Counter archivedCounter;
+
+    private final Counter failureCounter;
+
+    private final ScheduledExecutorService executor;
+
+    public AuditArchiver(EntityManagerFactory entityManagerFactory, AuditArchive auditArchive,
+            AuditArchiveProperties properties, MeterRegistry meterRegistry) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        this.enversService = sessionFactory.getServiceRegistry().getService(EnversService.class);
+        this.auditArchive = auditArchive;
+        this.properties = properties;
+        this.entityNames = Arrays.stream(sessionFactory.getMetamodel().getAllEntityNames())
+                .filter(enversService.getEntitiesConfigurations()::isVersioned)
+                .sorted()
+                .collect(Collectors.toList());
+        this.archivedCounter = Counter.builder("audit.archive.rows.archived")
+                .description("The number of audit rows moved to the audit archive")
+                .register(meterRegistry);
+        this.failureCounter = Counter.builder("audit.archive.failures")
+                .description("The number of failed archival runs")
+                .register(meterRegistry);
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "audit-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void start() {
+        long interval = properties.getInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::runArchival, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Archiving audit rows older than {} every {}", properties.getMaxAge(), properties.getInterval());
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private void runArchival() {
+        try {
+            long archived = archive(Instant.now().minus(properties.getMaxAge()));
+            if (archived > 0) {
+                log.info("Archived {} audit rows", archived);
+            }
+        } catch (IOException | RuntimeException ex) {
+            failureCounter.increment();
+            log.error("Could not archive the audit rows, retrying in " + properties.getInterval(), ex);
+        }
+    }
+
+    /**
+     * Archive the audit rows that were superseded before the cutoff.
+     *
+     * @param cutoff The point in time
+     * @return The number of archived audit rows
+     * @throws IOException If a segment file could not be written
+     */
+    public synchronized long archive(Instant cutoff) throws IOException {
+        auditArchive.closeRetiredSegments();
+        long archived = 0;
+        for (String entityName : entityNames) {
+            long count;
+            do {
+                count = archiveBatch(entityName, cutoff);
+                archived += count;
+                archivedCounter.increment(count);
+            } while (count == properties.getBatchSize());
+            if (auditArchive.getSegmentCount(entityName) > properties.getMaxSegments()) {
+                auditArchive.compact(entityName);
+            }
+        }
+        deleteUnusedRevisions(cutoff);
+        return archived;
+    }
+
+    /**
+     * Archive up to batchSize audit rows of an entity.
+     * <p>
+     * The segment is written before the audit rows are deleted, so the audit
+     * rows are always in the audit table, the audit archive or both.
+     */
+    private int archiveBatch(String entityName, Instant cutoff) throws IOException {
+        AuditEntitiesConfiguration configuration = enversService.getAuditEntitiesConfiguration();
+        String originalIdPropName = configuration.getOriginalIdPropName();
+        String revisionFieldName = configuration.getRevisionFieldName();
+        String revisionEndFieldName = configuration.getRevisionEndFieldName();
+        String auditEntityName = configuration.getAuditEntityName(entityName);
+        IdMapper idMapper = enversService.getEntitiesConfigurations().get(entityName).getIdMapper();
+        try (Session session = sessionFactory.openSession()) {
+            Transaction transaction = session.beginTransaction();
+            try {
+                List<Object[]> rows = session.createQuery("SELECT a, r, a." + revisionEndFieldName + ".id"
+                        + " FROM " + auditEntityName + " AS a, " + AuditRevision.class.getName() + " AS r"
+                        + " WHERE a." + originalIdPropName + "." + revisionFieldName + " = r"
+                        + " AND a." + configuration.getRevisionEndTimestampFieldName() + " < :cutoff"
+                        + " ORDER BY r.rev", Object[].class)
+                        .setParameter("cutoff", Date.from(cutoff))
+                        .setMaxResults(properties.getBatchSize())
+                        .getResultList();
+                if (rows.isEmpty()) {
+                    transaction.commit();
+                    return 0;
+                }
+                List<ArchivedRevision> revisions = new ArrayList<>(rows.size());
+                for (Object[] row : rows) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> auditRow = (Map<String, Object>) row[0];
+                    AuditRevision auditRevision = (AuditRevision) row[1];
+                    HashMap<String, Object> data = new HashMap<>(auditRow);
+                    @SuppressWarnings("unchecked")
+                    HashMap<String, Object> originalId = new HashMap<>((Map<String, Object>) data.get(originalIdPropName));
+                    originalId.remove(revisionFieldName);
+                    data.put(originalIdPropName, originalId);
+                    RevisionType revisionType = (RevisionType) data.remove(configuration.getRevisionTypePropName());
+                    data.remove(revisionEndFieldName);
+                    data.remove(configuration.getRevisionEndTimestampFieldName());
+                    data.remove(DynamicMapInstantiator.KEY);
+                    revisions.add(new ArchivedRevision(
+                            (Serializable) idMapper.mapToIdFromMap(originalId),
+                            auditRevision.getRev(),
+                            auditRevision.getRevisionTimestamp(),
+                            auditRevision.getUsername(),
+                            revisionType,
+                            ((Number) row[2]).longValue(),
+                            data));
+                }
+                auditArchive.write(entityName, revisions);
+                for (Object[] row : rows) {
+                    session.delete(auditEntityName, row[0]);
+                }
+                transaction.commit();
+                return rows.size();
+            } catch (IOException | RuntimeException ex) {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Delete the AUDIT_REVISION rows before the cutoff that no audit row
+     * refers to any more.
+     */
+    private void deleteUnusedRevisions(Instant cutoff) {
+        AuditEntitiesConfiguration configuration = enversService.getAuditEntitiesConfiguration();
+        StringBuilder query = new StringBuilder("DELETE FROM ")
+                .append(AuditRevision.class.getName())
+                .append(" AS r WHERE r.revisionTimestamp < :cutoff");
+        for (String entityName : entityNames) {
+            query.append(" AND NOT EXISTS (SELECT a FROM ").append(configuration.getAuditEntityName(entityName))
+                    .append(" AS a WHERE a.").append(configuration.getOriginalIdPropName())
+                    .append(".").append(configuration.getRevisionFieldName()).append(" = r")
+                    .append(" OR a.").append(configuration.getRevisionEndFieldName()).append(" = r)");
+        }
+        try (Session session = sessionFactory.openSession()) {
+            Transaction transaction = session.beginTransaction();
+            try {
+                int deleted = session.createQuery(query.toString())
+                        .setParameter("cutoff", cutoff.toEpochMilli())
+                        .executeUpdate();
+                transaction.commit();
+                log.debug("Deleted {} unused audit revisions", deleted);
+            } catch (RuntimeException ex) {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw ex;
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonFormat.Shape;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.io.Serializable;
+import java.util.Date;
+import lombok.Value;
+
+/**
+ * A committed change of one audited entity, as published by the
+ * AuditChangeFeed.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Jackson annotations
+@JsonPropertyOrder({
+    "id",
+    "rev",
+    "date",
+    "user",
+    "type"
+})
+// Lombok annotations
+@Value
+public class AuditChangeEvent {
+
+    // Jackson annotations
+    @JsonIgnore
+    String entityName;
+
+    // Jackson annotations
+    @JsonProperty("id")
+    // OpenAPI annotations
+    @Schema(description = "The id of the changed entity", example = "1")
+    Serializable id;
+
+    // Jackson annotations
+    @JsonProperty("rev")
+    // OpenAPI annotations
+    @Schema(description = "The revision number of the audit revision", example = "1")
+    long rev;
+
+    // Jackson annotations
+    @JsonProperty("type")
+    // OpenAPI annotations
+    @Schema(description = "The type of revision", allowableValues = "ADD, MOD, DEL", example = "MOD")
+    String type;
+
+    // Jackson annotations
+    @JsonProperty("user")
+    // OpenAPI annotations
+    @Schema(description = "The user name of the user that created the audit revision", example = "username")
+    String username;
+
+    // Jackson annotations
+    @JsonIgnore
+    long revisionTimestamp;
+
+    /**
+     * Return the date and time of revision based on the revisionTimestamp
+     *
+     * @return The date and time of revision
+     */
+    // Jackson annotations
+    @JsonProperty("date")
+    @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd HH:mm:ss z", timezone = "GMT+02:00")
+    // OpenAPI annotations
+    @Schema(description = "The date and time of revision", example = "2020-02-07 10:47:39 GMT+02:00")
+    public Date getRevisionDate() {
+        return new Date(revisionTimestamp);
+    }
+}
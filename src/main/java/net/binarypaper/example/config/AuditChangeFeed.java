@@ -0,0 +1,416 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Publishes the committed changes of the audited entities to Server-Sent
+ * Events subscribers.
+ * <p>
+ * The change events are kept in a ring buffer of bufferCapacity events in
+ * commit order. Publishing only appends to the buffer and wakes up the
+ * subscribers, every subscriber has its own cursor in the buffer and is sent
+ * its events by one of the dispatch threads, so a slow subscriber never blocks
+ * the committing thread. A subscriber that falls so far behind that its cursor
+ * is overwritten is sent a reset event and continues with the oldest buffered
+ * event.
+ * <p>
+ * Sending blocks while the client does not read. A send that takes longer than
+ * sendTimeout drops the subscriber, and the dispatcher starts another thread
+ * in place of the blocked one until its send fails or completes, so the other
+ * subscribers keep being sent their events. The dropped subscription is then
+ * completed, and its client can reconnect with its Last-Event-ID.
+ * <p>
+ * The id of an event is its sequence number in the buffer. The revision
+ * numbers are assigned before the commits, so the events are not published in
+ * revision order, and a client that reconnects with a Last-Event-ID header
+ * resumes right after the last event it received. The sequence numbers start
+ * at the startup time in microseconds, so that they keep increasing across
+ * restarts. A first subscription with a sinceRev parameter starts at the first
+ * buffered event of a later revision. When events after the resume position
+ * have already been overwritten, or the Last-Event-ID is not of this run of
+ * the application, the client is sent a reset event first, and should read the
+ * missed revisions from the revisions endpoints.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@Component
+// Lombok annotations
+@Slf4j
+public class AuditChangeFeed {
+
+    private static final String RESET_EVENT_NAME = "reset";
+
+    private final AuditChangeFeedProperties properties;
+
+    private final Object lock = new Object();
+
+    private final AuditChangeEvent[] buffer;
+
+    /**
+     * The sequence number of the first published event.
+     */
+    private final long start;
+
+    /**
+     * The sequence number of the next published event.
+     */
+    private volatile long head;
+
+    /**
+     * The highest revision number of the events that were overwritten.
+     */
+    private long overwrittenRev;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    private final Counter publishedCounter;
+
+    private final Counter resetCounter;
+
+    private final Counter stalledCounter;
+
+    private final ThreadPoolExecutor dispatcher;
+
+    private final ScheduledExecutorService heartbeat;
+
+    public AuditChangeFeed(AuditChangeFeedProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.buffer = new AuditChangeEvent[properties.getBufferCapacity()];
+        this.start = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        this.head = start;
+        Gauge.builder("audit.changes.subscribers", subscribers, Set::size)
+                .description("The number of connected change feed subscribers")
+                .register(meterRegistry);
+        this.publishedCounter = Counter.builder("audit.changes.published")
+                .description("The number of change events published to the change feed")
+                .register(meterRegistry);
+        this.resetCounter = Counter.builder("audit.changes.resets")
+                .description("The number of times a change feed subscriber missed events")
+                .register(meterRegistry);
+        this.stalledCounter = Counter.builder("audit.changes.stalled")
+                .description("The number of change feed subscribers dropped because a send timed out")
+                .register(meterRegistry);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.dispatcher = new ThreadPoolExecutor(properties.getDispatchThreads(), properties.getDispatchThreads(),
+                0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "audit-change-feed-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "audit-change-feed-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void start() {
+        long interval = properties.getHeartbeatInterval().toMillis();
+        heartbeat.scheduleWithFixedDelay(() -> subscribers.forEach(Subscriber::heartbeat),
+                interval, interval, TimeUnit.MILLISECONDS);
+        long checkInterval = Math.max(1, properties.getSendTimeout().toMillis() / 2);
+        heartbeat.scheduleWithFixedDelay(this::dropStalledSubscribers,
+                checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        heartbeat.shutdownNow();
+        dispatcher.shutdownNow();
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        subscribers.clear();
+    }
+
+    /**
+     * Publish the changes of committed revisions.
+     * <p>
+     * The events of one revision must be published in one call, in the order
+     * of the commits.
+     *
+     * @param events The change events
+     */
+    public void publish(List<AuditChangeEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        synchronized (lock) {
+            long sequence = head;
+            for (AuditChangeEvent event : events) {
+                int index = index(sequence++);
+                if (buffer[index] != null) {
+                    overwrittenRev = Math.max(overwrittenRev, buffer[index].getRev());
+                }
+                buffer[index] = event;
+            }
+            head = sequence;
+        }
+        publishedCounter.increment(events.size());
+        subscribers.forEach(Subscriber::schedule);
+    }
+
+    /**
+     * Subscribe to the changes of an entity.
+     *
+     * @param entityName The entity name
+     * @param sinceRev The revision after which the events are sent, or null
+     * for only the events published from now on
+     * @param lastEventId The id of the last event received by a reconnecting
+     * client, or null. Takes precedence over sinceRev
+     * @return The Server-Sent Events emitter of the subscription
+     */
+    public SseEmitter subscribe(String entityName, Long sinceRev, Long lastEventId) {
+        if (subscribers.size() >= properties.getMaxSubscribers()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many change feed subscribers");
+        }
+        Subscriber subscriber = new Subscriber(entityName, new SseEmitter(properties.getSubscriptionTimeout().toMillis()));
+        synchronized (lock) {
+            long oldest = oldest();
+            subscriber.cursor = head;
+            if (lastEventId != null) {
+                if (lastEventId >= oldest - 1 && lastEventId < head) {
+                    subscriber.cursor = lastEventId + 1;
+                } else {
+                    subscriber.cursor = oldest;
+                    subscriber.resetDue = true;
+                }
+            } else if (sinceRev != null) {
+                for (long sequence = oldest; sequence < head; sequence++) {
+                    if (buffer[index(sequence)].getRev() > sinceRev) {
+                        subscriber.cursor = sequence;
+                        break;
+                    }
+                }
+                subscriber.resetDue = overwrittenRev > sinceRev;
+            }
+        }
+        subscriber.emitter.onCompletion(() -> subscribers.remove(subscriber));
+        subscriber.emitter.onTimeout(() -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        subscriber.schedule();
+        return subscriber.emitter;
+    }
+
+    private void dropStalledSubscribers() {
+        long now = System.nanoTime();
+        long sendTimeout = properties.getSendTimeout().toNanos();
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.sending && now - subscriber.sendStartTime > sendTimeout) {
+                subscriber.drop();
+            }
+        }
+    }
+
+    /**
+     * Change the number of dispatch threads, to replace or give up a thread
+     * that is blocked sending to a dropped subscriber.
+     */
+    private void resizeDispatcher(int delta) {
+        synchronized (dispatcher) {
+            int size = dispatcher.getMaximumPoolSize() + delta;
+            if (delta > 0) {
+                dispatcher.setMaximumPoolSize(size);
+                dispatcher.setCorePoolSize(size);
+            } else {
+                dispatcher.setCorePoolSize(size);
+                dispatcher.setMaximumPoolSize(size);
+            }
+        }
+    }
+
+    /**
+     * The sequence number of the oldest buffered event, called with the lock
+     * held.
+     */
+    private long oldest() {
+        return Math.max(start, head - buffer.length);
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % buffer.length);
+    }
+
+    /**
+     * A subscriber with its cursor in the buffer.
+     * <p>
+     * At most one dispatch thread sends the events of a subscriber at a time.
+     */
+    private class Subscriber implements Runnable {
+
+        private final String entityName;
+
+        private final SseEmitter emitter;
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private final AtomicBoolean stalled = new AtomicBoolean();
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /**
+         * The sequence number of the next event to send.
+         */
+        private long cursor;
+
+        private volatile boolean resetDue;
+
+        private volatile boolean heartbeatDue;
+
+        private volatile boolean sending;
+
+        private volatile long sendStartTime;
+
+        Subscriber(String entityName, SseEmitter emitter) {
+            this.entityName = entityName;
+            this.emitter = emitter;
+        }
+
+        void heartbeat() {
+            heartbeatDue = true;
+            schedule();
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    dispatcher.execute(this);
+                } catch (RejectedExecutionException ex) {
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        /**
+         * Drop the subscriber, whose send has taken longer than sendTimeout.
+         * The dispatcher gets a thread in place of the blocked one, which is
+         * given up again by release.
+         */
+        void drop() {
+            if (stalled.compareAndSet(false, true)) {
+                subscribers.remove(this);
+                stalledCounter.increment();
+                log.warn("Dropped a change feed subscriber that did not read its events for {}",
+                        properties.getSendTimeout());
+                resizeDispatcher(1);
+                // Releases the thread in case the send has just completed
+                schedule();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (stalled.get()) {
+                release();
+                return;
+            }
+            try {
+                do {
+                    send();
+                    scheduled.set(false);
+                } while (!stalled.get() && cursor < head && scheduled.compareAndSet(false, true));
+            } catch (IOException | IllegalStateException ex) {
+                // The client has gone away, or the subscription has timed out
+                log.debug("Change feed subscriber disconnected: {}", ex.getMessage());
+                subscribers.remove(this);
+            } finally {
+                if (stalled.get()) {
+                    release();
+                }
+            }
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                resizeDispatcher(-1);
+                emitter.completeWithError(new IOException("Sending the change events timed out"));
+            }
+        }
+
+        private void send() throws IOException {
+            List<AuditChangeEvent> events = new ArrayList<>();
+            List<Long> sequences = new ArrayList<>();
+            synchronized (lock) {
+                long oldest = oldest();
+                if (cursor < oldest) {
+                    cursor = oldest;
+                    resetDue = true;
+                }
+                for (; cursor < head; cursor++) {
+                    AuditChangeEvent event = buffer[index(cursor)];
+                    if (event.getEntityName().equals(entityName)) {
+                        events.add(event);
+                        sequences.add(cursor);
+                    }
+                }
+            }
+            if (resetDue) {
+                resetDue = false;
+                resetCounter.increment();
+                send(SseEmitter.event().name(RESET_EVENT_NAME).data("Change events were missed"));
+            }
+            for (int i = 0; i < events.size(); i++) {
+                send(SseEmitter.event()
+                        .id(Long.toString(sequences.get(i)))
+                        .data(events.get(i), MediaType.APPLICATION_JSON));
+            }
+            if (heartbeatDue) {
+                heartbeatDue = false;
+                if (events.isEmpty()) {
+                    send(SseEmitter.event().comment("heartbeat"));
+                }
+            }
+        }
+
+        /**
+         * Send an event, timed by dropStalledSubscribers.
+         */
+        private void send(SseEmitter.SseEventBuilder event) throws IOException {
+            sendStartTime = System.nanoTime();
+            sending = true;
+            try {
+                emitter.send(event);
+            } finally {
+                sending = false;
+            }
+        }
+    }
+}
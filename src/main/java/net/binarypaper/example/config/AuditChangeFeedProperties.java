@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The application.audit.change-feed configuration properties.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@ConfigurationProperties(prefix = "application.audit.change-feed")
+// Lombok annotations
+@Data
+public class AuditChangeFeedProperties {
+
+    /**
+     * The number of change events kept in memory for subscribers that are
+     * behind or resume from an earlier revision.
+     */
+    private int bufferCapacity = 10000;
+
+    /**
+     * The maximum number of subscribers connected at the same time.
+     */
+    private int maxSubscribers = 1000;
+
+    /**
+     * The number of threads that send the change events to the subscribers.
+     */
+    private int dispatchThreads = 4;
+
+    /**
+     * The time between heartbeat comments sent to idle subscribers.
+     */
+    private Duration heartbeatInterval = Duration.ofSeconds(15);
+
+    /**
+     * How long sending an event to a subscriber may block before the
+     * subscriber is dropped, so that a client that does not read cannot hold
+     * up a dispatch thread.
+     */
+    private Duration sendTimeout = Duration.ofSeconds(10);
+
+    /**
+     * How long a subscription stays open before the client has to reconnect.
+     */
+    private Duration subscriptionTimeout = Duration.ofMinutes(30);
+}
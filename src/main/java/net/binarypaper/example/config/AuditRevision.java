@@ -29,6 +29,8 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 import lombok.Data;
@@ -40,7 +42,9 @@ import org.hibernate.envers.RevisionTimestamp;
 
 // JPA annotations
 @Entity
-@Table(name = "AUDIT_REVISION")
+@Table(name = "AUDIT_REVISION", indexes = {
+    @Index(name = "IDX_AUDIT_REVISION_TIMESTAMP", columnList = "REV_TIMESTAMP")
+})
 // Envers annotations
 @RevisionEntity(AuditRevisionListener.class)
 // Jackson annotations
@@ -68,7 +72,8 @@ public class AuditRevision implements Serializable {
      */
     // JPA annotations
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "AUDIT_REVISION_SEQ")
+    @SequenceGenerator(name = "AUDIT_REVISION_SEQ", sequenceName = "AUDIT_REVISION_SEQ", allocationSize = 50)
     // Envers annotations
     @RevisionNumber
     // Jackson annotations
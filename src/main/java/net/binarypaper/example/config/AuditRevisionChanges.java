@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import com.fasterxml.jackson.annotation.JsonView;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The properties of an entity that were changed in an audit revision, with
+ * their values after the revision.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AuditRevisionChanges {
+
+    // Jackson annotations
+    @JsonView({AuditRevision.class})
+    // OpenAPI annotations
+    @Schema(description = "The audit revision details")
+    private AuditRevision revision;
+
+    // Jackson annotations
+    @JsonView({AuditRevision.class})
+    // OpenAPI annotations
+    @Schema(description = "The changed properties with their values after the revision")
+    private Map<String, Object> changes;
+}
@@ -15,15 +15,50 @@
  */
 package net.binarypaper.example.config;
 
-import java.lang.reflect.InvocationTargetException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import javax.persistence.EntityManager;
+import javax.persistence.PersistenceUnitUtil;
 import lombok.extern.java.Log;
-import org.hibernate.envers.AuditReader;
+import net.binarypaper.example.config.AuditArchive.ArchivedRevision;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.envers.AuditReaderFactory;
+import org.hibernate.envers.RevisionType;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.envers.exception.RevisionDoesNotExistException;
+import org.hibernate.envers.internal.entities.EntityInstantiator;
+import org.hibernate.envers.internal.reader.AuditReaderImplementor;
 import org.hibernate.envers.query.AuditEntity;
+import org.hibernate.envers.query.AuditQuery;
+import org.hibernate.envers.query.criteria.AuditDisjunction;
+import org.hibernate.persister.entity.EntityPersister;
 
 /**
  * Helper class to perform some common tasks on audit revisions of a database
@@ -37,18 +72,57 @@ import org.hibernate.envers.query.AuditEntity;
 public class AuditRevisionHelper<T> {
 
     private final Class<T> entityClass;
-    private final String revisionSetMethodName;
+    private final AuditArchive auditArchive;
+    private final BiConsumer<T, AuditRevision> revisionSetter;
+    private final DistributionSummary revisionsSummary;
+    private final DistributionSummary revisionChangesSummary;
+    private volatile Set<String> modifiedFlagProperties;
 
     public AuditRevisionHelper(Class<T> entityClass) {
+        this(entityClass, null);
+    }
+
+    /**
+     * @param entityClass The entity class that has audit revisions
+     * @param auditArchive The archive of the revisions that were moved out of
+     * the audit tables, or null
+     */
+    public AuditRevisionHelper(Class<T> entityClass, AuditArchive auditArchive) {
+        this(entityClass, auditArchive, null);
+    }
+
+    /**
+     * @param entityClass The entity class that has audit revisions
+     * @param auditArchive The archive of the revisions that were moved out of
+     * the audit tables, or null
+     * @param meterRegistry The registry of the audit.revisions.returned
+     * summaries, or null
+     */
+    public AuditRevisionHelper(Class<T> entityClass, AuditArchive auditArchive, MeterRegistry meterRegistry) {
         this.entityClass = entityClass;
-        revisionSetMethodName = getAuditRevisionSetMethod();
-        if (revisionSetMethodName == null) {
+        this.auditArchive = auditArchive;
+        this.revisionsSummary = revisionsSummary(meterRegistry, "getAuditRevisions");
+        this.revisionChangesSummary = revisionsSummary(meterRegistry, "getAuditRevisionChanges");
+        Method revisionSetMethod = getAuditRevisionSetMethod();
+        if (revisionSetMethod == null) {
             throw new RuntimeException("The entity class " + entityClass.getName()
                     + " does not have a set method to set an AuditRevision");
         }
+        revisionSetter = createRevisionSetter(revisionSetMethod);
     }
 
-    private String getAuditRevisionSetMethod() {
+    private DistributionSummary revisionsSummary(MeterRegistry meterRegistry, String operation) {
+        if (meterRegistry == null) {
+            return null;
+        }
+        return DistributionSummary.builder("audit.revisions.returned")
+                .description("The number of audit revisions returned per call")
+                .tag("entity", entityClass.getSimpleName())
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+
+    private Method getAuditRevisionSetMethod() {
         // Get all the methods of the entity class
         Method[] methods = entityClass.getDeclaredMethods();
         // Loop through the array of methods
@@ -58,44 +132,677 @@ public class AuditRevisionHelper<T> {
             // Only consider methods with 1 input parameter
             if (parameterTypes.length == 1) {
                 if (parameterTypes[0].getName().equals(AuditRevision.class.getName())) {
-                    return method.getName();
+                    return method;
                 }
             }
         }
         return null;
     }
 
+    /**
+     * Generate a lambda that calls the set method directly, so that setting the
+     * AuditRevision on each revision row does not go through reflection.
+     *
+     * @param revisionSetMethod The set method of the entity class
+     * @return The generated set method lambda
+     */
+    @SuppressWarnings("unchecked")
+    private BiConsumer<T, AuditRevision> createRevisionSetter(Method revisionSetMethod) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle revisionSetHandle = lookup.unreflect(revisionSetMethod);
+            CallSite callSite = LambdaMetafactory.metafactory(
+                    lookup,
+                    "accept",
+                    MethodType.methodType(BiConsumer.class),
+                    MethodType.methodType(void.class, Object.class, Object.class),
+                    revisionSetHandle,
+                    MethodType.methodType(void.class, entityClass, AuditRevision.class));
+            return (BiConsumer<T, AuditRevision>) callSite.getTarget().invokeExact();
+        } catch (Throwable ex) {
+            log.severe(ex.getMessage());
+            throw new RuntimeException("The set method of the entity class " + entityClass.getName()
+                    + " method to set an AuditRevision could not be resolved");
+        }
+    }
+
     public List<T> getAllAuditRevisions(EntityManager em, Object id) {
-        AuditReader reader = AuditReaderFactory.get(em);
-        @SuppressWarnings("unchecked")
-        List<Object[]> revisions = (List<Object[]>) reader
+        return getAuditRevisions(em, id, null, null, true);
+    }
+
+    /**
+     * Get a page of the audit revisions of an entity, using the revision number
+     * as the cursor.
+     *
+     * @param em The entity manager
+     * @param id The ID of the entity
+     * @param afterRev Only return revisions after this revision number in the
+     * requested order, or null to start at the first revision
+     * @param limit The maximum number of revisions to return, or null for all
+     * @param ascending True to order the revisions from oldest to newest
+     * @return The entity revisions
+     */
+    public List<T> getAuditRevisions(EntityManager em, Object id, Number afterRev, Integer limit, boolean ascending) {
+        return getAuditRevisions(em, id, afterRev, limit, ascending, null);
+    }
+
+    /**
+     * Get a page of the audit revisions of an entity in which any of the
+     * requested properties were changed.
+     * <p>
+     * The revisions are selected with the modified flag columns of the audit
+     * table, so the entity class must be audited with withModifiedFlag.
+     *
+     * @param em The entity manager
+     * @param id The ID of the entity
+     * @param afterRev Only return revisions after this revision number in the
+     * requested order, or null to start at the first revision
+     * @param limit The maximum number of revisions to return, or null for all
+     * @param ascending True to order the revisions from oldest to newest
+     * @param changedProperties Only return revisions in which any of these
+     * properties were changed, or null or empty for all revisions
+     * @return The entity revisions
+     */
+    public List<T> getAuditRevisions(EntityManager em, Object id, Number afterRev, Integer limit, boolean ascending,
+            Collection<String> changedProperties) {
+        List<Object[]> revisions = getRevisionRows(em, id, afterRev, limit, ascending, changedProperties, false);
+        List<T> entityList = new ArrayList<>(revisions.size());
+        for (Object[] revision : revisions) {
+            entityList.add(toEntity(revision));
+        }
+        if (revisionsSummary != null) {
+            revisionsSummary.record(entityList.size());
+        }
+        return entityList;
+    }
+
+    /**
+     * Get a page of the changes made to an entity in each of its audit
+     * revisions.
+     * <p>
+     * Only the properties flagged as modified in the audit table are returned
+     * per revision, so the changes are found without comparing the revisions
+     * with each other. Added revisions contain every property that was set,
+     * and deleted revisions have no changes.
+     *
+     * @param em The entity manager
+     * @param id The ID of the entity
+     * @param afterRev Only return revisions after this revision number in the
+     * requested order, or null to start at the first revision
+     * @param limit The maximum number of revisions to return, or null for all
+     * @param ascending True to order the revisions from oldest to newest
+     * @param changedProperties Only return revisions in which any of these
+     * properties were changed, or null or empty for all revisions
+     * @return The changes of each revision
+     */
+    public List<AuditRevisionChanges> getAuditRevisionChanges(EntityManager em, Object id, Number afterRev,
+            Integer limit, boolean ascending, Collection<String> changedProperties) {
+        List<Object[]> revisions = getRevisionRows(em, id, afterRev, limit, ascending, changedProperties, true);
+        EntityPersister persister = getEntityPersister(em);
+        List<AuditRevisionChanges> changesList = new ArrayList<>(revisions.size());
+        for (Object[] revision : revisions) {
+            @SuppressWarnings("unchecked")
+            Set<String> changedPropertyNames = (Set<String>) revision[3];
+            boolean added = revision[2] == RevisionType.ADD;
+            Map<String, Object> changes = new LinkedHashMap<>();
+            // Keep the order of the properties of the entity class
+            for (String propertyName : persister.getPropertyNames()) {
+                Object value = persister.getPropertyValue(revision[0], propertyName);
+                // Envers only reports the changes of modified revisions, while
+                // every property that was set is flagged when an entity is added
+                if (changedPropertyNames.contains(propertyName)
+                        || (added && value != null && getModifiedFlagProperties(em).contains(propertyName))) {
+                    changes.put(propertyName, value);
+                }
+            }
+            changesList.add(new AuditRevisionChanges(toAuditRevision(revision), changes));
+        }
+        if (revisionChangesSummary != null) {
+            revisionChangesSummary.record(changesList.size());
+        }
+        return changesList;
+    }
+
+    /**
+     * Get the names of the properties of the entity class that have a modified
+     * flag in the audit table.
+     *
+     * @param em The entity manager
+     * @return The property names, or an empty set if the entity class is not
+     * audited with withModifiedFlag
+     */
+    public Set<String> getModifiedFlagProperties(EntityManager em) {
+        Set<String> properties = modifiedFlagProperties;
+        if (properties == null) {
+            SessionFactoryImplementor sessionFactory = em.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+            EnversService enversService = getEnversService(em);
+            String auditEntityName = enversService.getAuditEntitiesConfiguration().getAuditEntityName(entityClass.getName());
+            String modifiedFlagSuffix = enversService.getGlobalConfiguration().getModifiedFlagSuffix();
+            Set<String> auditPropertyNames = new LinkedHashSet<>();
+            Collections.addAll(auditPropertyNames,
+                    sessionFactory.getMetamodel().entityPersister(auditEntityName).getPropertyNames());
+            properties = new LinkedHashSet<>();
+            for (String propertyName : getEntityPersister(em).getPropertyNames()) {
+                if (auditPropertyNames.contains(propertyName + modifiedFlagSuffix)) {
+                    properties.add(propertyName);
+                }
+            }
+            properties = Collections.unmodifiableSet(properties);
+            modifiedFlagProperties = properties;
+        }
+        return properties;
+    }
+
+    /**
+     * Stream all the audit revisions of an entity.
+     * <p>
+     * The revisions are read from the database in pages of pageSize, and the
+     * revision entities of a page are detached from the entity manager once
+     * converted. Memory use therefore stays the same regardless of the length
+     * of the revision history.
+     *
+     * @param em The entity manager
+     * @param id The ID of the entity
+     * @param ascending True to order the revisions from oldest to newest
+     * @param pageSize The number of revisions to read from the database at once
+     * @return The lazily read entity revisions
+     */
+    public Stream<T> streamAuditRevisions(EntityManager em, Object id, boolean ascending, int pageSize) {
+        return streamRevisionPages(em, pageSize,
+                lastRevision -> createRevisionsQuery(
+                        em, id, lastRevision == null ? null : getRevisionNumber(lastRevision), ascending, null, false),
+                () -> getArchivedRevisionRows(em, id, null, ascending, null, false).iterator(),
+                revisionOrder(ascending));
+    }
+
+    /**
+     * Stream the audit revisions of many entities, ordered by entity ID and
+     * then from oldest to newest.
+     * <p>
+     * The revisions of all the entities are read with a single query, a page
+     * of pageSize at a time. Each page continues after the entity ID and
+     * revision number of the last revision of the previous page, so that the
+     * pages stay cheap to read regardless of how far into the revisions they
+     * are.
+     *
+     * @param em The entity manager
+     * @param ids The IDs of the entities
+     * @param fromRev Only return revisions from this revision number, or null
+     * @param toRev Only return revisions up to this revision number, or null
+     * @param fromDate Only return revisions made from this date, or null
+     * @param toDate Only return revisions made up to this date, or null
+     * @param pageSize The number of revisions to read from the database at once
+     * @return The lazily read entity revisions
+     */
+    public Stream<T> streamAuditRevisions(EntityManager em, Collection<?> ids, Number fromRev, Number toRev,
+            Date fromDate, Date toDate, int pageSize) {
+        return toEntities(readRevisionPages(em, ids, fromRev, toRev, fromDate, toDate, pageSize));
+    }
+
+    /**
+     * Summarize the audit revisions of many entities, including their archived
+     * revisions.
+     * <p>
+     * The revisions are read the same way as by streamAuditRevisions, a page of
+     * pageSize at a time, and only the summaries are kept in memory.
+     *
+     * @param em The entity manager
+     * @param ids The numeric IDs of the entities
+     * @param pageSize The number of revisions to read from the database at once
+     * @return The summaries of the entities with revisions, ordered by entity ID
+     */
+    public List<AuditSummary> getAuditSummaries(EntityManager em, Collection<?> ids, int pageSize) {
+        PersistenceUnitUtil persistenceUnitUtil = em.getEntityManagerFactory().getPersistenceUnitUtil();
+        List<AuditSummary> summaries = new ArrayList<>();
+        AuditSummary summary = null;
+        Iterator<Object[]> revisions = readRevisionPages(em, ids, null, null, null, null, pageSize);
+        while (revisions.hasNext()) {
+            Object[] revision = revisions.next();
+            Long id = ((Number) persistenceUnitUtil.getIdentifier(revision[0])).longValue();
+            if (summary == null || !summary.getEntityId().equals(id)) {
+                summary = new AuditSummary();
+                summary.setEntityName(entityClass.getName());
+                summary.setEntityId(id);
+                summaries.add(summary);
+            }
+            summary.addRevision((AuditRevision) revision[1], revision[2].toString());
+        }
+        return summaries;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Iterator<Object[]> readRevisionPages(EntityManager em, Collection<?> ids, Number fromRev, Number toRev,
+            Date fromDate, Date toDate, int pageSize) {
+        PersistenceUnitUtil persistenceUnitUtil = em.getEntityManagerFactory().getPersistenceUnitUtil();
+        Supplier<Iterator<Object[]>> archivedRevisions = () -> ids.stream()
+                .sorted()
+                .flatMap(id -> auditArchive.getRevisions(entityClass.getName(), id).stream())
+                .filter(revision -> (fromRev == null || revision.getRev() >= fromRev.longValue())
+                        && (toRev == null || revision.getRev() <= toRev.longValue())
+                        && (fromDate == null || revision.getRevisionTimestamp() >= fromDate.getTime())
+                        && (toDate == null || revision.getRevisionTimestamp() <= toDate.getTime()))
+                .map(revision -> toRevisionRow(em, revision, false))
+                .iterator();
+        Comparator<Object[]> order = Comparator
+                .comparing((Object[] revision) -> (Comparable<Object>) persistenceUnitUtil.getIdentifier(revision[0]))
+                .thenComparing(revisionOrder(true));
+        return readRevisionPages(em, pageSize, lastRevision -> {
+            AuditQuery query = AuditReaderFactory.get(em)
+                    .createQuery()
+                    .forRevisionsOfEntity(entityClass, false, true)
+                    .add(AuditEntity.id().in(ids))
+                    .addOrder(AuditEntity.id().asc())
+                    .addOrder(AuditEntity.revisionNumber().asc());
+            if (fromRev != null) {
+                query.add(AuditEntity.revisionNumber().ge(fromRev));
+            }
+            if (toRev != null) {
+                query.add(AuditEntity.revisionNumber().le(toRev));
+            }
+            if (fromDate != null) {
+                query.add(AuditEntity.revisionProperty("revisionTimestamp").ge(fromDate.getTime()));
+            }
+            if (toDate != null) {
+                query.add(AuditEntity.revisionProperty("revisionTimestamp").le(toDate.getTime()));
+            }
+            if (lastRevision != null) {
+                Object lastId = persistenceUnitUtil.getIdentifier(lastRevision[0]);
+                query.add(AuditEntity.disjunction()
+                        .add(AuditEntity.id().gt(lastId))
+                        .add(AuditEntity.conjunction()
+                                .add(AuditEntity.id().eq(lastId))
+                                .add(AuditEntity.revisionNumber().gt(getRevisionNumber(lastRevision)))));
+            }
+            return query;
+        }, archivedRevisions, order);
+    }
+
+    private Stream<T> streamRevisionPages(EntityManager em, int pageSize, Function<Object[], AuditQuery> pageQuery,
+            Supplier<Iterator<Object[]>> archivedRevisions, Comparator<Object[]> order) {
+        return toEntities(readRevisionPages(em, pageSize, pageQuery, archivedRevisions, order));
+    }
+
+    private Iterator<Object[]> readRevisionPages(EntityManager em, int pageSize,
+            Function<Object[], AuditQuery> pageQuery, Supplier<Iterator<Object[]>> archivedRevisions,
+            Comparator<Object[]> order) {
+        Iterator<Object[]> iterator = new RevisionPageIterator(em, pageSize, pageQuery);
+        if (hasArchivedRevisions()) {
+            iterator = new MergingIterator(iterator, archivedRevisions, order);
+        }
+        return iterator;
+    }
+
+    private Stream<T> toEntities(Iterator<Object[]> revisions) {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(revisions, Spliterator.ORDERED | Spliterator.NONNULL),
+                false)
+                .map(this::toEntity);
+    }
+
+    /**
+     * Get the latest revision number of an entity.
+     * <p>
+     * Revisions are never changed once written, so the latest revision number
+     * identifies the current state of the revision history.
+     *
+     * @param em The entity manager
+     * @param id The ID of the entity
+     * @return The latest revision number, or null if the entity has no revisions
+     */
+    public Number getLatestRevisionNumber(EntityManager em, Object id) {
+        return (Number) AuditReaderFactory.get(em)
                 .createQuery()
                 .forRevisionsOfEntity(entityClass, false, true)
+                .addProjection(AuditEntity.revisionNumber().max())
                 .add(AuditEntity.id().eq(id))
+                .getSingleResult();
+    }
+
+    /**
+     * Get the state of an entity as of a revision.
+     *
+     * @param em The entity manager
+     * @param id The ID of the entity
+     * @param rev The revision number
+     * @return The entity as it was at the revision, or null if it did not
+     * exist at the revision
+     */
+    public T getEntityAsOf(EntityManager em, Object id, Number rev) {
+        T entity = AuditReaderFactory.get(em).find(entityClass, id, rev);
+        if (entity == null && hasArchivedRevisions()) {
+            ArchivedRevision archivedRevision = auditArchive.findAsOf(entityClass.getName(), id, rev.longValue());
+            if (archivedRevision != null) {
+                @SuppressWarnings("unchecked")
+                T archivedEntity = (T) toRevisionRow(em, archivedRevision, false)[0];
+                entity = archivedEntity;
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * Get the state of all entities as of a revision.
+     * <p>
+     * With the validity audit strategy this selects the audit rows with
+     * REV &lt;= rev AND (REVEND &gt; rev OR REVEND IS NULL), without the
+     * correlated subquery the default audit strategy needs.
+     *
+     * @param em The entity manager
+     * @param rev The revision number
+     * @return The entities that existed at the revision, as they were at the
+     * revision
+     */
+    public List<T> getAllEntitiesAsOf(EntityManager em, Number rev) {
+        @SuppressWarnings("unchecked")
+        List<T> entities = (List<T>) AuditReaderFactory.get(em)
+                .createQuery()
+                .forEntitiesAtRevision(entityClass, rev)
                 .getResultList();
-        List<T> entityList = new ArrayList<>();
-        for (Object[] revision : revisions) {
-            @SuppressWarnings("unchecked")
-            T entity = (T) revision[0];
-            AuditRevision dbAuditRevision = (AuditRevision) revision[1];
-            dbAuditRevision.setRevisionType(revision[2].toString());
-            AuditRevision auditRevision = new AuditRevision();
-            auditRevision.setRev(dbAuditRevision.getRev());
-            auditRevision.setRevisionTimestamp(dbAuditRevision.getRevisionTimestamp());
-            auditRevision.setRevisionType(revision[2].toString());
-            auditRevision.setUsername(dbAuditRevision.getUsername());
-            // Call the revisionMethodName method using reflection in order to
-            // set the auditRevision on the entity class
-            try {
-                Method revisionMethod = entityClass.getMethod(revisionSetMethodName, AuditRevision.class);
-                revisionMethod.invoke(entity, auditRevision);
-            } catch (NoSuchMethodException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-                log.severe(ex.getMessage());
-                throw new RuntimeException("The set method of the entity class " + entityClass.getName()
-                        + " method to set an AuditRevision could not be called");
-            }
-            entityList.add(entity);
+        if (hasArchivedRevisions()) {
+            PersistenceUnitUtil persistenceUnitUtil = em.getEntityManagerFactory().getPersistenceUnitUtil();
+            Set<Object> ids = new HashSet<>();
+            for (T entity : entities) {
+                ids.add(persistenceUnitUtil.getIdentifier(entity));
+            }
+            for (ArchivedRevision archivedRevision : auditArchive.findAllAsOf(entityClass.getName(), rev.longValue())) {
+                if (ids.add(archivedRevision.getId())) {
+                    @SuppressWarnings("unchecked")
+                    T archivedEntity = (T) toRevisionRow(em, archivedRevision, false)[0];
+                    entities.add(archivedEntity);
+                }
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Get the latest revision number at a point in time.
+     *
+     * @param em The entity manager
+     * @param date The point in time
+     * @return The latest revision number at the date, or null if there were no
+     * revisions yet
+     */
+    public Number getRevisionNumberForDate(EntityManager em, Date date) {
+        Number rev;
+        try {
+            rev = AuditReaderFactory.get(em).getRevisionNumberForDate(date);
+        } catch (RevisionDoesNotExistException ex) {
+            rev = null;
+        }
+        if (auditArchive != null) {
+            // The AUDIT_REVISION rows of archived revisions have been deleted
+            Long archivedRev = auditArchive.getRevisionNumberForDate(date.getTime());
+            if (archivedRev != null && (rev == null || archivedRev > rev.longValue())) {
+                rev = archivedRev;
+            }
+        }
+        return rev;
+    }
+
+    private boolean hasArchivedRevisions() {
+        return auditArchive != null && auditArchive.hasSegments(entityClass.getName());
+    }
+
+    /**
+     * Get the revision rows of an entity from the audit table, merged with its
+     * archived revisions.
+     */
+    private List<Object[]> getRevisionRows(EntityManager em, Object id, Number afterRev, Integer limit,
+            boolean ascending, Collection<String> changedProperties, boolean withChanges) {
+        AuditQuery query = createRevisionsQuery(em, id, afterRev, ascending, changedProperties, withChanges);
+        if (limit != null) {
+            query.setMaxResults(limit);
+        }
+        @SuppressWarnings("unchecked")
+        List<Object[]> revisions = (List<Object[]>) query.getResultList();
+        if (!hasArchivedRevisions()) {
+            return revisions;
+        }
+        Iterator<Object[]> mergedRevisions = new MergingIterator(revisions.iterator(),
+                () -> getArchivedRevisionRows(em, id, afterRev, ascending, changedProperties, withChanges).iterator(),
+                revisionOrder(ascending));
+        List<Object[]> revisionPage = new ArrayList<>();
+        while (mergedRevisions.hasNext() && (limit == null || revisionPage.size() < limit)) {
+            revisionPage.add(mergedRevisions.next());
+        }
+        return revisionPage;
+    }
+
+    private List<Object[]> getArchivedRevisionRows(EntityManager em, Object id, Number afterRev, boolean ascending,
+            Collection<String> changedProperties, boolean withChanges) {
+        List<ArchivedRevision> archivedRevisions = new ArrayList<>(auditArchive.getRevisions(entityClass.getName(), id));
+        if (!ascending) {
+            Collections.reverse(archivedRevisions);
+        }
+        List<Object[]> revisions = new ArrayList<>(archivedRevisions.size());
+        for (ArchivedRevision archivedRevision : archivedRevisions) {
+            if (afterRev != null && (ascending
+                    ? archivedRevision.getRev() <= afterRev.longValue()
+                    : archivedRevision.getRev() >= afterRev.longValue())) {
+                continue;
+            }
+            if (changedProperties != null && !changedProperties.isEmpty()
+                    && Collections.disjoint(changedProperties, getChangedProperties(em, archivedRevision))) {
+                continue;
+            }
+            revisions.add(toRevisionRow(em, archivedRevision, withChanges));
+        }
+        return revisions;
+    }
+
+    private Set<String> getChangedProperties(EntityManager em, ArchivedRevision archivedRevision) {
+        String modifiedFlagSuffix = getEnversService(em).getGlobalConfiguration().getModifiedFlagSuffix();
+        Set<String> changedProperties = new HashSet<>();
+        for (String propertyName : getModifiedFlagProperties(em)) {
+            if (Boolean.TRUE.equals(archivedRevision.getData().get(propertyName + modifiedFlagSuffix))) {
+                changedProperties.add(propertyName);
+            }
+        }
+        return changedProperties;
+    }
+
+    /**
+     * Convert an archived revision into a revision row like those returned by
+     * the AuditReader, with the entity created the same way Envers does it.
+     */
+    private Object[] toRevisionRow(EntityManager em, ArchivedRevision archivedRevision, boolean withChanges) {
+        Object entity = new EntityInstantiator(getEnversService(em), (AuditReaderImplementor) AuditReaderFactory.get(em))
+                .createInstanceFromVersionsEntity(entityClass.getName(), new HashMap<>(archivedRevision.getData()),
+                        archivedRevision.getRev());
+        AuditRevision auditRevision = new AuditRevision();
+        auditRevision.setRev(archivedRevision.getRev());
+        auditRevision.setRevisionTimestamp(archivedRevision.getRevisionTimestamp());
+        auditRevision.setUsername(archivedRevision.getUsername());
+        return withChanges
+                ? new Object[]{entity, auditRevision, archivedRevision.getRevisionType(), getChangedProperties(em, archivedRevision)}
+                : new Object[]{entity, auditRevision, archivedRevision.getRevisionType()};
+    }
+
+    private static Comparator<Object[]> revisionOrder(boolean ascending) {
+        Comparator<Object[]> order = Comparator.comparingLong(revision -> getRevisionNumber(revision).longValue());
+        return ascending ? order : order.reversed();
+    }
+
+    private static EnversService getEnversService(EntityManager em) {
+        return em.getEntityManagerFactory()
+                .unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EnversService.class);
+    }
+
+    private static Number getRevisionNumber(Object[] revision) {
+        return ((AuditRevision) revision[1]).getRev();
+    }
+
+    private EntityPersister getEntityPersister(EntityManager em) {
+        return em.getEntityManagerFactory()
+                .unwrap(SessionFactoryImplementor.class)
+                .getMetamodel()
+                .entityPersister(entityClass);
+    }
+
+    private AuditQuery createRevisionsQuery(EntityManager em, Object id, Number afterRev, boolean ascending,
+            Collection<String> changedProperties, boolean withChanges) {
+        AuditQuery query = (withChanges
+                ? AuditReaderFactory.get(em).createQuery().forRevisionsOfEntityWithChanges(entityClass, true)
+                : AuditReaderFactory.get(em).createQuery().forRevisionsOfEntity(entityClass, false, true))
+                .add(AuditEntity.id().eq(id))
+                .addOrder(ascending ? AuditEntity.revisionNumber().asc() : AuditEntity.revisionNumber().desc());
+        if (afterRev != null) {
+            query.add(ascending ? AuditEntity.revisionNumber().gt(afterRev) : AuditEntity.revisionNumber().lt(afterRev));
+        }
+        if (changedProperties != null && !changedProperties.isEmpty()) {
+            AuditDisjunction anyChanged = AuditEntity.disjunction();
+            for (String propertyName : changedProperties) {
+                anyChanged.add(AuditEntity.property(propertyName).hasChanged());
+            }
+            query.add(anyChanged);
+        }
+        return query;
+    }
+
+    /**
+     * Convert a revision row returned by the AuditReader into the entity with
+     * its AuditRevision set.
+     *
+     * @param revision The revision row of entity, revision entity and revision type
+     * @return The entity with its AuditRevision set
+     */
+    private T toEntity(Object[] revision) {
+        @SuppressWarnings("unchecked")
+        T entity = (T) revision[0];
+        revisionSetter.accept(entity, toAuditRevision(revision));
+        return entity;
+    }
+
+    /**
+     * Get the AuditRevision of a revision row returned by the AuditReader.
+     * <p>
+     * The AuditRevision returned by the AuditReader is the managed revision
+     * entity, which is shared by every entity changed in the same revision.
+     * Therefore the revision type is set on a copy of it.
+     *
+     * @param revision The revision row of entity, revision entity and revision type
+     * @return A copy of the AuditRevision with its revision type set
+     */
+    private static AuditRevision toAuditRevision(Object[] revision) {
+        AuditRevision dbAuditRevision = (AuditRevision) revision[1];
+        AuditRevision auditRevision = new AuditRevision();
+        auditRevision.setRev(dbAuditRevision.getRev());
+        auditRevision.setRevisionTimestamp(dbAuditRevision.getRevisionTimestamp());
+        auditRevision.setRevisionType(revision[2].toString());
+        auditRevision.setUsername(dbAuditRevision.getUsername());
+        return auditRevision;
+    }
+
+    /**
+     * Iterator that reads audit revisions a page at a time.
+     */
+    private class RevisionPageIterator implements Iterator<Object[]> {
+
+        private final EntityManager em;
+        private final int pageSize;
+        private final Function<Object[], AuditQuery> pageQuery;
+        private Iterator<Object[]> page = Collections.emptyIterator();
+        private Object[] lastRevision;
+        private boolean lastPage;
+
+        /**
+         * @param em The entity manager
+         * @param pageSize The number of revisions to read from the database at once
+         * @param pageQuery Creates the query for the page after the given
+         * revision row, or for the first page when given null
+         */
+        RevisionPageIterator(EntityManager em, int pageSize, Function<Object[], AuditQuery> pageQuery) {
+            this.em = em;
+            this.pageSize = pageSize;
+            this.pageQuery = pageQuery;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!page.hasNext() && !lastPage) {
+                @SuppressWarnings("unchecked")
+                List<Object[]> revisions = (List<Object[]>) pageQuery.apply(lastRevision)
+                        .setMaxResults(pageSize)
+                        .getResultList();
+                lastPage = revisions.size() < pageSize;
+                page = revisions.iterator();
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public Object[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Object[] revision = page.next();
+            lastRevision = revision;
+            em.detach(revision[1]);
+            return revision;
+        }
+    }
+
+    /**
+     * Iterator that merges the revision rows of the audit table with those of
+     * the audit archive in the requested order.
+     * <p>
+     * The audit table is read before the audit archive, so that audit rows that
+     * are archived in the meantime are found in the audit archive. A revision
+     * row that is found in both is returned once.
+     */
+    private static class MergingIterator implements Iterator<Object[]> {
+
+        private final Iterator<Object[]> revisions;
+        private final Supplier<Iterator<Object[]>> archivedRevisionsSupplier;
+        private final Comparator<Object[]> order;
+        private Iterator<Object[]> archivedRevisions;
+        private Object[] nextRevision;
+        private Object[] nextArchivedRevision;
+
+        MergingIterator(Iterator<Object[]> revisions, Supplier<Iterator<Object[]>> archivedRevisionsSupplier,
+                Comparator<Object[]> order) {
+            this.revisions = revisions;
+            this.archivedRevisionsSupplier = archivedRevisionsSupplier;
+            this.order = order;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextRevision == null && revisions.hasNext()) {
+                nextRevision = revisions.next();
+            }
+            if (archivedRevisions == null) {
+                archivedRevisions = archivedRevisionsSupplier.get();
+            }
+            if (nextArchivedRevision == null && archivedRevisions.hasNext()) {
+                nextArchivedRevision = archivedRevisions.next();
+            }
+            return nextRevision != null || nextArchivedRevision != null;
+        }
+
+        @Override
+        public Object[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int comparison = nextRevision == null ? 1
+                    : nextArchivedRevision == null ? -1
+                    : order.compare(nextRevision, nextArchivedRevision);
+            Object[] revision;
+            if (comparison <= 0) {
+                revision = nextRevision;
+                nextRevision = null;
+                if (comparison == 0) {
+                    nextArchivedRevision = null;
+                }
+            } else {
+                revision = nextArchivedRevision;
+                nextArchivedRevision = null;
+            }
+            return revision;
         }
-        return entityList;
     }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.EntityType;
+import org.hibernate.envers.Audited;
+import org.springframework.stereotype.Component;
+
+/**
+ * Registry of the AuditRevisionHelper of every @Audited entity class.
+ * <p>
+ * The helpers are created once at startup, so an audited entity class without
+ * a set method for its AuditRevision prevents the application from starting.
+ * Every helper merges the revisions in the AuditArchive with those in the audit
+ * tables, and records the number of revisions it returns.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@Component
+public class AuditRevisionHelperRegistry {
+
+    private final Map<Class<?>, AuditRevisionHelper<?>> auditRevisionHelpers;
+
+    public AuditRevisionHelperRegistry(EntityManagerFactory entityManagerFactory, AuditArchive auditArchive,
+            MeterRegistry meterRegistry) {
+        Map<Class<?>, AuditRevisionHelper<?>> helpers = new HashMap<>();
+        for (EntityType<?> entityType : entityManagerFactory.getMetamodel().getEntities()) {
+            Class<?> entityClass = entityType.getJavaType();
+            if (entityClass != null && entityClass.isAnnotationPresent(Audited.class)) {
+                helpers.put(entityClass, new AuditRevisionHelper<>(entityClass, auditArchive, meterRegistry));
+            }
+        }
+        auditRevisionHelpers = Collections.unmodifiableMap(helpers);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> AuditRevisionHelper<T> getAuditRevisionHelper(Class<T> entityClass) {
+        AuditRevisionHelper<T> auditRevisionHelper = (AuditRevisionHelper<T>) auditRevisionHelpers.get(entityClass);
+        if (auditRevisionHelper == null) {
+            throw new IllegalArgumentException("The entity class " + entityClass.getName() + " is not audited");
+        }
+        return auditRevisionHelper;
+    }
+
+    public Set<Class<?>> getAuditedEntityClasses() {
+        return auditRevisionHelpers.keySet();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jackson.JsonComponent;
+
+/**
+ * Serializes an AuditRevision without the reflective, view-filtered bean
+ * serializer of Jackson.
+ * <p>
+ * The output is identical to that of the Jackson annotations of AuditRevision.
+ * The date is formatted from the revisionTimestamp into a per-thread buffer
+ * with the @JsonFormat pattern and time zone of getRevisionDate, instead of
+ * formatting a new Date with a SimpleDateFormat. Dates before 1583 and after
+ * 9999, which SimpleDateFormat formats in the Julian calendar or with more than
+ * four year digits, are still formatted with a SimpleDateFormat.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@JsonComponent
+@ConditionalOnProperty(prefix = "application.json", name = "direct-serializers", havingValue = "true", matchIfMissing = true)
+public class AuditRevisionJsonSerializer extends StdSerializer<AuditRevision> {
+
+    private static final String DATE_PATTERN = "yyyy-MM-dd HH:mm:ss z";
+
+    private static final SerializedString REV = new SerializedString("rev");
+
+    private static final SerializedString DATE = new SerializedString("date");
+
+    private static final SerializedString TYPE = new SerializedString("type");
+
+    private static final SerializedString USER = new SerializedString("user");
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    // The days from 1970-01-01 to 1583-01-01 and to 10000-01-01
+    private static final long MIN_EPOCH_DAY = -141_349L;
+
+    private static final long MAX_EPOCH_DAY = 2_932_897L;
+
+    private final TimeZone timeZone;
+
+    private final int offsetMillis;
+
+    private final ThreadLocal<char[]> dateBuffer;
+
+    public AuditRevisionJsonSerializer() {
+        super(AuditRevision.class);
+        JsonFormat format;
+        try {
+            format = AuditRevision.class.getMethod("getRevisionDate").getAnnotation(JsonFormat.class);
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException(ex);
+        }
+        timeZone = TimeZone.getTimeZone(format.timezone());
+        if (!DATE_PATTERN.equals(format.pattern()) || timeZone.useDaylightTime()) {
+            throw new IllegalStateException("The revision date must have the pattern " + DATE_PATTERN
+                    + " and a time zone without daylight saving time");
+        }
+        offsetMillis = timeZone.getRawOffset();
+        String timeZoneName = timeZone.getDisplayName(false, TimeZone.SHORT, Locale.getDefault());
+        dateBuffer = ThreadLocal.withInitial(() -> ("0000-00-00 00:00:00 " + timeZoneName).toCharArray());
+    }
+
+    @Override
+    public void serialize(AuditRevision auditRevision, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartObject(auditRevision);
+        Class<?> view = provider.getActiveView();
+        if (view == null || AuditRevision.class.isAssignableFrom(view)) {
+            gen.writeFieldName(REV);
+            if (auditRevision.getRev() == null) {
+                gen.writeNull();
+            } else {
+                gen.writeNumber(auditRevision.getRev());
+            }
+            gen.writeFieldName(DATE);
+            writeDate(auditRevision.getRevisionTimestamp(), gen);
+            gen.writeFieldName(TYPE);
+            gen.writeString(auditRevision.getRevisionType());
+            gen.writeFieldName(USER);
+            gen.writeString(auditRevision.getUsername());
+        }
+        gen.writeEndObject();
+    }
+
+    private void writeDate(long timestamp, JsonGenerator gen) throws IOException {
+        long localMillis = timestamp + offsetMillis;
+        long epochDay = Math.floorDiv(localMillis, MILLIS_PER_DAY);
+        if (epochDay < MIN_EPOCH_DAY || epochDay >= MAX_EPOCH_DAY) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN, Locale.getDefault());
+            dateFormat.setTimeZone(timeZone);
+            gen.writeString(dateFormat.format(new Date(timestamp)));
+            return;
+        }
+        int secondOfDay = (int) (Math.floorMod(localMillis, MILLIS_PER_DAY) / 1000);
+        // The proleptic Gregorian date of the epoch day, in years starting on 1 March
+        long days = epochDay + 719_468;
+        long era = Math.floorDiv(days, 146_097);
+        int dayOfEra = (int) (days - era * 146_097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = (int) (era * 400) + yearOfEra + (month <= 2 ? 1 : 0);
+
+        char[] buffer = dateBuffer.get();
+        writeDigits(buffer, 0, year / 100);
+        writeDigits(buffer, 2, year % 100);
+        writeDigits(buffer, 5, month);
+        writeDigits(buffer, 8, day);
+        writeDigits(buffer, 11, secondOfDay / 3600);
+        writeDigits(buffer, 14, secondOfDay / 60 % 60);
+        writeDigits(buffer, 17, secondOfDay % 60);
+        gen.writeString(buffer, 0, buffer.length);
+    }
+
+    private static void writeDigits(char[] buffer, int offset, int value) {
+        buffer[offset] = (char) ('0' + value / 10);
+        buffer[offset + 1] = (char) ('0' + value % 10);
+    }
+}
@@ -1,16 +1,149 @@
 package net.binarypaper.example.config;
 
-import org.hibernate.envers.RevisionListener;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import org.hibernate.envers.EntityTrackingRevisionListener;
+import org.hibernate.envers.RevisionType;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.User;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-public class AuditRevisionListener implements RevisionListener {
+public class AuditRevisionListener implements EntityTrackingRevisionListener {
+
+    private ObjectProvider<AuditChangeFeed> auditChangeFeed;
+
+    private ObjectProvider<MeterRegistry> meterRegistry;
+
+    private ObjectProvider<AuditSummaryService> auditSummaryService;
+
+    /**
+     * Envers creates the listener through the Spring bean container, which
+     * injects the change feed. The change feed depends on the MeterRegistry,
+     * whose binders depend on the EntityManagerFactory that is still being
+     * created, so it is looked up on the first commit. Failing to create the
+     * listener bean would make Hibernate fall back to an instance without any
+     * of its dependencies.
+     *
+     * @param auditChangeFeed The provider of the change feed
+     */
+    @Autowired
+    public void setAuditChangeFeed(ObjectProvider<AuditChangeFeed> auditChangeFeed) {
+        this.auditChangeFeed = auditChangeFeed;
+    }
+
+    /**
+     * The AuditSummaryService depends on the EntityManagerFactory, which is
+     * still being created when Envers creates the listener, so it is looked up
+     * on the first revision.
+     *
+     * @param auditSummaryService The provider of the AuditSummaryService
+     */
+    @Autowired
+    public void setAuditSummaryService(ObjectProvider<AuditSummaryService> auditSummaryService) {
+        this.auditSummaryService = auditSummaryService;
+    }
+
+    /**
+     * The MeterRegistry is looked up on the first revision as well.
+     *
+     * @param meterRegistry The provider of the MeterRegistry
+     */
+    @Autowired
+    public void setMeterRegistry(ObjectProvider<MeterRegistry> meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
 
     @Override
     public void newRevision(Object object) {
-        User user = (User) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         AuditRevision auditRevision = (AuditRevision) object;
-        auditRevision.setUsername(user.getUsername());
+        auditRevision.setUsername(getCurrentUsername());
+        getRevisionTransaction();
+    }
+
+    /**
+     * Collect the changed entities of the transaction, which are published to
+     * the change feed after the commit, and record the revision in the
+     * AuditSummary of the entity in the transaction.
+     */
+    @Override
+    public void entityChanged(Class entityClass, String entityName, Serializable entityId, RevisionType revisionType,
+            Object revisionEntity) {
+        RevisionTransaction revisionTransaction = getRevisionTransaction();
+        if (revisionTransaction == null) {
+            return;
+        }
+        AuditRevision auditRevision = (AuditRevision) revisionEntity;
+        if (auditSummaryService != null) {
+            auditSummaryService.getObject().recordRevision(entityName, entityId, auditRevision, revisionType);
+        }
+        revisionTransaction.events.add(new AuditChangeEvent(entityName, entityId, auditRevision.getRev(),
+                revisionType.name(), auditRevision.getUsername(), auditRevision.getRevisionTimestamp()));
+    }
+
+    static String getCurrentUsername() {
+        User user = (User) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        return user.getUsername();
+    }
+
+    /**
+     * Get the revision of the current transaction, which starts timing it.
+     *
+     * @return The revision transaction, or null outside a Spring transaction
+     */
+    private RevisionTransaction getRevisionTransaction() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        RevisionTransaction revisionTransaction = (RevisionTransaction) TransactionSynchronizationManager.getResource(this);
+        if (revisionTransaction == null) {
+            revisionTransaction = new RevisionTransaction();
+            TransactionSynchronizationManager.bindResource(this, revisionTransaction);
+            TransactionSynchronizationManager.registerSynchronization(revisionTransaction);
+        }
+        return revisionTransaction;
     }
 
+    /**
+     * The revision of a transaction. The time from the creation of the
+     * revision until the transaction completes, which covers writing the
+     * revision and audit rows and the commit, is recorded as audit.revision.
+     * The change events are published once the transaction is committed.
+     */
+    private class RevisionTransaction implements TransactionSynchronization {
+
+        private final MeterRegistry registry = meterRegistry == null ? null : meterRegistry.getIfAvailable();
+
+        private final Timer.Sample sample = registry == null ? null : Timer.start(registry);
+
+        private final List<AuditChangeEvent> events = new ArrayList<>();
+
+        @Override
+        public void afterCommit() {
+            if (auditChangeFeed != null) {
+                auditChangeFeed.getObject().publish(events);
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResource(AuditRevisionListener.this);
+            if (sample != null) {
+                sample.stop(Timer.builder("audit.revision")
+                        .description("The time from the creation of an Envers revision until its transaction completed")
+                        .tag("outcome", status == STATUS_COMMITTED ? "committed" : "rolled_back")
+                        .register(registry));
+                DistributionSummary.builder("audit.revision.entities")
+                        .description("The number of entities changed in an Envers revision")
+                        .register(registry)
+                        .record(events.size());
+            }
+        }
+    }
 }
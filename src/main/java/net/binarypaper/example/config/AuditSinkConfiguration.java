@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import org.hibernate.envers.boot.internal.EnversIntegrator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Selects how the audit data of the @Audited entities is written, archived
+ * and published.
+ * <p>
+ * In async mode the Envers event listeners are not registered, the
+ * AsyncAuditSink registers its own listeners instead.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@Configuration
+@EnableConfigurationProperties({AuditSinkProperties.class, AuditArchiveProperties.class, AuditChangeFeedProperties.class})
+public class AuditSinkConfiguration {
+
+    @Bean
+    @ConditionalOnProperty(prefix = "application.audit", name = "mode", havingValue = "async")
+    public HibernatePropertiesCustomizer asyncAuditHibernatePropertiesCustomizer() {
+        return hibernateProperties -> hibernateProperties.put(EnversIntegrator.AUTO_REGISTER, "false");
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The application.audit configuration properties.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@ConfigurationProperties(prefix = "application.audit")
+// Lombok annotations
+@Data
+public class AuditSinkProperties {
+
+    public enum Mode {
+        /**
+         * The Envers event listeners write the audit data in the transaction
+         * of the change.
+         */
+        SYNC,
+        /**
+         * The AsyncAuditSink writes the audit data after the transaction of
+         * the change has been committed.
+         */
+        ASYNC
+    }
+
+    public enum Overflow {
+        /**
+         * Block the committing thread until there is space in the queue.
+         */
+        BLOCK,
+        /**
+         * Append the audit record to the spill file.
+         */
+        SPILL
+    }
+
+    /**
+     * How the audit data of the @Audited entities is written.
+     */
+    private Mode mode = Mode.SYNC;
+
+    /**
+     * The number of committed transactions that may wait in memory for the
+     * background writer in async mode.
+     */
+    private int queueCapacity = 10000;
+
+    /**
+     * The maximum number of committed transactions written to the audit tables
+     * in one database transaction in async mode.
+     */
+    private int batchSize = 500;
+
+    /**
+     * What happens to an audit record when the queue is full in async mode.
+     */
+    private Overflow overflow = Overflow.BLOCK;
+
+    /**
+     * The append-only file used when overflow is spill.
+     */
+    private String spillFile = "audit-spill.bin";
+
+    /**
+     * How long the background writer may take to empty the queue when the
+     * application is stopped.
+     */
+    private Duration shutdownTimeout = Duration.ofSeconds(30);
+}
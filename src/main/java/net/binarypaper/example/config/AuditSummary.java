@@ -0,0 +1,235 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonFormat.Shape;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.annotation.JsonView;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The number of audit revisions of an entity and its latest audit revision.
+ * <p>
+ * The summary is updated in the transaction of every revision of the entity,
+ * so that lists of entities can show their revision history without reading
+ * the audit tables. The AuditSummaryService rebuilds the summaries from the
+ * audit tables and the AuditArchive.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// JPA annotations
+@Entity
+@Table(name = "AUDIT_SUMMARY")
+@IdClass(AuditSummary.Key.class)
+// Jackson annotations
+@JsonPropertyOrder({
+    "revisions",
+    "lastRev",
+    "lastDate",
+    "lastType",
+    "lastUser"
+})
+// Lombok annotations
+@Data
+@NoArgsConstructor
+public class AuditSummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The entity name of the audited entity.
+     *
+     * @param entityName The entity name
+     * @return The entity name
+     */
+    // JPA annotations
+    @Id
+    @Column(name = "ENTITY_NAME")
+    // Jackson annotations
+    @JsonIgnore
+    private String entityName;
+
+    /**
+     * The ID of the audited entity.
+     *
+     * @param entityId The ID of the entity
+     * @return The ID of the entity
+     */
+    // JPA annotations
+    @Id
+    @Column(name = "ENTITY_ID")
+    // Jackson annotations
+    @JsonIgnore
+    private Long entityId;
+
+    /**
+     * The number of audit revisions of the entity.
+     *
+     * @param revisionCount The number of revisions
+     * @return The number of revisions
+     */
+    // JPA annotations
+    @Column(name = "REVISION_COUNT", nullable = false)
+    // Jackson annotations
+    @JsonProperty("revisions")
+    @JsonView({View.class})
+    // OpenAPI annotations
+    @Schema(
+            description = "The number of audit revisions",
+            accessMode = Schema.AccessMode.READ_ONLY,
+            example = "3"
+    )
+    private long revisionCount;
+
+    /**
+     * The revision number of the latest audit revision of the entity.
+     *
+     * @param lastRev The latest revision number
+     * @return The latest revision number
+     */
+    // JPA annotations
+    @Column(name = "LAST_REV", nullable = false)
+    // Jackson annotations
+    @JsonProperty("lastRev")
+    @JsonView({View.class})
+    // OpenAPI annotations
+    @Schema(
+            description = "The revision number of the latest audit revision",
+            accessMode = Schema.AccessMode.READ_ONLY,
+            example = "12"
+    )
+    private Long lastRev;
+
+    /**
+     * The timestamp of the latest audit revision of the entity.
+     *
+     * @param lastRevisionTimestamp The timestamp of the latest revision
+     * @return The timestamp of the latest revision
+     */
+    // JPA annotations
+    @Column(name = "LAST_REV_TIMESTAMP", nullable = false)
+    // Jackson annotations
+    @JsonIgnore
+    private long lastRevisionTimestamp;
+
+    /**
+     * The type of the latest audit revision of the entity, which would be
+     * either ADD, MOD or DEL.
+     *
+     * @param lastRevisionType The type of the latest revision
+     * @return The type of the latest revision
+     */
+    // JPA annotations
+    @Column(name = "LAST_REV_TYPE", nullable = false)
+    // Jackson annotations
+    @JsonProperty("lastType")
+    @JsonView({View.class})
+    // OpenAPI annotations
+    @Schema(
+            description = "The type of the latest audit revision",
+            accessMode = Schema.AccessMode.READ_ONLY,
+            allowableValues = "ADD, MOD, DEL",
+            example = "MOD"
+    )
+    private String lastRevisionType;
+
+    /**
+     * The user name of the user that created the latest audit revision of the
+     * entity.
+     *
+     * @param lastUsername The user name of the user of the latest revision
+     * @return The user name of the user of the latest revision
+     */
+    // JPA annotations
+    @Column(name = "LAST_USER_NAME", nullable = false)
+    // Jackson annotations
+    @JsonProperty("lastUser")
+    @JsonView({View.class})
+    // OpenAPI annotations
+    @Schema(
+            description = "The user name of the user that created the latest audit revision",
+            accessMode = Schema.AccessMode.READ_ONLY,
+            example = "username"
+    )
+    private String lastUsername;
+
+    /**
+     * Return the date and time of the latest revision based on the
+     * lastRevisionTimestamp
+     *
+     * @return The date and time of the latest revision
+     */
+    // Jackson annotations
+    @JsonProperty("lastDate")
+    @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd HH:mm:ss z", timezone = "GMT+02:00")
+    @JsonView({View.class})
+    // OpenAPI annotations
+    @Schema(
+            description = "The date and time of the latest audit revision",
+            accessMode = Schema.AccessMode.READ_ONLY,
+            example = "2020-02-07 10:47:39 GMT+02:00"
+    )
+    public Date getLastRevisionDate() {
+        return new Date(lastRevisionTimestamp);
+    }
+
+    /**
+     * Count an audit revision of the entity.
+     *
+     * @param auditRevision The audit revision
+     * @param revisionType The type of the revision
+     */
+    public void addRevision(AuditRevision auditRevision, String revisionType) {
+        revisionCount++;
+        lastRev = auditRevision.getRev();
+        lastRevisionTimestamp = auditRevision.getRevisionTimestamp();
+        lastRevisionType = revisionType;
+        lastUsername = auditRevision.getUsername();
+    }
+
+    /**
+     * The JSON view of the summary properties, which the JSON views of the
+     * audited entities that include their summary extend.
+     */
+    public interface View {
+    }
+
+    // Lombok annotations
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String entityName;
+
+        private Long entityId;
+    }
+}
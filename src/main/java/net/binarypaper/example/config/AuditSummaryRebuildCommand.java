@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * Rebuilds the audit summaries from the audit tables and the AuditArchive,
+ * and exits, when the application is started with
+ * --application.audit.summary.rebuild=true.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@Component
+@ConditionalOnProperty(prefix = "application.audit.summary", name = "rebuild", havingValue = "true")
+// Lombok annotations
+@Slf4j
+public class AuditSummaryRebuildCommand implements ApplicationRunner {
+
+    private final AuditSummaryService auditSummaryService;
+
+    private final ConfigurableApplicationContext context;
+
+    public AuditSummaryRebuildCommand(AuditSummaryService auditSummaryService, ConfigurableApplicationContext context) {
+        this.auditSummaryService = auditSummaryService;
+        this.context = context;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.currentTimeMillis();
+        long count = auditSummaryService.rebuild();
+        log.info("Rebuilt {} audit summaries in {} ms", count, System.currentTimeMillis() - start);
+        System.exit(SpringApplication.exit(context));
+    }
+}
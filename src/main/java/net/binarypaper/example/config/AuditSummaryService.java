@@ -0,0 +1,164 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import java.io.Serializable;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.envers.RevisionType;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.envers.configuration.internal.AuditEntitiesConfiguration;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Maintains the AuditSummary of every audited entity with a numeric ID.
+ * <p>
+ * The AuditRevisionListener, or the AsyncAuditSink in async mode, records
+ * every audit revision in the same transaction as the audit rows, so the
+ * summaries are committed or rolled back with them. The summaries can be
+ * rebuilt from the audit tables and the AuditArchive, for example after they
+ * were added to an existing database, while no revisions are written.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@Component
+// Lombok annotations
+@Slf4j
+public class AuditSummaryService {
+
+    private static final int REBUILD_IDS_PAGE_SIZE = 1000;
+
+    private static final int REBUILD_REVISIONS_PAGE_SIZE = 500;
+
+    private final EntityManager em;
+
+    private final AuditRevisionHelperRegistry auditRevisionHelperRegistry;
+
+    private final PlatformTransactionManager transactionManager;
+
+    public AuditSummaryService(EntityManager em, AuditRevisionHelperRegistry auditRevisionHelperRegistry,
+            PlatformTransactionManager transactionManager) {
+        this.em = em;
+        this.auditRevisionHelperRegistry = auditRevisionHelperRegistry;
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * Record an audit revision of an entity in the current transaction.
+     *
+     * @param entityName The entity name
+     * @param entityId The ID of the entity
+     * @param auditRevision The audit revision
+     * @param revisionType The type of the revision
+     */
+    public void recordRevision(String entityName, Serializable entityId, AuditRevision auditRevision,
+            RevisionType revisionType) {
+        recordRevision(em, entityName, entityId, auditRevision, revisionType);
+    }
+
+    /**
+     * Record an audit revision of an entity in the transaction of an entity
+     * manager. An entity that is changed more than once in a revision is
+     * counted once.
+     *
+     * @param entityManager The entity manager of the audit rows
+     * @param entityName The entity name
+     * @param entityId The ID of the entity
+     * @param auditRevision The audit revision
+     * @param revisionType The type of the revision
+     */
+    public void recordRevision(EntityManager entityManager, String entityName, Serializable entityId,
+            AuditRevision auditRevision, RevisionType revisionType) {
+        if (!(entityId instanceof Number)) {
+            return;
+        }
+        AuditSummary.Key key = new AuditSummary.Key(entityName, ((Number) entityId).longValue());
+        AuditSummary auditSummary = entityManager.find(AuditSummary.class, key);
+        if (auditSummary == null) {
+            auditSummary = new AuditSummary();
+            auditSummary.setEntityName(key.getEntityName());
+            auditSummary.setEntityId(key.getEntityId());
+            auditSummary.addRevision(auditRevision, revisionType.name());
+            entityManager.persist(auditSummary);
+        } else if (!auditRevision.getRev().equals(auditSummary.getLastRev())) {
+            auditSummary.addRevision(auditRevision, revisionType.name());
+        }
+    }
+
+    /**
+     * Replace the summaries of all the audited entities with ones computed
+     * from their audit revisions.
+     * <p>
+     * Every page of entity IDs is summarized in its own transaction. The latest
+     * audit row of an entity is never archived, so the IDs are read from the
+     * audit tables only.
+     *
+     * @return The number of summaries written
+     */
+    public long rebuild() {
+        long count = 0;
+        for (Class<?> entityClass : auditRevisionHelperRegistry.getAuditedEntityClasses()) {
+            count += rebuild(entityClass);
+        }
+        return count;
+    }
+
+    private <T> long rebuild(Class<T> entityClass) {
+        AuditRevisionHelper<T> auditRevisionHelper = auditRevisionHelperRegistry.getAuditRevisionHelper(entityClass);
+        SessionFactoryImplementor sessionFactory = em.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+        String entityName = sessionFactory.getMetamodel().entityPersister(entityClass).getEntityName();
+        String idPropertyName = sessionFactory.getMetamodel().entityPersister(entityClass).getIdentifierPropertyName();
+        AuditEntitiesConfiguration configuration = sessionFactory.getServiceRegistry()
+                .getService(EnversService.class)
+                .getAuditEntitiesConfiguration();
+        String idPath = "a." + configuration.getOriginalIdPropName() + "." + idPropertyName;
+        String idsQuery = "SELECT DISTINCT " + idPath + " FROM " + configuration.getAuditEntityName(entityName) + " AS a";
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.executeWithoutResult(status -> em
+                .createQuery("DELETE FROM " + AuditSummary.class.getName() + " AS s WHERE s.entityName = :entityName")
+                .setParameter("entityName", entityName)
+                .executeUpdate());
+        long count = 0;
+        Object lastId = null;
+        List<?> ids;
+        do {
+            Object afterId = lastId;
+            ids = transactionTemplate.execute(status -> {
+                Query query = afterId == null
+                        ? em.createQuery(idsQuery + " ORDER BY " + idPath)
+                        : em.createQuery(idsQuery + " WHERE " + idPath + " > :afterId ORDER BY " + idPath)
+                                .setParameter("afterId", afterId);
+                List<?> page = query.setMaxResults(REBUILD_IDS_PAGE_SIZE).getResultList();
+                if (!page.isEmpty()) {
+                    auditRevisionHelper.getAuditSummaries(em, page, REBUILD_REVISIONS_PAGE_SIZE).forEach(em::persist);
+                    em.flush();
+                    em.clear();
+                }
+                return page;
+            });
+            count += ids.size();
+            lastId = ids.isEmpty() ? null : ids.get(ids.size() - 1);
+        } while (ids.size() == REBUILD_IDS_PAGE_SIZE);
+        log.info("Rebuilt {} audit summaries of {}", count, entityName);
+        return count;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Authentication provider that remembers successful username and password
+ * authentications for a short time.
+ * <p>
+ * Checking a password against a bcrypt hash takes several milliseconds of CPU,
+ * and HTTP Basic clients send their password with every request. Successful
+ * authentications are therefore cached under an HMAC-SHA256 of the username
+ * and password, keyed with a random secret of this instance, so neither the
+ * password nor a hash of it that could be brute forced without the secret is
+ * kept. Failed authentications are not cached. A changed password or a disabled user only takes effect for
+ * cached credentials once their time to live has expired.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class CachingAuthenticationProvider implements AuthenticationProvider {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final AuthenticationProvider delegate;
+    private final SecretKeySpec secret;
+    private final Cache<String, Authentication> authentications;
+
+    public CachingAuthenticationProvider(AuthenticationProvider delegate, Duration timeToLive, long maximumSize) {
+        this.delegate = delegate;
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.secret = new SecretKeySpec(key, HMAC_ALGORITHM);
+        this.authentications = Caffeine.newBuilder()
+                .expireAfterWrite(timeToLive)
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    public Cache<String, Authentication> getAuthentications() {
+        return authentications;
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) {
+        if (authentication.getCredentials() == null) {
+            return delegate.authenticate(authentication);
+        }
+        String key = hashCredentials(authentication.getName(), authentication.getCredentials().toString());
+        Authentication cached = authentications.getIfPresent(key);
+        if (cached != null) {
+            // A new token, so that the details of this request are not shared
+            return new UsernamePasswordAuthenticationToken(cached.getPrincipal(), null, cached.getAuthorities());
+        }
+        Authentication result = delegate.authenticate(authentication);
+        if (result != null && result.isAuthenticated()) {
+            authentications.put(key, result);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication)
+                && delegate.supports(authentication);
+    }
+
+    private String hashCredentials(String username, String password) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(secret);
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(password.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(mac.doFinal());
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(HMAC_ALGORITHM + " is not available", ex);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.Collections;
+import org.springframework.boot.actuate.metrics.jdbc.DataSourcePoolMetrics;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.boot.jdbc.metadata.DataSourcePoolMetadataProvider;
+import org.springframework.boot.jdbc.metadata.HikariDataSourcePoolMetadata;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * Sends the read-only transactions to a replica database when
+ * application.datasource.replica.url is set.
+ * <p>
+ * The primary is still configured with the spring.datasource properties. The
+ * connection pools are not beans of their own, so that the entity manager and
+ * the data source initializer only see the routing data source. Their jdbc
+ * connection metrics are tagged with the names primary and replica.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@Configuration
+@ConditionalOnProperty(prefix = "application.datasource.replica", name = "url")
+@EnableConfigurationProperties(ReplicaDataSourceProperties.class)
+public class DataSourceRoutingConfiguration {
+
+    @Bean
+    public ReadWriteRoutingDataSource dataSource(DataSourceProperties primaryProperties,
+            ReplicaDataSourceProperties replicaProperties, Environment environment) {
+        HikariDataSource primary = primaryProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(primary));
+        primary.setPoolName("primary");
+        HikariDataSource replica = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(replicaProperties.getUrl())
+                .username(replicaProperties.getUsername())
+                .password(replicaProperties.getPassword())
+                .build();
+        replica.setPoolName("replica");
+        replica.setMaximumPoolSize(replicaProperties.getMaximumPoolSize());
+        replica.setReadOnly(true);
+        return new ReadWriteRoutingDataSource(primary, replica, replicaProperties.getReadYourWritesWindow(),
+                replicaProperties.getReadYourWritesMaximumUsers());
+    }
+
+    @Bean
+    public MeterBinder dataSourceRoutingMetrics(ReadWriteRoutingDataSource dataSource) {
+        DataSourcePoolMetadataProvider metadataProvider
+                = pool -> new HikariDataSourcePoolMetadata((HikariDataSource) pool);
+        return meterRegistry -> {
+            new DataSourcePoolMetrics(dataSource.getPrimary(), Collections.singleton(metadataProvider), "primary",
+                    Collections.emptyList()).bindTo(meterRegistry);
+            new DataSourcePoolMetrics(dataSource.getReplica(), Collections.singleton(metadataProvider), "replica",
+                    Collections.emptyList()).bindTo(meterRegistry);
+            // Spring Boot only binds the hikaricp.* metrics of the pool the routing DataSource unwraps to
+            if (dataSource.getReplica().getMetricsTrackerFactory() == null) {
+                dataSource.getReplica().setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+            }
+        };
+    }
+}
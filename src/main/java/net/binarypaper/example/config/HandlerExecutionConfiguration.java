@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcRegistrations;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+/**
+ * Runs the handler methods of an @ExecutionPool on the execution pools unless
+ * application.execution.mode is container.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@Configuration
+@ConditionalOnExpression("!'${application.execution.mode:container}'.equalsIgnoreCase('container')")
+@EnableConfigurationProperties(HandlerExecutionProperties.class)
+public class HandlerExecutionConfiguration {
+
+    @Bean
+    public HandlerExecutors handlerExecutors(HandlerExecutionProperties properties, MeterRegistry meterRegistry) {
+        return new HandlerExecutors(properties, meterRegistry);
+    }
+
+    @Bean
+    public WebMvcRegistrations offloadingWebMvcRegistrations(HandlerExecutors handlerExecutors) {
+        return new WebMvcRegistrations() {
+
+            @Override
+            public RequestMappingHandlerAdapter getRequestMappingHandlerAdapter() {
+                return new OffloadingRequestMappingHandlerAdapter(handlerExecutors);
+            }
+        };
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The application.execution configuration properties.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@ConfigurationProperties(prefix = "application.execution")
+// Lombok annotations
+@Data
+public class HandlerExecutionProperties {
+
+    public enum Mode {
+        /**
+         * The handler methods run on the servlet container thread of the
+         * request.
+         */
+        CONTAINER,
+        /**
+         * The handler methods of an @ExecutionPool run on a fixed pool of
+         * platform threads.
+         */
+        PLATFORM,
+        /**
+         * The handler methods of an @ExecutionPool run on a virtual thread
+         * per request, which needs Java 21 or later.
+         */
+        VIRTUAL
+    }
+
+    /**
+     * Where the handler methods of the REST controllers run.
+     */
+    private Mode mode = Mode.CONTAINER;
+
+    /**
+     * The execution pools, by the name used in @ExecutionPool.
+     */
+    private Map<String, Pool> pools = new LinkedHashMap<>();
+
+    // Lombok annotations
+    @Data
+    public static class Pool {
+
+        /**
+         * The maximum number of handler methods of the pool running at the
+         * same time.
+         */
+        private int threads = 10;
+
+        /**
+         * The number of requests that may wait for a thread of the pool. When
+         * it is full requests are answered with 503 Service Unavailable.
+         */
+        private int queueCapacity = 100;
+
+        /**
+         * How long a request may take before it is answered with 503 Service
+         * Unavailable, 0 for no limit.
+         */
+        private Duration timeout = Duration.ZERO;
+    }
+}
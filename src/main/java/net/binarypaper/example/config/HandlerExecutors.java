@@ -0,0 +1,247 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.lang.reflect.InvocationTargetException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import net.binarypaper.example.config.HandlerExecutionProperties.Mode;
+
+/**
+ * The execution pools of the handler methods.
+ * <p>
+ * In platform mode every pool is a fixed thread pool with a bounded queue. In
+ * virtual mode every request of a pool gets its own virtual thread. At most
+ * the threads property of the pool of those virtual threads run the handler
+ * method at the same time, the others wait cheaply for a permit. In both modes
+ * a request is rejected when threads plus queueCapacity requests of the pool
+ * are already running or waiting.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Slf4j
+public class HandlerExecutors {
+
+    private final Map<String, Pool> pools = new LinkedHashMap<>();
+
+    public HandlerExecutors(HandlerExecutionProperties properties, MeterRegistry meterRegistry) {
+        properties.getPools().forEach((name, poolProperties) -> {
+            Pool pool = properties.getMode() == Mode.VIRTUAL
+                    ? new VirtualThreadPool(name, poolProperties)
+                    : new PlatformThreadPool(name, poolProperties);
+            Gauge.builder("http.handler.pool.running", pool, Pool::getRunning)
+                    .description("The number of handler methods running on the execution pool")
+                    .tag("pool", name)
+                    .register(meterRegistry);
+            Gauge.builder("http.handler.pool.queued", pool, Pool::getQueued)
+                    .description("The number of requests waiting for a thread of the execution pool")
+                    .tag("pool", name)
+                    .register(meterRegistry);
+            pools.put(name, pool);
+        });
+        log.info("Running the handler methods on {} threads of the execution pools {}", properties.getMode(),
+                pools.keySet());
+    }
+
+    /**
+     * Get an execution pool.
+     *
+     * @param name The name of the pool
+     * @return The pool
+     * @throws IllegalStateException If there is no pool with the name
+     */
+    public Pool getPool(String name) {
+        Pool pool = pools.get(name);
+        if (pool == null) {
+            throw new IllegalStateException("There is no application.execution.pools." + name + " execution pool");
+        }
+        return pool;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        for (Pool pool : pools.values()) {
+            pool.executor.shutdown();
+        }
+        for (Pool pool : pools.values()) {
+            pool.executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    public abstract static class Pool {
+
+        private final String name;
+
+        private final Duration timeout;
+
+        final ExecutorService executor;
+
+        Pool(String name, HandlerExecutionProperties.Pool properties, ExecutorService executor) {
+            this.name = name;
+            this.timeout = properties.getTimeout();
+            this.executor = executor;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        /**
+         * Run a task on a thread of the pool.
+         *
+         * @param task The task
+         * @throws RejectedExecutionException If the pool is full
+         */
+        public abstract void execute(Runnable task);
+
+        abstract int getRunning();
+
+        abstract int getQueued();
+    }
+
+    private static class PlatformThreadPool extends Pool {
+
+        private final ThreadPoolExecutor threadPoolExecutor;
+
+        PlatformThreadPool(String name, HandlerExecutionProperties.Pool properties) {
+            this(name, properties, createExecutor(name, properties));
+        }
+
+        private PlatformThreadPool(String name, HandlerExecutionProperties.Pool properties,
+                ThreadPoolExecutor threadPoolExecutor) {
+            super(name, properties, threadPoolExecutor);
+            this.threadPoolExecutor = threadPoolExecutor;
+        }
+
+        private static ThreadPoolExecutor createExecutor(String name, HandlerExecutionProperties.Pool properties) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            return new ThreadPoolExecutor(properties.getThreads(), properties.getThreads(), 0, TimeUnit.MILLISECONDS,
+                    properties.getQueueCapacity() > 0
+                    ? new ArrayBlockingQueue<>(properties.getQueueCapacity())
+                    : new SynchronousQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "handler-" + name + "-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            threadPoolExecutor.execute(task);
+        }
+
+        @Override
+        int getRunning() {
+            return threadPoolExecutor.getActiveCount();
+        }
+
+        @Override
+        int getQueued() {
+            return threadPoolExecutor.getQueue().size();
+        }
+    }
+
+    private static class VirtualThreadPool extends Pool {
+
+        private final int threads;
+
+        private final int capacity;
+
+        /**
+         * The permits of the running and waiting requests.
+         */
+        private final Semaphore admitted;
+
+        /**
+         * The permits of the running handler methods.
+         */
+        private final Semaphore running;
+
+        VirtualThreadPool(String name, HandlerExecutionProperties.Pool properties) {
+            super(name, properties, newVirtualThreadPerTaskExecutor());
+            this.threads = properties.getThreads();
+            this.capacity = properties.getThreads() + properties.getQueueCapacity();
+            this.admitted = new Semaphore(capacity);
+            this.running = new Semaphore(threads);
+        }
+
+        /**
+         * Executors.newVirtualThreadPerTaskExecutor() of Java 21, which the
+         * application is not compiled against.
+         */
+        private static ExecutorService newVirtualThreadPerTaskExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException ex) {
+                throw new IllegalStateException("The virtual application.execution.mode needs Java 21 or later", ex);
+            }
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (!admitted.tryAcquire()) {
+                throw new RejectedExecutionException("The " + getName() + " execution pool is full");
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        running.acquireUninterruptibly();
+                        try {
+                            task.run();
+                        } finally {
+                            running.release();
+                        }
+                    } finally {
+                        admitted.release();
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                admitted.release();
+                throw ex;
+            }
+        }
+
+        @Override
+        int getRunning() {
+            return threads - running.availablePermits();
+        }
+
+        @Override
+        int getQueued() {
+            return Math.max(capacity - admitted.availablePermits() - getRunning(), 0);
+        }
+    }
+}
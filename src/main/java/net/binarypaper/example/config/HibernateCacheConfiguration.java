@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.JCacheMetrics;
+import java.io.IOException;
+import java.util.Collections;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * The Hibernate second-level cache, backed by an in-process Ehcache.
+ * <p>
+ * The cache regions, with their size and time to live, are configured in
+ * ehcache.xml. The hits, misses, puts and evictions of every region are
+ * exposed as the cache.* metrics, tagged with the region name.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@Configuration
+public class HibernateCacheConfiguration {
+
+    @Bean
+    public CacheManager hibernateCacheManager() throws IOException {
+        return Caching.getCachingProvider(EhcacheCachingProvider.class.getName())
+                .getCacheManager(new ClassPathResource("ehcache.xml").getURI(), getClass().getClassLoader());
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer hibernateCacheManagerCustomizer(CacheManager hibernateCacheManager) {
+        return hibernateProperties -> hibernateProperties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+    }
+
+    @Bean
+    public MeterBinder hibernateCacheMetrics(CacheManager hibernateCacheManager) {
+        return meterRegistry -> {
+            for (String cacheName : hibernateCacheManager.getCacheNames()) {
+                JCacheMetrics.monitor(meterRegistry, hibernateCacheManager.getCache(cacheName), Collections.emptyList());
+            }
+        };
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.boot.actuate.autoconfigure.metrics.MetricsProperties;
+import org.springframework.boot.actuate.metrics.web.servlet.DefaultWebMvcTagsProvider;
+import org.springframework.boot.actuate.metrics.web.servlet.WebMvcTagsProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.HandlerMethod;
+
+/**
+ * The metrics exposed on the /actuator/prometheus endpoint.
+ * <p>
+ * The http.server.requests timers of the REST controllers are tagged with the
+ * handler method as the operation, next to the uri, method, status and
+ * outcome, so the latency and the errors of every operation can be graphed and
+ * alerted on. The Hibernate statistics, the connection pool and the audit
+ * revisions have their own hibernate.*, hikaricp.* and audit.* metrics.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@Configuration
+public class MetricsConfiguration {
+
+    private static final Tag NO_OPERATION = Tag.of("operation", "none");
+
+    @Bean
+    public WebMvcTagsProvider webMvcTagsProvider(MetricsProperties metricsProperties) {
+        return new DefaultWebMvcTagsProvider(metricsProperties.getWeb().getServer().getRequest().isIgnoreTrailingSlash()) {
+
+            @Override
+            public Iterable<Tag> getTags(HttpServletRequest request, HttpServletResponse response, Object handler,
+                    Throwable exception) {
+                return Tags.concat(super.getTags(request, response, handler, exception), Tags.of(operation(handler)));
+            }
+
+            @Override
+            public Iterable<Tag> getLongRequestTags(HttpServletRequest request, Object handler) {
+                return Tags.concat(super.getLongRequestTags(request, handler), Tags.of(operation(handler)));
+            }
+        };
+    }
+
+    private static Tag operation(Object handler) {
+        if (handler instanceof HandlerMethod) {
+            return Tag.of("operation", ((HandlerMethod) handler).getMethod().getName());
+        }
+        return NO_OPERATION;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import net.binarypaper.example.config.HandlerExecutors.Pool;
+import org.springframework.context.i18n.LocaleContext;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.ServletInvocableHandlerMethod;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Runs the handler methods of an @ExecutionPool on a thread of the pool.
+ * <p>
+ * The arguments are resolved, and the request body read and validated, on the
+ * servlet container thread. The handler method is then invoked on a thread of
+ * the pool while the request is in async mode, and the container thread is
+ * released. The result, or the exception, is handled as if the handler method
+ * had returned it, in an async dispatch on a container thread.
+ * <p>
+ * The handler method is invoked through the proxy of the controller, so the
+ * transaction of a @Transactional handler method is begun and committed on
+ * the pool thread. The SecurityContext and the LocaleContext of the request
+ * are set on the pool thread for the invocation, so the AuditRevisionListener
+ * records the user of the request. Handler methods that already return an
+ * async result are invoked on the container thread.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class OffloadingRequestMappingHandlerAdapter extends RequestMappingHandlerAdapter {
+
+    private static final Class<?>[] ASYNC_RETURN_TYPES = {
+        Callable.class, WebAsyncTask.class, DeferredResult.class, CompletionStage.class, Future.class,
+        ResponseBodyEmitter.class, StreamingResponseBody.class
+    };
+
+    private final HandlerExecutors handlerExecutors;
+
+    private final Map<Method, Optional<Pool>> handlerMethodPools = new ConcurrentHashMap<>();
+
+    public OffloadingRequestMappingHandlerAdapter(HandlerExecutors handlerExecutors) {
+        this.handlerExecutors = handlerExecutors;
+    }
+
+    @Override
+    protected ServletInvocableHandlerMethod createInvocableHandlerMethod(HandlerMethod handlerMethod) {
+        Optional<Pool> pool = handlerMethodPools.computeIfAbsent(handlerMethod.getMethod(),
+                method -> findPool(handlerMethod));
+        if (pool.isPresent()) {
+            return new OffloadedHandlerMethod(handlerMethod, pool.get());
+        }
+        return super.createInvocableHandlerMethod(handlerMethod);
+    }
+
+    private Optional<Pool> findPool(HandlerMethod handlerMethod) {
+        Class<?> returnType = handlerMethod.getReturnType().getParameterType();
+        for (Class<?> asyncReturnType : ASYNC_RETURN_TYPES) {
+            if (asyncReturnType.isAssignableFrom(returnType)) {
+                return Optional.empty();
+            }
+        }
+        ExecutionPool executionPool = handlerMethod.getMethodAnnotation(ExecutionPool.class);
+        if (executionPool == null) {
+            executionPool = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getBeanType(), ExecutionPool.class);
+        }
+        return Optional.ofNullable(executionPool).map(annotation -> handlerExecutors.getPool(annotation.value()));
+    }
+
+    private static class OffloadedHandlerMethod extends ServletInvocableHandlerMethod {
+
+        private final Pool pool;
+
+        OffloadedHandlerMethod(HandlerMethod handlerMethod, Pool pool) {
+            super(handlerMethod);
+            this.pool = pool;
+        }
+
+        /**
+         * Invoke the handler method on a thread of the pool.
+         *
+         * @param args The resolved arguments
+         * @return The DeferredResult of the handler method
+         */
+        @Override
+        protected Object doInvoke(Object... args) throws Exception {
+            DeferredResult<Object> result = new DeferredResult<>(pool.getTimeout().toMillis());
+            SecurityContext securityContext = SecurityContextHolder.getContext();
+            LocaleContext localeContext = LocaleContextHolder.getLocaleContext();
+            try {
+                pool.execute(() -> {
+                    SecurityContextHolder.setContext(securityContext);
+                    LocaleContextHolder.setLocaleContext(localeContext);
+                    try {
+                        result.setResult(super.doInvoke(args));
+                    } catch (Throwable ex) {
+                        result.setErrorResult(ex);
+                    } finally {
+                        LocaleContextHolder.resetLocaleContext();
+                        SecurityContextHolder.clearContext();
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                        "Too many requests waiting for the " + pool.getName() + " execution pool");
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import net.binarypaper.example.Application;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.core.env.Environment;
+
+/**
+ * Generates the OpenAPI document at build time, for the
+ * PregeneratedOpenApiFilter to serve.
+ * <p>
+ * The application is started on a random port with a random password for the
+ * configured user, and the document is requested from springdoc. The servers
+ * that springdoc derives from the URL of the request are removed, so that the
+ * document refers to the server it is served from. The document is written to
+ * api-docs.json and api-docs.json.gz in the directory of the first argument,
+ * with the fingerprint of the classes it was generated from in
+ * api-docs.json.fingerprint.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public final class OpenApiSpecGenerator {
+
+    private OpenApiSpecGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path directory = Paths.get(args[0]);
+        String fingerprint = PregeneratedOpenApiFilter.classesFingerprint();
+        // Deleted first and written last, so that a failed generation leaves
+        // no document that is taken as current
+        Path fingerprintFile = directory.resolve("api-docs.json" + PregeneratedOpenApiFilter.FINGERPRINT_SUFFIX);
+        Files.deleteIfExists(fingerprintFile);
+        String password = UUID.randomUUID().toString();
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        byte[] spec;
+        try (ServletWebServerApplicationContext context = (ServletWebServerApplicationContext) new SpringApplicationBuilder(Application.class)
+                .logStartupInfo(false)
+                .run("--server.port=0", "--spring.security.user.password={noop}" + password,
+                        "--logging.level.root=WARN", "--application.audit.archive.enabled=false")) {
+            Environment environment = context.getEnvironment();
+            String credentials = environment.getProperty("spring.security.user.name") + ":" + password;
+            URI uri = URI.create("http://localhost:" + context.getWebServer().getPort()
+                    + environment.getProperty("springdoc.api-docs.path", "/v3/api-docs"));
+            HttpResponse<byte[]> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder(uri)
+                    .header("Authorization", "Basic "
+                            + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)))
+                    .build(), HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != 200) {
+                throw new IOException("Could not get the OpenAPI document from " + uri + ": " + response.statusCode());
+            }
+            ObjectMapper objectMapper = new ObjectMapper();
+            ObjectNode openApi = (ObjectNode) objectMapper.readTree(response.body());
+            openApi.remove("servers");
+            spec = objectMapper.writeValueAsBytes(openApi);
+        }
+        Files.createDirectories(directory);
+        Files.write(directory.resolve("api-docs.json"), spec);
+        try (OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(directory.resolve("api-docs.json.gz"))) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            outputStream.write(spec);
+        }
+        Files.write(fingerprintFile, fingerprint.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.binarypaper.example.Application;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+/**
+ * Serves the OpenAPI document generated at build time by the
+ * OpenApiSpecGenerator, instead of springdoc scanning the controllers on the
+ * first request after a start.
+ * <p>
+ * The document and its precompressed .gz and .br variants are read once from
+ * the classpath. The variant is chosen by the Accept-Encoding header, and every
+ * variant has a strong ETag derived from the content of the document, so that
+ * clients revalidate with a 304 Not Modified. Requests for other paths, such as
+ * the swagger-config and the YAML document, are still handled by springdoc.
+ * <p>
+ * The generator also writes a fingerprint of the application classes next to
+ * the document. A document whose fingerprint does not match the classes on the
+ * classpath, such as one left in target/classes by an earlier build, is out of
+ * date and is not served.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class PregeneratedOpenApiFilter extends OncePerRequestFilter {
+
+    /**
+     * The classpath location of the generated OpenAPI document.
+     */
+    public static final String SPEC_LOCATION = "openapi/api-docs.json";
+
+    /**
+     * The suffix of the location of the fingerprint of the application classes
+     * that the document was generated from.
+     */
+    public static final String FINGERPRINT_SUFFIX = ".fingerprint";
+
+    private static final ResourceLoader RESOURCE_LOADER = new DefaultResourceLoader();
+
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+    private final String apiDocsPath;
+
+    private final Variant identity;
+
+    private final Variant gzip;
+
+    private final Variant brotli;
+
+    /**
+     * @param apiDocsPath The path of the springdoc OpenAPI document
+     * @throws IOException If the generated document could not be read
+     */
+    public PregeneratedOpenApiFilter(String apiDocsPath) throws IOException {
+        this(apiDocsPath, "classpath:" + SPEC_LOCATION);
+    }
+
+    /**
+     * @param apiDocsPath The path of the springdoc OpenAPI document
+     * @param specLocation The resource location of the generated document
+     * @throws IOException If the generated document could not be read
+     */
+    PregeneratedOpenApiFilter(String apiDocsPath, String specLocation) throws IOException {
+        this.apiDocsPath = apiDocsPath;
+        byte[] spec = read(specLocation);
+        if (spec == null) {
+            throw new IOException("The generated OpenAPI document " + specLocation + " does not exist");
+        }
+        String hash = sha256(spec);
+        identity = new Variant(spec, null, "\"" + hash + "\"");
+        byte[] gzipSpec = read(specLocation + ".gz");
+        gzip = gzipSpec == null ? null : new Variant(gzipSpec, "gzip", "\"" + hash + "-gzip\"");
+        byte[] brotliSpec = read(specLocation + ".br");
+        brotli = brotliSpec == null ? null : new Variant(brotliSpec, "br", "\"" + hash + "-br\"");
+    }
+
+    /**
+     * Check whether the generated OpenAPI document on the classpath was
+     * generated from the application classes on the classpath.
+     *
+     * @return Whether the document exists and is up to date
+     * @throws IOException If the document or the classes could not be read
+     */
+    public static boolean isCurrent() throws IOException {
+        return isCurrent("classpath:" + SPEC_LOCATION);
+    }
+
+    static boolean isCurrent(String specLocation) throws IOException {
+        byte[] fingerprint = read(specLocation + FINGERPRINT_SUFFIX);
+        return RESOURCE_LOADER.getResource(specLocation).exists()
+                && fingerprint != null
+                && new String(fingerprint, StandardCharsets.US_ASCII).trim().equals(classesFingerprint());
+    }
+
+    /**
+     * The SHA-256 hash of the paths and the contents of the application
+     * classes, in the classpath root of the Application class.
+     *
+     * @return The fingerprint of the application classes
+     * @throws IOException If the classes could not be read
+     */
+    public static String classesFingerprint() throws IOException {
+        String applicationClass = ClassUtils.convertClassNameToResourcePath(Application.class.getName())
+                + ClassUtils.CLASS_FILE_SUFFIX;
+        String applicationUrl = new ClassPathResource(applicationClass).getURL().toString();
+        String root = applicationUrl.substring(0, applicationUrl.length() - applicationClass.length());
+        Map<String, Resource> classes = new TreeMap<>();
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources(
+                root + ClassUtils.classPackageAsResourcePath(Application.class) + "/**/*.class")) {
+            String url = resource.getURL().toString();
+            classes.put(url.startsWith(root) ? url.substring(root.length()) : url, resource);
+        }
+        MessageDigest digest = sha256();
+        for (Map.Entry<String, Resource> entry : classes.entrySet()) {
+            digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            try (InputStream inputStream = entry.getValue().getInputStream()) {
+                digest.update(StreamUtils.copyToByteArray(inputStream));
+            }
+        }
+        return hex(digest.digest(), digest.getDigestLength());
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String method = request.getMethod();
+        return !(HttpMethod.GET.matches(method) || HttpMethod.HEAD.matches(method))
+                || !apiDocsPath.equals(urlPathHelper.getPathWithinApplication(request));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        Variant variant = identity;
+        if (brotli != null && acceptsEncoding(acceptEncoding, brotli.encoding)) {
+            variant = brotli;
+        } else if (gzip != null && acceptsEncoding(acceptEncoding, gzip.encoding)) {
+            variant = gzip;
+        }
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue());
+        if (new ServletWebRequest(request, response).checkNotModified(variant.eTag)) {
+            return;
+        }
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        if (variant.encoding != null) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, variant.encoding);
+        }
+        response.setContentLength(variant.content.length);
+        if (HttpMethod.GET.matches(request.getMethod())) {
+            response.getOutputStream().write(variant.content);
+        }
+    }
+
+    /**
+     * Check whether an Accept-Encoding header accepts an encoding with a
+     * quality above 0. The coding named in the header takes precedence over
+     * the * wildcard, wherever they are in the header.
+     */
+    static boolean acceptsEncoding(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            String name = parameters[0].trim();
+            if (name.equalsIgnoreCase(encoding)) {
+                return !hasZeroQuality(parameters);
+            }
+            if (name.equals("*")) {
+                wildcard = !hasZeroQuality(parameters);
+            }
+        }
+        return Boolean.TRUE.equals(wildcard);
+    }
+
+    private static boolean hasZeroQuality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=") && parameter.substring(2).matches("0(\\.0*)?")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] read(String location) throws IOException {
+        Resource resource = RESOURCE_LOADER.getResource(location);
+        if (!resource.exists()) {
+            return null;
+        }
+        try (InputStream inputStream = resource.getInputStream()) {
+            return StreamUtils.copyToByteArray(inputStream);
+        }
+    }
+
+    private static String sha256(byte[] content) {
+        return hex(sha256().digest(content), 16);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String hex(byte[] digest, int length) {
+        StringBuilder hash = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            hash.append(String.format("%02x", digest[i]));
+        }
+        return hash.toString();
+    }
+
+    private static class Variant {
+
+        private final byte[] content;
+
+        private final String encoding;
+
+        private final String eTag;
+
+        Variant(byte[] content, String encoding, String eTag) {
+            this.content = content;
+            this.encoding = encoding;
+            this.eTag = eTag;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.zaxxer.hikari.HikariDataSource;
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Routes the connections of read-only transactions to the replica and all
+ * other connections to the primary.
+ * <p>
+ * The transaction is only known to be read-only once it has begun, so the
+ * connections are lazy proxies that only pick and fetch the target connection
+ * on the first statement. Connections outside of a
+ * Spring transaction, like those of the schema export, the AsyncAuditSink and
+ * the AuditArchiver, always go to the primary.
+ * <p>
+ * With read-your-writes the committed writes are remembered per user, and the
+ * read-only transactions of that user go to the primary until the window has
+ * passed.
+ * <p>
+ * Reads that hit the second-level cache do not reach either database, but a
+ * lagging replica must not fill the cache, or every user would read its stale
+ * state until the entry expires. The Hibernate session of a transaction that
+ * goes to the replica only reads from the cache, and puts neither entities nor
+ * query results into it.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class ReadWriteRoutingDataSource extends LazyConnectionDataSourceProxy implements Closeable {
+
+    private enum Route {
+        PRIMARY,
+        REPLICA
+    }
+
+    private final HikariDataSource primary;
+
+    private final HikariDataSource replica;
+
+    private final Cache<String, Boolean> recentWriters;
+
+    public ReadWriteRoutingDataSource(HikariDataSource primary, HikariDataSource replica, Duration readYourWritesWindow,
+            long readYourWritesMaximumUsers) {
+        this.primary = primary;
+        this.replica = replica;
+        this.recentWriters = readYourWritesWindow.isZero()
+                ? null
+                : Caffeine.newBuilder()
+                        .expireAfterWrite(readYourWritesWindow)
+                        .maximumSize(readYourWritesMaximumUsers)
+                        .build();
+        AbstractRoutingDataSource router = new AbstractRoutingDataSource() {
+            @Override
+            protected Object determineCurrentLookupKey() {
+                return route();
+            }
+        };
+        Map<Object, Object> targetDataSources = new HashMap<>();
+        targetDataSources.put(Route.PRIMARY, primary);
+        targetDataSources.put(Route.REPLICA, replica);
+        router.setTargetDataSources(targetDataSources);
+        router.setDefaultTargetDataSource(primary);
+        router.afterPropertiesSet();
+        setTargetDataSource(router);
+        afterPropertiesSet();
+    }
+
+    public HikariDataSource getPrimary() {
+        return primary;
+    }
+
+    public HikariDataSource getReplica() {
+        return replica;
+    }
+
+    @Override
+    public void close() {
+        replica.close();
+        primary.close();
+    }
+
+    private Route route() {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            return Route.PRIMARY;
+        }
+        String username = getCurrentUsername();
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (recentWriters != null && username != null) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        recentWriters.put(username, Boolean.TRUE);
+                    }
+                });
+            }
+            return Route.PRIMARY;
+        }
+        if (recentWriters != null && username != null && recentWriters.getIfPresent(username) != null) {
+            return Route.PRIMARY;
+        }
+        readCacheOnly();
+        return Route.REPLICA;
+    }
+
+    /**
+     * Switches the Hibernate session of the current transaction to
+     * CacheMode.GET until the transaction completes. The session outlives the
+     * transaction when the EntityManager is opened in view.
+     */
+    private static void readCacheOnly() {
+        for (Object resource : TransactionSynchronizationManager.getResourceMap().values()) {
+            if (!(resource instanceof EntityManagerHolder)) {
+                continue;
+            }
+            Session session = ((EntityManagerHolder) resource).getEntityManager().unwrap(Session.class);
+            CacheMode cacheMode = session.getCacheMode();
+            session.setCacheMode(CacheMode.GET);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (session.isOpen()) {
+                        session.setCacheMode(cacheMode);
+                    }
+                }
+            });
+        }
+    }
+
+    private static String getCurrentUsername() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication == null ? null : authentication.getName();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The application.datasource.replica configuration properties.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@ConfigurationProperties(prefix = "application.datasource.replica")
+// Lombok annotations
+@Data
+public class ReplicaDataSourceProperties {
+
+    /**
+     * The JDBC URL of the replica. Without it every transaction uses the
+     * spring.datasource primary.
+     */
+    private String url;
+
+    /**
+     * The login username of the replica.
+     */
+    private String username;
+
+    /**
+     * The login password of the replica.
+     */
+    private String password;
+
+    /**
+     * The maximum number of connections to the replica.
+     */
+    private int maximumPoolSize = 10;
+
+    /**
+     * How long after a committed write the read-only transactions of the same
+     * user still go to the primary, to cover the replication lag. Zero
+     * disables read-your-writes.
+     */
+    private Duration readYourWritesWindow = Duration.ofSeconds(5);
+
+    /**
+     * The maximum number of users remembered for read-your-writes.
+     */
+    private long readYourWritesMaximumUsers = 10000;
+}
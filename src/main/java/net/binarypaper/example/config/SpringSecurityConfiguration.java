@@ -1,18 +1,60 @@
 package net.binarypaper.example.config;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.http.HttpMethod;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.builders.WebSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.core.userdetails.UserDetailsService;
 
 @EnableWebSecurity
 @EnableGlobalMethodSecurity(jsr250Enabled = true)
 @Slf4j
 public class SpringSecurityConfiguration extends WebSecurityConfigurerAdapter {
 
+    private final DaoAuthenticationProvider daoAuthenticationProvider;
+    private final CachingAuthenticationProvider cachingAuthenticationProvider;
+
+    public SpringSecurityConfiguration(
+            UserDetailsService userDetailsService,
+            @Value("${application.security.credentials-cache.enabled}") boolean credentialsCacheEnabled,
+            @Value("${application.security.credentials-cache.time-to-live}") Duration credentialsCacheTimeToLive,
+            @Value("${application.security.credentials-cache.maximum-size}") long credentialsCacheMaximumSize
+    ) {
+        daoAuthenticationProvider = new DaoAuthenticationProvider();
+        daoAuthenticationProvider.setUserDetailsService(userDetailsService);
+        cachingAuthenticationProvider = credentialsCacheEnabled
+                ? new CachingAuthenticationProvider(daoAuthenticationProvider, credentialsCacheTimeToLive, credentialsCacheMaximumSize)
+                : null;
+    }
+
+    @Override
+    protected void configure(AuthenticationManagerBuilder auth) throws Exception {
+        AuthenticationProvider authenticationProvider = cachingAuthenticationProvider != null
+                ? cachingAuthenticationProvider
+                : daoAuthenticationProvider;
+        auth.authenticationProvider(authenticationProvider);
+    }
+
+    @Bean
+    public MeterBinder credentialsCacheMetrics() {
+        return meterRegistry -> {
+            if (cachingAuthenticationProvider != null) {
+                CaffeineCacheMetrics.monitor(meterRegistry, cachingAuthenticationProvider.getAuthentications(), "credentials");
+            }
+        };
+    }
+
     @Override
     protected void configure(HttpSecurity httpSecurity) throws Exception {
         super.configure(httpSecurity);
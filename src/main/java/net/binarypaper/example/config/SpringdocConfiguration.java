@@ -4,7 +4,17 @@ import io.swagger.v3.oas.annotations.OpenAPIDefinition;
 import io.swagger.v3.oas.annotations.info.Contact;
 import io.swagger.v3.oas.annotations.info.Info;
 import io.swagger.v3.oas.annotations.info.License;
+import java.io.IOException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionMessage;
+import org.springframework.boot.autoconfigure.condition.ConditionOutcome;
+import org.springframework.boot.autoconfigure.condition.SpringBootCondition;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.ConditionContext;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.type.AnnotatedTypeMetadata;
 
 @Configuration
 @OpenAPIDefinition(info = @Info(
@@ -22,4 +32,41 @@ import org.springframework.context.annotation.Configuration;
 ))
 public class SpringdocConfiguration {
 
+    /**
+     * Serve the OpenAPI document generated at build time, after the Spring
+     * Security filters. Without it, or when it was generated from other
+     * classes, springdoc generates the document at runtime.
+     *
+     * @param apiDocsPath The path of the springdoc OpenAPI document
+     * @return The filter registration
+     * @throws IOException If the generated document could not be read
+     */
+    @Bean
+    @Conditional(CurrentOpenApiSpecCondition.class)
+    public FilterRegistrationBean<PregeneratedOpenApiFilter> pregeneratedOpenApiFilter(
+            @Value("${springdoc.api-docs.path:/v3/api-docs}") String apiDocsPath) throws IOException {
+        return new FilterRegistrationBean<>(new PregeneratedOpenApiFilter(apiDocsPath));
+    }
+
+    /**
+     * Matches when the generated OpenAPI document is on the classpath and is up
+     * to date with the application classes.
+     */
+    static class CurrentOpenApiSpecCondition extends SpringBootCondition {
+
+        @Override
+        public ConditionOutcome getMatchOutcome(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            ConditionMessage.Builder message = ConditionMessage.forCondition("Generated OpenAPI document");
+            try {
+                if (PregeneratedOpenApiFilter.isCurrent()) {
+                    return ConditionOutcome.match(message.found("current document")
+                            .items(PregeneratedOpenApiFilter.SPEC_LOCATION));
+                }
+                return ConditionOutcome.noMatch(message.didNotFind("current document")
+                        .items(PregeneratedOpenApiFilter.SPEC_LOCATION));
+            } catch (IOException ex) {
+                return ConditionOutcome.noMatch(message.because(ex.getMessage()));
+            }
+        }
+    }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.config;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessor;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.SpringApplicationRunListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.ConfigurableEnvironment;
+
+/**
+ * Reports how long each phase of the startup took, and which beans took the
+ * longest to create, when application.startup.report is true.
+ * <p>
+ * The time of a bean excludes the beans it depends on, so the Hibernate and
+ * Envers bootstrap shows up as the entityManagerFactory. When
+ * application.startup.exit-when-ready is true the application exits as soon as
+ * it is ready, which the build uses for the class-data-sharing training run.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Lombok annotations
+@Slf4j
+public class StartupTimingReport implements SpringApplicationRunListener {
+
+    private static final int SLOWEST_BEANS = 10;
+
+    private final long jvmStartTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+    private final List<String> phases = new ArrayList<>();
+
+    private final List<Long> phaseEndTimes = new ArrayList<>();
+
+    private BeanTimer beanTimer;
+
+    private boolean exitWhenReady;
+
+    public StartupTimingReport(SpringApplication application, String[] args) {
+    }
+
+    @Override
+    public void starting() {
+        endPhase("JVM start until SpringApplication.run");
+    }
+
+    @Override
+    public void environmentPrepared(ConfigurableEnvironment environment) {
+        endPhase("Environment");
+        if (environment.getProperty("application.startup.report", Boolean.class, false)) {
+            beanTimer = new BeanTimer();
+        }
+        exitWhenReady = environment.getProperty("application.startup.exit-when-ready", Boolean.class, false);
+    }
+
+    @Override
+    public void contextLoaded(ConfigurableApplicationContext context) {
+        endPhase("Application context preparation");
+        if (beanTimer != null) {
+            context.getBeanFactory().addBeanPostProcessor(beanTimer);
+        }
+    }
+
+    @Override
+    public void started(ConfigurableApplicationContext context) {
+        endPhase("Application context refresh");
+    }
+
+    @Override
+    public void running(ConfigurableApplicationContext context) {
+        endPhase("Application and command line runners");
+        if (beanTimer != null) {
+            log.info(createReport());
+        }
+        if (exitWhenReady) {
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    private void endPhase(String phase) {
+        phases.add(phase);
+        phaseEndTimes.add(System.currentTimeMillis());
+    }
+
+    private String createReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Started in %.3f s%n", (phaseEndTimes.get(phaseEndTimes.size() - 1) - jvmStartTime) / 1000.0));
+        long start = jvmStartTime;
+        for (int i = 0; i < phases.size(); i++) {
+            report.append(String.format("    %-50s %8.3f s%n", phases.get(i), (phaseEndTimes.get(i) - start) / 1000.0));
+            start = phaseEndTimes.get(i);
+        }
+        report.append(String.format("Slowest beans, excluding the beans they depend on:%n"));
+        beanTimer.beanTimes.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                .limit(SLOWEST_BEANS)
+                .forEach(beanTime -> report.append(String.format("    %-50s %8.3f s%n",
+                        beanTime.getKey(), beanTime.getValue() / 1e9)));
+        return report.toString();
+    }
+
+    /**
+     * Times the creation of every bean, from before its instantiation until
+     * after its initialization. The beans created in the meantime are its
+     * dependencies, whose time is subtracted.
+     * <p>
+     * A bean whose creation failed, or that was only instantiated to check the
+     * type of a FactoryBean, is never initialized. Its creation is dropped once
+     * a bean that started before it has been initialized, and the time it took
+     * counts as a dependency of that bean.
+     */
+    private static class BeanTimer implements InstantiationAwareBeanPostProcessor {
+
+        private final Map<String, Long> beanTimes = new ConcurrentHashMap<>();
+
+        private final ThreadLocal<Deque<BeanCreation>> creations = ThreadLocal.withInitial(ArrayDeque::new);
+
+        @Override
+        public Object postProcessBeforeInstantiation(Class<?> beanClass, String beanName) throws BeansException {
+            creations.get().push(new BeanCreation(beanName));
+            return null;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+            Deque<BeanCreation> stack = creations.get();
+            // The objects created by a FactoryBean are only post-processed after their initialization
+            if (stack.stream().noneMatch(creation -> creation.beanName.equals(beanName))) {
+                return bean;
+            }
+            BeanCreation abandoned = null;
+            while (!stack.peek().beanName.equals(beanName)) {
+                abandoned = stack.pop();
+            }
+            BeanCreation creation = stack.pop();
+            long now = System.nanoTime();
+            if (abandoned != null) {
+                creation.dependencyTime += now - abandoned.startTime;
+            }
+            long elapsed = now - creation.startTime;
+            beanTimes.merge(beanName, elapsed - creation.dependencyTime, Long::sum);
+            if (!stack.isEmpty()) {
+                stack.peek().dependencyTime += elapsed;
+            }
+            return bean;
+        }
+    }
+
+    private static class BeanCreation {
+
+        private final String beanName;
+
+        private final long startTime = System.nanoTime();
+
+        private long dependencyTime;
+
+        BeanCreation(String beanName) {
+            this.beanName = beanName;
+        }
+    }
+}
@@ -5,34 +5,74 @@ import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonView;
 import io.swagger.v3.oas.annotations.media.Schema;
 import java.io.Serializable;
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
+import javax.persistence.QueryHint;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
 import javax.persistence.Transient;
 import javax.persistence.Version;
 import javax.validation.constraints.NotNull;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import net.binarypaper.example.config.AuditRevision;
+import net.binarypaper.example.config.AuditSummary;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.envers.Audited;
+import org.hibernate.jpa.QueryHints;
 
 // JPA annotations
 @Entity
+@Table(indexes = {
+    @Index(name = "IDX_FOO_NAME_ID", columnList = "name, id")
+})
 @NamedQueries({
-    @NamedQuery(name = "Foo.findAll", query = "SELECT f FROM Foo AS f ORDER BY f.name")
+    @NamedQuery(name = "Foo.findAll", query = "SELECT f FROM Foo AS f ORDER BY f.name, f.id", hints = {
+        @QueryHint(name = QueryHints.HINT_CACHEABLE, value = "true"),
+        @QueryHint(name = QueryHints.HINT_CACHE_REGION, value = "foo-queries")
+    }),
+    @NamedQuery(name = "Foo.listAll", query = "SELECT NEW Foo(f.id, f.name) FROM Foo AS f ORDER BY f.name, f.id", hints = {
+        @QueryHint(name = QueryHints.HINT_CACHEABLE, value = "true"),
+        @QueryHint(name = QueryHints.HINT_CACHE_REGION, value = "foo-queries")
+    }),
+    @NamedQuery(name = "Foo.listAllAfter", query = "SELECT NEW Foo(f.id, f.name) FROM Foo AS f"
+            + " WHERE f.name > :name OR (f.name = :name AND f.id > :id)"
+            + " ORDER BY f.name, f.id"),
+    @NamedQuery(name = "Foo.listAllWithSummary", query = "SELECT NEW Foo(f.id, f.name, s) FROM Foo AS f"
+            + " LEFT JOIN AuditSummary AS s ON s.entityName = :entityName AND s.entityId = f.id"
+            + " ORDER BY f.name, f.id"),
+    @NamedQuery(name = "Foo.listAllWithSummaryAfter", query = "SELECT NEW Foo(f.id, f.name, s) FROM Foo AS f"
+            + " LEFT JOIN AuditSummary AS s ON s.entityName = :entityName AND s.entityId = f.id"
+            + " WHERE f.name > :name OR (f.name = :name AND f.id > :id)"
+            + " ORDER BY f.name, f.id"),
+    @NamedQuery(name = "Foo.findVersionsByIds", query = "SELECT f.id, f.version FROM Foo AS f WHERE f.id IN :ids"),
+    @NamedQuery(name = "Foo.findVersionById", query = "SELECT f.version FROM Foo AS f WHERE f.id = :id"),
+    @NamedQuery(name = "Foo.findIdRange", query = "SELECT MIN(f.id), MAX(f.id) FROM Foo AS f"),
+    @NamedQuery(name = "Foo.findByIdRange", query = "SELECT f FROM Foo AS f WHERE f.id BETWEEN :fromId AND :toId ORDER BY f.id"),
+    @NamedQuery(name = "Foo.findByIds", query = "SELECT f FROM Foo AS f WHERE f.id IN :ids")
 })
+@Cacheable
+// Hibernate annotations
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "foo")
 // Envers annotations
-@Audited
+@Audited(withModifiedFlag = true)
 // Jackson annotations
 @JsonInclude(Include.NON_NULL)
 // Lombok annotations
 @Data
+@NoArgsConstructor
 public class Foo implements Serializable {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "FOO_SEQ")
+    @SequenceGenerator(name = "FOO_SEQ", sequenceName = "FOO_SEQ", allocationSize = 50)
     @JsonView({List.class, All.class, Update.class, AuditRevision.class})
     @Schema(
             description = "The unique identifier of the Foo",
@@ -68,6 +108,43 @@ public class Foo implements Serializable {
     )
     private AuditRevision revision;
 
+    // JPA Annotations
+    @Transient
+    // Jackson annotations
+    @JsonView({List.class})
+    // OpenAPI annotations
+    @Schema(
+            description = "The number of audit revisions and the latest audit revision, when requested",
+            accessMode = Schema.AccessMode.READ_ONLY
+    )
+    private AuditSummary summary;
+
+    /**
+     * Create a Foo with only the properties of the List view, as selected by
+     * the Foo.listAll queries. It is not managed by the persistence context.
+     *
+     * @param id The unique identifier of the Foo
+     * @param name The name of the Foo
+     */
+    public Foo(Long id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * Create a Foo with only the properties of the List view and its audit
+     * summary, as selected by the Foo.listAllWithSummary queries.
+     *
+     * @param id The unique identifier of the Foo
+     * @param name The name of the Foo
+     * @param summary The audit summary of the Foo, or null
+     */
+    public Foo(Long id, String name, AuditSummary summary) {
+        this.id = id;
+        this.name = name;
+        this.summary = summary;
+    }
+
     public interface Add {
     }
 
@@ -77,7 +154,7 @@ public class Foo implements Serializable {
     public interface All {
     }
 
-    public interface List {
+    public interface List extends AuditSummary.View {
     }
 
 }
@@ -0,0 +1,48 @@
+package net.binarypaper.example.foo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import lombok.Value;
+
+/**
+ * Opaque continuation token of the keyset pagination of Foos.
+ * <p>
+ * The token holds the sort key (name, id) of the last Foo of a page, encoded
+ * so that clients do not depend on its contents.
+ */
+// Lombok annotations
+@Value
+class FooContinuationToken {
+
+    private static final char SEPARATOR = ':';
+
+    private final String name;
+    private final Long id;
+
+    static FooContinuationToken of(Foo foo) {
+        return new FooContinuationToken(foo.getName(), foo.getId());
+    }
+
+    /**
+     * Decode a continuation token returned by a previous page.
+     *
+     * @param token The encoded continuation token
+     * @return The decoded continuation token
+     * @throws IllegalArgumentException If the token is not a valid continuation token
+     */
+    static FooContinuationToken parse(String token) {
+        String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        int separatorIndex = decoded.indexOf(SEPARATOR);
+        if (separatorIndex < 1) {
+            throw new IllegalArgumentException("Invalid continuation token");
+        }
+        return new FooContinuationToken(
+                decoded.substring(separatorIndex + 1),
+                Long.valueOf(decoded.substring(0, separatorIndex)));
+    }
+
+    String encode() {
+        String decoded = id.toString() + SEPARATOR + name;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(decoded.getBytes(StandardCharsets.UTF_8));
+    }
+}
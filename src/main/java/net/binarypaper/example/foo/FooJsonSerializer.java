@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.foo;
+
+import com.fasterxml.jackson.annotation.JsonView;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.ResolvableSerializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.binarypaper.example.config.AuditRevision;
+import net.binarypaper.example.config.AuditSummary;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jackson.JsonComponent;
+
+/**
+ * Serializes a Foo without the reflective, view-filtered bean serializer of
+ * Jackson.
+ * <p>
+ * The output is identical to that of the Jackson annotations of Foo. The
+ * properties of every JSON view are resolved from the @JsonView annotations
+ * once and kept as a bit mask, and the null properties are left out as with
+ * @JsonInclude(NON_NULL). The revision and the summary are written with the
+ * AuditRevision and AuditSummary serializers of the ObjectMapper.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@JsonComponent
+@ConditionalOnProperty(prefix = "application.json", name = "direct-serializers", havingValue = "true", matchIfMissing = true)
+public class FooJsonSerializer extends StdSerializer<Foo> implements ResolvableSerializer {
+
+    // The properties in the order of the Foo fields
+    private static final SerializedString[] PROPERTIES = {
+        new SerializedString("id"),
+        new SerializedString("version"),
+        new SerializedString("name"),
+        new SerializedString("description"),
+        new SerializedString("revision"),
+        new SerializedString("summary")
+    };
+
+    private static final int ID = 1;
+
+    private static final int VERSION = 1 << 1;
+
+    private static final int NAME = 1 << 2;
+
+    private static final int DESCRIPTION = 1 << 3;
+
+    private static final int REVISION = 1 << 4;
+
+    private static final int SUMMARY = 1 << 5;
+
+    private static final int ALL_PROPERTIES = (1 << PROPERTIES.length) - 1;
+
+    private final Class<?>[][] propertyViews;
+
+    private final Map<Class<?>, Integer> viewProperties = new ConcurrentHashMap<>();
+
+    private JsonSerializer<Object> revisionSerializer;
+
+    private JsonSerializer<Object> summarySerializer;
+
+    public FooJsonSerializer() {
+        super(Foo.class);
+        propertyViews = new Class<?>[PROPERTIES.length][];
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            try {
+                propertyViews[i] = Foo.class.getDeclaredField(PROPERTIES[i].getValue()).getAnnotation(JsonView.class).value();
+            } catch (NoSuchFieldException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    @Override
+    public void resolve(SerializerProvider provider) throws JsonMappingException {
+        revisionSerializer = provider.findValueSerializer(AuditRevision.class);
+        summarySerializer = provider.findValueSerializer(AuditSummary.class);
+    }
+
+    @Override
+    public void serialize(Foo foo, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        int properties = getViewProperties(provider.getActiveView());
+        gen.writeStartObject(foo);
+        if ((properties & ID) != 0 && foo.getId() != null) {
+            gen.writeFieldName(PROPERTIES[0]);
+            gen.writeNumber(foo.getId());
+        }
+        if ((properties & VERSION) != 0 && foo.getVersion() != null) {
+            gen.writeFieldName(PROPERTIES[1]);
+            gen.writeNumber(foo.getVersion());
+        }
+        if ((properties & NAME) != 0 && foo.getName() != null) {
+            gen.writeFieldName(PROPERTIES[2]);
+            gen.writeString(foo.getName());
+        }
+        if ((properties & DESCRIPTION) != 0 && foo.getDescription() != null) {
+            gen.writeFieldName(PROPERTIES[3]);
+            gen.writeString(foo.getDescription());
+        }
+        if ((properties & REVISION) != 0 && foo.getRevision() != null) {
+            gen.writeFieldName(PROPERTIES[4]);
+            revisionSerializer.serialize(foo.getRevision(), gen, provider);
+        }
+        if ((properties & SUMMARY) != 0 && foo.getSummary() != null) {
+            gen.writeFieldName(PROPERTIES[5]);
+            summarySerializer.serialize(foo.getSummary(), gen, provider);
+        }
+        gen.writeEndObject();
+    }
+
+    /**
+     * Get the properties included in a JSON view. A property is included if
+     * the view is, or extends, any of the views of its @JsonView annotation.
+     *
+     * @param view The active view, or null for all properties
+     * @return The bit mask of the included properties
+     */
+    private int getViewProperties(Class<?> view) {
+        if (view == null) {
+            return ALL_PROPERTIES;
+        }
+        Integer properties = viewProperties.get(view);
+        if (properties == null) {
+            int mask = 0;
+            for (int i = 0; i < PROPERTIES.length; i++) {
+                for (Class<?> propertyView : propertyViews[i]) {
+                    if (propertyView.isAssignableFrom(view)) {
+                        mask |= 1 << i;
+                    }
+                }
+            }
+            properties = mask;
+            viewProperties.putIfAbsent(view, properties);
+        }
+        return properties;
+    }
+}
@@ -1,44 +1,123 @@
 package net.binarypaper.example.foo;
 
 import com.fasterxml.jackson.annotation.JsonView;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.headers.Header;
 import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.annotation.security.RolesAllowed;
 import javax.persistence.EntityManager;
+import javax.persistence.OptimisticLockException;
 import javax.persistence.TypedQuery;
 import javax.servlet.http.HttpServletResponse;
-import javax.transaction.Transactional;
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validator;
+import org.hibernate.CacheMode;
+import org.hibernate.LockOptions;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import net.binarypaper.example.config.AuditChangeEvent;
+import net.binarypaper.example.config.AuditChangeFeed;
 import net.binarypaper.example.config.AuditRevision;
+import net.binarypaper.example.config.AuditRevisionChanges;
 import net.binarypaper.example.config.AuditRevisionHelper;
+import net.binarypaper.example.config.AuditRevisionHelperRegistry;
+import net.binarypaper.example.config.ExecutionPool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @RestController
 @RequestMapping("foo")
 @Transactional
+@ExecutionPool("crud")
 @RolesAllowed({"admin"})
 @Tag(name = "foo", description = "The Foo API")
 public class FooRestController {
 
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    private static final String CONTINUATION_TOKEN_HEADER = "X-Continuation-Token";
+    private static final int MAX_FOOS_LIMIT = 1000;
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    private static final int MAX_FOOS_BATCH_SIZE = 10000;
+    private static final int FOOS_STREAM_FETCH_SIZE = 500;
+    private static final int MAX_REVISIONS_LIMIT = 1000;
+    private static final int REVISIONS_STREAM_PAGE_SIZE = 500;
+    private static final int MAX_REVISIONS_IDS = 1000;
+    private static final Pattern FOO_ETAG_PATTERN = Pattern.compile("\"(\\d+)-(\\d+)\"");
+
     private final EntityManager em;
+    private final AuditRevisionHelper<Foo> auditRevisionHelper;
+    private final AuditChangeFeed auditChangeFeed;
+    private final FooSearchIndexer fooSearchIndexer;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final int jdbcBatchSize;
 
-    public FooRestController(EntityManager em) {
+    public FooRestController(
+            EntityManager em,
+            AuditRevisionHelperRegistry auditRevisionHelperRegistry,
+            AuditChangeFeed auditChangeFeed,
+            FooSearchIndexer fooSearchIndexer,
+            ObjectMapper objectMapper,
+            Validator validator,
+            @Value("${spring.jpa.properties.hibernate.jdbc.batch_size}") int jdbcBatchSize
+    ) {
         this.em = em;
+        this.auditRevisionHelper = auditRevisionHelperRegistry.getAuditRevisionHelper(Foo.class);
+        this.auditChangeFeed = auditChangeFeed;
+        this.fooSearchIndexer = fooSearchIndexer;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.jdbcBatchSize = jdbcBatchSize;
     }
 
     @PostMapping
@@ -69,36 +148,482 @@ public class FooRestController {
         em.persist(foo);
         em.flush();
         response.addHeader("location", "/foo/" + foo.getId());
+        response.setHeader(HttpHeaders.ETAG, fooETag(foo.getId(), foo.getVersion()));
         return foo;
     }
 
+    @PostMapping("batch")
+    @ResponseStatus(HttpStatus.CREATED)
+    @JsonView(Foo.All.class)
+    @Operation(
+            summary = "Add a batch of Foos",
+            description = "Add a batch of Foos to the database in a single transaction and audit revision"
+    )
+    @ApiResponses({
+        @ApiResponse(
+                responseCode = "201",
+                description = "Foos added"
+        ),
+        @ApiResponse(
+                responseCode = "400",
+                description = "Error in request body",
+                content = @Content
+        )
+    })
+    public List<Foo> addFoos(
+            @RequestBody
+            @JsonView(Foo.Add.class)
+            @Parameter(description = "The details of the Foos to add") List<Foo> foos
+    ) {
+        validateBatch(foos);
+        // A large batch of new Foos should not push the hot Foos out of the cache
+        em.unwrap(Session.class).setCacheMode(CacheMode.IGNORE);
+        for (int i = 0; i < foos.size(); i++) {
+            em.persist(foos.get(i));
+            if ((i + 1) % jdbcBatchSize == 0) {
+                em.flush();
+                em.clear();
+            }
+        }
+        em.flush();
+        em.clear();
+        return foos;
+    }
+
+    @PutMapping("batch")
+    @JsonView(Foo.All.class)
+    @Operation(
+            summary = "Update a batch of Foos",
+            description = "Update a batch of Foos in the database in a single transaction and audit revision."
+                    + " The Foos that are not changed by the request body are not written. A changed Foo in the"
+                    + " second-level cache is written with a single UPDATE that checks its version; the other Foos"
+                    + " are selected first, with one query per chunk of the batch"
+    )
+    @ApiResponses({
+        @ApiResponse(
+                responseCode = "200",
+                description = "Foos updated"
+        ),
+        @ApiResponse(
+                responseCode = "400",
+                description = "Invalid request data",
+                content = @Content
+        ),
+        @ApiResponse(
+                responseCode = "404",
+                description = "Invalid Foo ID",
+                content = @Content
+        ),
+        @ApiResponse(
+                responseCode = "409",
+                description = "A Foo has been changed since the version in the request body",
+                content = @Content
+        )
+    })
+    public List<Foo> updateFoos(
+            @RequestBody
+            @JsonView(Foo.Update.class)
+            @Parameter(description = "The details of the Foos to update") List<Foo> foos
+    ) {
+        validateBatch(foos);
+        Set<Long> ids = new HashSet<>();
+        for (Foo foo : foos) {
+            if (foo.getId() == null || !ids.add(foo.getId())) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Every foo in the batch must have a unique id");
+            }
+            if (foo.getVersion() == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Every foo in the batch must have a version");
+            }
+        }
+        // The Foos in the second-level cache are read from there, the others
+        // with one query per chunk, and every changed Foo is written with an
+        // UPDATE ... WHERE id = ? AND version = ?
+        List<Foo> updated = new ArrayList<>();
+        for (int from = 0; from < foos.size(); from += jdbcBatchSize) {
+            List<Foo> chunk = foos.subList(from, Math.min(from + jdbcBatchSize, foos.size()));
+            Map<Long, Integer> expectedVersions = chunk.stream().collect(Collectors.toMap(Foo::getId, Foo::getVersion));
+            List<Long> uncachedIds = chunk.stream()
+                    .map(Foo::getId)
+                    .filter(fooId -> !em.getEntityManagerFactory().getCache().contains(Foo.class, fooId))
+                    .collect(Collectors.toList());
+            if (!uncachedIds.isEmpty()) {
+                em.createNamedQuery("Foo.findByIds", Foo.class)
+                        .setParameter("ids", uncachedIds)
+                        .getResultList();
+            }
+            for (Foo foo : chunk) {
+                Foo current = em.find(Foo.class, foo.getId());
+                if (current == null) {
+                    throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Invalid foo id " + foo.getId());
+                }
+                if (!current.getVersion().equals(foo.getVersion())) {
+                    throw new ResponseStatusException(HttpStatus.CONFLICT, "Foo " + foo.getId() + " has been changed since the version in the request body");
+                }
+                current.setName(foo.getName());
+                current.setDescription(foo.getDescription());
+                updated.add(current);
+            }
+            try {
+                em.flush();
+            } catch (OptimisticLockException ex) {
+                throw batchUpdateConflict(expectedVersions);
+            }
+            em.clear();
+        }
+        return updated;
+    }
+
+    /**
+     * Find the Foo of a batch update chunk that was not updated.
+     * <p>
+     * The other Foos of the chunk may already have been updated in this
+     * transaction, so a Foo is only reported as changed when its version is
+     * neither the expected version nor the one after it.
+     *
+     * @param expectedVersions The versions in the request body of the Foos of
+     * the chunk that failed, by ID
+     * @return The exception to respond with
+     */
+    private ResponseStatusException batchUpdateConflict(Map<Long, Integer> expectedVersions) {
+        em.clear();
+        Map<Long, Integer> versions = new HashMap<>();
+        em.createNamedQuery("Foo.findVersionsByIds", Object[].class)
+                .setParameter("ids", expectedVersions.keySet())
+                .getResultList()
+                .forEach(row -> versions.put((Long) row[0], (Integer) row[1]));
+        for (Map.Entry<Long, Integer> expectedVersion : expectedVersions.entrySet()) {
+            Integer version = versions.get(expectedVersion.getKey());
+            if (version == null) {
+                return new ResponseStatusException(HttpStatus.NOT_FOUND, "Invalid foo id " + expectedVersion.getKey());
+            }
+            if (version != expectedVersion.getValue() + 1 && !version.equals(expectedVersion.getValue())) {
+                return new ResponseStatusException(HttpStatus.CONFLICT, "Foo " + expectedVersion.getKey() + " has been changed since the version in the request body");
+            }
+        }
+        return new ResponseStatusException(HttpStatus.CONFLICT, "A foo in the batch was changed while it was being updated");
+    }
+
+    private void validateBatch(List<Foo> foos) {
+        if (foos.isEmpty() || foos.size() > MAX_FOOS_BATCH_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The batch must contain between 1 and " + MAX_FOOS_BATCH_SIZE + " foos");
+        }
+        for (int i = 0; i < foos.size(); i++) {
+            Set<ConstraintViolation<Foo>> violations = validator.validate(foos.get(i));
+            if (!violations.isEmpty()) {
+                ConstraintViolation<Foo> violation = violations.iterator().next();
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid foo at index " + i + ": "
+                        + violation.getPropertyPath() + " " + violation.getMessage());
+            }
+        }
+    }
+
     @GetMapping
+    @Transactional(readOnly = true)
     @JsonView(Foo.List.class)
     @Operation(
             summary = "Get all Foo",
-            description = "Get all Foos from the database"
+            description = "Get all Foos from the database. With summary every Foo includes its number of audit revisions"
+                    + " and its latest audit revision, which are selected in the same query."
+    )
+    @ApiResponses({
+        @ApiResponse(
+                responseCode = "200",
+                description = "List of Foos returned",
+                headers = @Header(
+                        name = CONTINUATION_TOKEN_HEADER,
+                        description = "The continuation token of the next page when the page is full"
+                )
+        ),
+        @ApiResponse(
+                responseCode = "400",
+                description = "Invalid limit, continuation token, summary or as of revision",
+                content = @Content
+        )
+    })
+    public List<Foo> getAllFoos(
+            @RequestParam(required = false)
+            @Parameter(description = "The maximum number of Foos to return") Integer limit,
+            @RequestParam(required = false)
+            @Parameter(description = "The continuation token returned with the previous page of Foos") String continuationToken,
+            @RequestParam(required = false)
+            @Parameter(description = "Return the Foos as they were at this revision number") Long asOfRev,
+            @RequestParam(required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+            @Parameter(description = "Return the Foos as they were at this date and time") OffsetDateTime asOfDate,
+            @RequestParam(defaultValue = "false")
+            @Parameter(description = "Include the number of audit revisions and the latest audit revision of every Foo") boolean summary,
+            HttpServletResponse response
+    ) {
+        if (asOfRev != null || asOfDate != null) {
+            if (limit != null || continuationToken != null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The limit and continuation token can not be combined with asOfRev or asOfDate");
+            }
+            if (summary) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The summary can not be combined with asOfRev or asOfDate");
+            }
+            Number rev = getAsOfRevision(asOfRev, asOfDate);
+            if (rev == null) {
+                return Collections.emptyList();
+            }
+            List<Foo> foos = auditRevisionHelper.getAllEntitiesAsOf(em, rev);
+            foos.sort(Comparator.comparing(Foo::getName).thenComparing(Foo::getId));
+            return foos;
+        }
+        // The Foos are selected with only the properties of the List view,
+        // so they never enter the persistence context
+        if (limit == null && continuationToken == null) {
+            return createListQuery(summary, false).getResultList();
+        }
+        if (limit == null || limit < 1 || limit > MAX_FOOS_LIMIT) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The limit must be between 1 and " + MAX_FOOS_LIMIT);
+        }
+        TypedQuery<Foo> query;
+        if (continuationToken == null) {
+            query = createListQuery(summary, false);
+        } else {
+            FooContinuationToken token;
+            try {
+                token = FooContinuationToken.parse(continuationToken);
+            } catch (IllegalArgumentException ex) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The continuation token is invalid");
+            }
+            query = createListQuery(summary, true);
+            query.setParameter("name", token.getName());
+            query.setParameter("id", token.getId());
+        }
+        query.setMaxResults(limit);
+        List<Foo> foos = query.getResultList();
+        if (foos.size() == limit) {
+            response.addHeader(CONTINUATION_TOKEN_HEADER, FooContinuationToken.of(foos.get(foos.size() - 1)).encode());
+        }
+        return foos;
+    }
+
+    /**
+     * Create a query of the Foos with only the properties of the List view,
+     * and their audit summaries if requested.
+     *
+     * @param summary True to select the audit summaries
+     * @param after True to select the Foos after the name and id parameters
+     * @return The query
+     */
+    private TypedQuery<Foo> createListQuery(boolean summary, boolean after) {
+        if (!summary) {
+            return em.createNamedQuery(after ? "Foo.listAllAfter" : "Foo.listAll", Foo.class);
+        }
+        return em.createNamedQuery(after ? "Foo.listAllWithSummaryAfter" : "Foo.listAllWithSummary", Foo.class)
+                .setParameter("entityName", Foo.class.getName());
+    }
+
+    @GetMapping("search")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @JsonView(Foo.List.class)
+    @Operation(
+            summary = "Search Foos",
+            description = "Search the names and descriptions of the Foos in an in-memory index, without a database"
+                    + " query. Every word of the query must occur in the name or the description of a Foo, and a"
+                    + " word followed by * matches the words that start with it. Case and accents are ignored. The"
+                    + " Foos are ranked by how well their names match, and then by their name and ID."
+    )
+    @ApiResponses({
+        @ApiResponse(
+                responseCode = "200",
+                description = "Ranked page of Foos returned",
+                headers = @Header(
+                        name = CONTINUATION_TOKEN_HEADER,
+                        description = "The continuation token of the next page when the page is full"
+                )
+        ),
+        @ApiResponse(
+                responseCode = "400",
+                description = "Invalid query, limit or continuation token",
+                content = @Content
+        ),
+        @ApiResponse(
+                responseCode = "503",
+                description = "The search index is still being loaded",
+                content = @Content
+        )
+    })
+    public List<Foo> searchFoos(
+            @RequestParam
+            @Parameter(description = "The words to search for, a word followed by * is a prefix") String q,
+            @RequestParam(defaultValue = "" + DEFAULT_SEARCH_LIMIT)
+            @Parameter(description = "The maximum number of Foos to return") int limit,
+            @RequestParam(required = false)
+            @Parameter(description = "The continuation token returned with the previous page of Foos") String continuationToken,
+            HttpServletResponse response
+    ) {
+        if (limit < 1 || limit > MAX_FOOS_LIMIT) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The limit must be between 1 and " + MAX_FOOS_LIMIT);
+        }
+        FooSearchIndex.Query query;
+        try {
+            query = FooSearchIndex.Query.parse(q);
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage());
+        }
+        FooSearchIndex.Hit after = null;
+        if (continuationToken != null) {
+            try {
+                after = FooSearchContinuationToken.parse(continuationToken).toHit();
+            } catch (IllegalArgumentException ex) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The continuation token is invalid");
+            }
+        }
+        if (!fooSearchIndexer.isLoaded()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The search index is still being loaded");
+        }
+        List<FooSearchIndex.Hit> hits = fooSearchIndexer.getIndex().search(query, limit, after);
+        if (hits.size() == limit) {
+            response.addHeader(CONTINUATION_TOKEN_HEADER, FooSearchContinuationToken.of(hits.get(hits.size() - 1)).encode());
+        }
+        return hits.stream()
+                .map(hit -> new Foo(hit.getId(), hit.getName()))
+                .collect(Collectors.toList());
+    }
+
+    @GetMapping("search/check")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @Operation(
+            summary = "Check the Foo search index",
+            description = "Compare the search index with the Foos in the database, and list the Foos that are missing"
+                    + " from it, indexed with an older version, or no longer in the database."
     )
     @ApiResponses({
         @ApiResponse(
                 responseCode = "200",
-                description = "List of Foos returned"
+                description = "Differences returned"
+        ),
+        @ApiResponse(
+                responseCode = "503",
+                description = "The search index is still being loaded",
+                content = @Content
         )
     })
-    public List<Foo> getAllFoos() {
-        TypedQuery<Foo> query = em.createNamedQuery("Foo.findAll", Foo.class);
-        return query.getResultList();
+    public FooSearchIndexer.CheckResult checkSearchIndex() throws InterruptedException, ExecutionException {
+        return checkSearchIndex(false);
+    }
+
+    @PostMapping("search/check")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @Operation(
+            summary = "Check and repair the Foo search index",
+            description = "Compare the search index with the Foos in the database, and update the Foos in the search"
+                    + " index that differ from the database."
+    )
+    @ApiResponses({
+        @ApiResponse(
+                responseCode = "200",
+                description = "Differences returned and repaired"
+        ),
+        @ApiResponse(
+                responseCode = "503",
+                description = "The search index is still being loaded",
+                content = @Content
+        )
+    })
+    public FooSearchIndexer.CheckResult repairSearchIndex() throws InterruptedException, ExecutionException {
+        return checkSearchIndex(true);
+    }
+
+    private FooSearchIndexer.CheckResult checkSearchIndex(boolean repair) throws InterruptedException, ExecutionException {
+        if (!fooSearchIndexer.isLoaded()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The search index is still being loaded");
+        }
+        return fooSearchIndexer.check(repair);
+    }
+
+    @GetMapping(path = "stream", produces = MediaType.APPLICATION_JSON_VALUE)
+    @Transactional(readOnly = true)
+    @Operation(
+            summary = "Stream all Foo",
+            description = "Stream all Foos from the database as a JSON array, or as newline delimited JSON"
+                    + " when requested with an Accept header of " + APPLICATION_NDJSON_VALUE
+    )
+    @ApiResponses({
+        @ApiResponse(
+                responseCode = "200",
+                description = "All Foos returned"
+        )
+    })
+    public void streamAllFoos(HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        try (SequenceWriter writer = createJsonWriter(Foo.List.class)
+                .writeValuesAsArray(response.getOutputStream())) {
+            writeAllFoos(writer);
+        }
+    }
+
+    @GetMapping(path = "stream", produces = APPLICATION_NDJSON_VALUE)
+    @Transactional(readOnly = true)
+    @Operation(hidden = true)
+    public void streamAllFoosAsNdjson(HttpServletResponse response) throws IOException {
+        response.setContentType(APPLICATION_NDJSON_VALUE);
+        try (SequenceWriter writer = createJsonWriter(Foo.List.class)
+                .withRootValueSeparator("\n")
+                .writeValues(response.getOutputStream())) {
+            if (writeAllFoos(writer) > 0) {
+                writer.flush();
+                response.getOutputStream().write('\n');
+            }
+        }
+    }
+
+    /**
+     * Write all Foos while scrolling through the database results.
+     * <p>
+     * Every Foo is loaded read-only and detached from the persistence context
+     * once written, so that the persistence context does not grow with the
+     * number of Foos. The second-level cache is bypassed, so that streaming
+     * all Foos does not push the hot Foos out of the cache.
+     *
+     * @param writer The writer to write the Foos to
+     * @return The number of Foos written
+     * @throws IOException If the Foos could not be written
+     */
+    private long writeAllFoos(SequenceWriter writer) throws IOException {
+        Session session = em.unwrap(Session.class);
+        long count = 0;
+        try (ScrollableResults results = session.createNamedQuery("Foo.findAll", Foo.class)
+                .setReadOnly(true)
+                .setCacheable(false)
+                .setCacheMode(CacheMode.IGNORE)
+                .setFetchSize(FOOS_STREAM_FETCH_SIZE)
+                .scroll(ScrollMode.FORWARD_ONLY)) {
+            while (results.next()) {
+                Foo foo = (Foo) results.get(0);
+                writer.write(foo);
+                session.detach(foo);
+                count++;
+            }
+        }
+        return count;
     }
 
     @GetMapping("{id}")
+    @Transactional(readOnly = true)
     @JsonView(Foo.All.class)
     @Operation(
             summary = "Get Foo by ID",
-            description = "Get Foo by ID from the database"
+            description = "Get Foo by ID from the database. The ETag of the Foo is derived from its ID and version,"
+                    + " so a request with a matching If-None-Match header is answered with 304 Not Modified."
     )
     @ApiResponses({
         @ApiResponse(
                 responseCode = "200",
-                description = "Foo returned"
+                description = "Foo returned",
+                headers = @Header(name = HttpHeaders.ETAG, description = "The ETag of the Foo")
+        ),
+        @ApiResponse(
+                responseCode = "304",
+                description = "Foo not modified",
+                content = @Content
+        ),
+        @ApiResponse(
+                responseCode = "400",
+                description = "Invalid as of revision",
+                content = @Content
         ),
         @ApiResponse(
                 responseCode = "404",
@@ -106,7 +631,58 @@ public class FooRestController {
                 content = @Content
         )
     })
-    public Foo getFooById(@PathVariable @Parameter(description = "The ID of the Foo") Long id) {
+    public Foo getFooById(
+            @PathVariable @Parameter(description = "The ID of the Foo") Long id,
+            @RequestParam(required = false)
+            @Parameter(description = "Return the Foo as it was at this revision number") Long asOfRev,
+            @RequestParam(required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+            @Parameter(description = "Return the Foo as it was at this date and time") OffsetDateTime asOfDate,
+            WebRequest webRequest,
+            HttpServletResponse response
+    ) {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue());
+        if (asOfRev != null || asOfDate != null) {
+            Number rev = getAsOfRevision(asOfRev, asOfDate);
+            Foo foo = rev == null ? null : auditRevisionHelper.getEntityAsOf(em, id, rev);
+            if (foo == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Invalid foo id");
+            }
+            return foo;
+        }
+        if (webRequest.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            Integer version = findFooVersion(id);
+            if (version != null && webRequest.checkNotModified(fooETag(id, version))) {
+                return null;
+            }
+        }
+        Foo foo = findFooById(id);
+        response.setHeader(HttpHeaders.ETAG, fooETag(id, foo.getVersion()));
+        return foo;
+    }
+
+    /**
+     * Get the revision number of an as of request.
+     *
+     * @param asOfRev The requested revision number, or null
+     * @param asOfDate The requested date and time, or null
+     * @return The revision number, or null if there were no revisions yet at
+     * the requested date and time
+     */
+    private Number getAsOfRevision(Long asOfRev, OffsetDateTime asOfDate) {
+        if (asOfRev != null && asOfDate != null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Only one of asOfRev and asOfDate can be used");
+        }
+        if (asOfRev != null) {
+            if (asOfRev < 1) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The asOfRev must be a revision number");
+            }
+            return asOfRev;
+        }
+        return auditRevisionHelper.getRevisionNumberForDate(em, Date.from(asOfDate.toInstant()));
+    }
+
+    private Foo findFooById(Long id) {
         Foo foo = em.find(Foo.class, id);
         if (foo == null) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Invalid foo id");
@@ -114,16 +690,121 @@ public class FooRestController {
         return foo;
     }
 
+    /**
+     * Get the version of a Foo without loading the Foo from the database.
+     * <p>
+     * A Foo in the second-level cache is loaded from there instead, which is
+     * cheaper than querying its version. Either way the Foo is not left in the
+     * persistence context.
+     *
+     * @param id The ID of the Foo
+     * @return The version of the Foo, or null if there is no Foo with the ID
+     */
+    private Integer findFooVersion(Long id) {
+        if (em.getEntityManagerFactory().getCache().contains(Foo.class, id)) {
+            Foo foo = em.find(Foo.class, id);
+            if (foo == null) {
+                return null;
+            }
+            em.detach(foo);
+            return foo.getVersion();
+        }
+        List<Integer> versions = em.createNamedQuery("Foo.findVersionById", Integer.class)
+                .setParameter("id", id)
+                .getResultList();
+        return versions.isEmpty() ? null : versions.get(0);
+    }
+
+    private static String fooETag(Long id, Integer version) {
+        return "\"" + id + "-" + version + "\"";
+    }
+
+    private static String revisionsETag(Long id, Number latestRev) {
+        return "\"" + id + "-r" + latestRev + "\"";
+    }
+
+    /**
+     * Get the version of a Foo that an If-Match header expects.
+     * <p>
+     * A single ETag of the Foo is parsed without reading the database. For *
+     * or a list of ETags the current version of the Foo is read and checked.
+     *
+     * @param id The ID of the Foo
+     * @param ifMatch The If-Match header value
+     * @return The expected version of the Foo
+     */
+    private Integer getIfMatchVersion(Long id, String ifMatch) {
+        Matcher matcher = FOO_ETAG_PATTERN.matcher(ifMatch.trim());
+        if (matcher.matches()) {
+            if (!id.equals(Long.valueOf(matcher.group(1)))) {
+                throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "The ETag in the If-Match header is not the ETag of the foo");
+            }
+            return Integer.valueOf(matcher.group(2));
+        }
+        Integer version = findFooVersion(id);
+        if (version == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Invalid foo id");
+        }
+        if (!matchesETag(ifMatch, fooETag(id, version))) {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "The foo has been changed since the ETag in the If-Match header was returned");
+        }
+        return version;
+    }
+
+    /**
+     * Find out why a conditional update or delete of a Foo changed no rows.
+     *
+     * @param id The ID of the Foo
+     * @param ifMatch True if the expected version was sent in an If-Match header
+     * @return The exception to respond with
+     */
+    private ResponseStatusException conditionalChangeFailed(Long id, boolean ifMatch) {
+        em.clear();
+        if (findFooVersion(id) == null) {
+            return new ResponseStatusException(HttpStatus.NOT_FOUND, "Invalid foo id");
+        }
+        return fooChanged(ifMatch);
+    }
+
+    private static ResponseStatusException fooChanged(boolean ifMatch) {
+        if (ifMatch) {
+            return new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "The foo has been changed since the ETag in the If-Match header was returned");
+        }
+        return new ResponseStatusException(HttpStatus.CONFLICT, "The foo has been changed since the version in the request was read");
+    }
+
+    /**
+     * Check an If-Match header against the strong ETag of a resource.
+     *
+     * @param ifMatch The If-Match header value, a list of ETags or *
+     * @param eTag The current ETag of the resource
+     * @return True if the header matches the ETag
+     */
+    private static boolean matchesETag(String ifMatch, String eTag) {
+        for (String candidate : ifMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @PutMapping("{id}")
     @JsonView(Foo.All.class)
     @Operation(
             summary = "Update Foo by ID",
-            description = "Update Foo by ID from the database"
+            description = "Update Foo by ID in the database with an UPDATE that checks the version of the Foo. The"
+                    + " version is taken from the request body, unless an If-Match header with the ETag of the Foo is"
+                    + " sent instead. A Foo that is not changed by the request body is not written, and keeps its"
+                    + " version and ETag. The UPDATE is the only statement for the Foo when it is in the second-level"
+                    + " cache; a Foo that is not cached is selected first."
     )
     @ApiResponses({
         @ApiResponse(
                 responseCode = "200",
-                description = "Foo updated"
+                description = "Foo updated",
+                headers = @Header(name = HttpHeaders.ETAG, description = "The new ETag of the Foo")
         ),
         @ApiResponse(
                 responseCode = "400",
@@ -134,6 +815,16 @@ public class FooRestController {
                 responseCode = "404",
                 description = "Invalid Foo ID",
                 content = @Content
+        ),
+        @ApiResponse(
+                responseCode = "409",
+                description = "The Foo has been changed since the version in the request body",
+                content = @Content
+        ),
+        @ApiResponse(
+                responseCode = "412",
+                description = "The ETag in the If-Match header does not match the Foo",
+                content = @Content
         )
     })
     public Foo updateFoo(
@@ -141,24 +832,45 @@ public class FooRestController {
             @RequestBody
             @JsonView(Foo.Update.class)
             @Parameter(description = "The details of the Foo to update")
-            @Valid Foo foo
+            @Valid Foo foo,
+            WebRequest webRequest,
+            HttpServletResponse response
     ) {
         if (!id.equals(foo.getId())) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The foo id in the path does not match the id in the request body");
         }
-        Foo fromDB = getFooById(id);
-        if (!fromDB.getVersion().equals(foo.getVersion())) {
+        String ifMatch = webRequest.getHeader(HttpHeaders.IF_MATCH);
+        Integer version = foo.getVersion();
+        if (ifMatch != null) {
+            version = getIfMatchVersion(id, ifMatch);
+        } else if (version == null) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The foo version in the request body is invalid");
         }
-        foo = em.merge(foo);
-        em.flush();
-        return foo;
+        // The Foo is read from the second-level cache when it is there, so the
+        // modified flags of its audit row need no database snapshot, and a
+        // changed Foo is written with one UPDATE ... WHERE id = ? AND version = ?
+        // A Foo that is not cached is selected before the UPDATE
+        Foo current = findFooById(id);
+        if (!current.getVersion().equals(version)) {
+            throw fooChanged(ifMatch != null);
+        }
+        current.setName(foo.getName());
+        current.setDescription(foo.getDescription());
+        try {
+            em.flush();
+        } catch (OptimisticLockException ex) {
+            throw conditionalChangeFailed(id, ifMatch != null);
+        }
+        response.setHeader(HttpHeaders.ETAG, fooETag(id, current.getVersion()));
+        return current;
     }
 
     @DeleteMapping("{id}")
     @Operation(
             summary = "Delete Foo by ID",
-            description = "Delete Foo by ID from the database"
+            description = "Delete Foo by ID from the database. When the expected version of the Foo is sent as the"
+                    + " version parameter or as the ETag in an If-Match header, the Foo is deleted with a single DELETE"
+                    + " that checks the version."
     )
     @ApiResponses({
         @ApiResponse(
@@ -169,24 +881,67 @@ public class FooRestController {
                 responseCode = "404",
                 description = "Invalid Foo ID",
                 content = @Content
+        ),
+        @ApiResponse(
+                responseCode = "409",
+                description = "The Foo has been changed since the version in the request",
+                content = @Content
+        ),
+        @ApiResponse(
+                responseCode = "412",
+                description = "The ETag in the If-Match header does not match the Foo",
+                content = @Content
         )
     })
-    public void deleteFoo(@PathVariable @Parameter(description = "The ID of the Foo") Long id) {
-        Foo foo = getFooById(id);
-        em.remove(foo);
-        em.flush();
+    public void deleteFoo(
+            @PathVariable @Parameter(description = "The ID of the Foo") Long id,
+            @RequestParam(required = false)
+            @Parameter(description = "The expected version of the Foo") Integer version,
+            WebRequest webRequest
+    ) {
+        String ifMatch = webRequest.getHeader(HttpHeaders.IF_MATCH);
+        if (ifMatch != null) {
+            version = getIfMatchVersion(id, ifMatch);
+        }
+        if (version == null) {
+            Foo foo = findFooById(id);
+            em.remove(foo);
+            em.flush();
+            return;
+        }
+        Foo foo = new Foo();
+        foo.setId(id);
+        foo.setVersion(version);
+        // Reattaching the Foo does not read it, so this is a single DELETE ... WHERE id = ? AND version = ?
+        Session session = em.unwrap(Session.class);
+        try {
+            session.buildLockRequest(LockOptions.NONE).lock(foo);
+            session.delete(foo);
+            session.flush();
+        } catch (OptimisticLockException ex) {
+            throw conditionalChangeFailed(id, ifMatch != null);
+        }
     }
 
     @GetMapping("{id}/revisions")
+    @Transactional(readOnly = true)
+    @ExecutionPool("revisions")
     @JsonView(AuditRevision.class)
     @Operation(
             summary = "Get Foo Audit Revisions by ID",
-            description = "Get Foo Audit Revisions by ID from the audit database"
+            description = "Get Foo Audit Revisions by ID from the audit database. The ETag of the revisions"
+                    + " is derived from the latest revision number of the Foo."
     )
     @ApiResponses({
         @ApiResponse(
                 responseCode = "200",
-                description = "Foo Audit Revisions returned"
+                description = "Foo Audit Revisions returned",
+                headers = @Header(name = HttpHeaders.ETAG, description = "The ETag of the revisions")
+        ),
+        @ApiResponse(
+                responseCode = "304",
+                description = "Foo Audit Revisions not modified",
+                content = @Content
         ),
         @ApiResponse(
                 responseCode = "404",
@@ -194,12 +949,276 @@ public class FooRestController {
                 content = @Content
         )
     })
-    public List<Foo> getFooAuditRevisions(@PathVariable @Parameter(description = "The ID of the Foo") Long id) {
-        AuditRevisionHelper<Foo> auditRevisionHelper = new AuditRevisionHelper<>(Foo.class);
-        List<Foo> revisions = auditRevisionHelper.getAllAuditRevisions(em, id);
-        if (revisions.isEmpty()) {
+    public List<Foo> getFooAuditRevisions(
+            @PathVariable @Parameter(description = "The ID of the Foo") Long id,
+            @RequestParam(required = false)
+            @Parameter(description = "Only return revisions after this revision number in the requested order") Long afterRev,
+            @RequestParam(required = false)
+            @Parameter(description = "The maximum number of revisions to return") Integer limit,
+            @RequestParam(defaultValue = "ASC")
+            @Parameter(description = "The order of the revisions by revision number") Sort.Direction order,
+            @RequestParam(required = false)
+            @Parameter(description = "Only return revisions in which any of these properties were changed") List<String> changed,
+            WebRequest webRequest,
+            HttpServletResponse response
+    ) {
+        validateRevisionsRequest(limit, changed);
+        if (checkRevisionsNotModified(id, webRequest, response)) {
+            return null;
+        }
+        List<Foo> revisions = auditRevisionHelper.getAuditRevisions(em, id, afterRev, limit, order.isAscending(), changed);
+        if (revisions.isEmpty() && afterRev == null && changed == null) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Invalid foo id");
         }
         return revisions;
     }
+
+    @GetMapping("{id}/revisions/changes")
+    @Transactional(readOnly = true)
+    @ExecutionPool("revisions")
+    @JsonView(AuditRevision.class)
+    @Operation(
+            summary = "Get Foo Audit Revision Changes by ID",
+            description = "Get the properties of a Foo that were changed in each of its audit revisions, with their"
+                    + " values after the revision. The ETag of the changes is derived from the latest revision number"
+                    + " of the Foo."
+    )
+    @ApiResponses({
+        @ApiResponse(
+                responseCode = "200",
+                description = "Foo Audit Revision Changes returned",
+                headers = @Header(name = HttpHeaders.ETAG, description = "The ETag of the changes")
+        ),
+        @ApiResponse(
+                responseCode = "304",
+                description = "Foo Audit Revision Changes not modified",
+                content = @Content
+        ),
+        @ApiResponse(
+                responseCode = "400",
+                description = "Invalid limit or changed property",
+                content = @Content
+        ),
+        @ApiResponse(
+                responseCode = "404",
+                description = "Invalid Foo ID",
+                content = @Content
+        )
+    })
+    public List<AuditRevisionChanges> getFooAuditRevisionChanges(
+            @PathVariable @Parameter(description = "The ID of the Foo") Long id,
+            @RequestParam(required = false)
+            @Parameter(description = "Only return revisions after this revision number in the requested order") Long afterRev,
+            @RequestParam(required = false)
+            @Parameter(description = "The maximum number of revisions to return") Integer limit,
+            @RequestParam(defaultValue = "ASC")
+            @Parameter(description = "The order of the revisions by revision number") Sort.Direction order,
+            @RequestParam(required = false)
+            @Parameter(description = "Only return revisions in which any of these properties were changed") List<String> changed,
+            WebRequest webRequest,
+            HttpServletResponse response
+    ) {
+        validateRevisionsRequest(limit, changed);
+        if (checkRevisionsNotModified(id, webRequest, response)) {
+            return null;
+        }
+        List<AuditRevisionChanges> changes = auditRevisionHelper.getAuditRevisionChanges(
+                em, id, afterRev, limit, order.isAscending(), changed);
+        if (changes.isEmpty() && afterRev == null && changed == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Invalid foo id");
+        }
+        return changes;
+    }
+
+    private void validateRevisionsRequest(Integer limit, List<String> changed) {
+        if (limit != null && (limit < 1 || limit > MAX_REVISIONS_LIMIT)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The limit must be between 1 and " + MAX_REVISIONS_LIMIT);
+        }
+        if (changed != null) {
+            Set<String> modifiedFlagProperties = auditRevisionHelper.getModifiedFlagProperties(em);
+            for (String property : changed) {
+                if (!modifiedFlagProperties.contains(property)) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The changed property must be one of "
+                            + String.join(", ", modifiedFlagProperties));
+                }
+            }
+        }
+    }
+
+    @GetMapping(path = "{id}/revisions/stream", produces = MediaType.APPLICATION_JSON_VALUE)
+    @Transactional(readOnly = true)
+    @ExecutionPool("revisions")
+    @Operation(
+            summary = "Stream Foo Audit Revisions by ID",
+            description = "Stream all Foo Audit Revisions by ID from the audit database while they are read."
+                    + " The ETag of the revisions is derived from the latest revision number of the Foo."
+    )
+    @ApiResponses({
+        @ApiResponse(
+                responseCode = "200",
+                description = "Foo Audit Revisions returned",
+                headers = @Header(name = HttpHeaders.ETAG, description = "The ETag of the revisions")
+        ),
+        @ApiResponse(
+                responseCode = "304",
+                description = "Foo Audit Revisions not modified",
+                content = @Content
+        ),
+        @ApiResponse(
+                responseCode = "404",
+                description = "Invalid Foo ID",
+                content = @Content
+        )
+    })
+    public void streamFooAuditRevisions(
+            @PathVariable @Parameter(description = "The ID of the Foo") Long id,
+            @RequestParam(defaultValue = "ASC")
+            @Parameter(description = "The order of the revisions by revision number") Sort.Direction order,
+            WebRequest webRequest,
+            HttpServletResponse response
+    ) throws IOException {
+        if (checkRevisionsNotModified(id, webRequest, response)) {
+            return;
+        }
+        try (Stream<Foo> revisions = auditRevisionHelper.streamAuditRevisions(em, id, order.isAscending(), REVISIONS_STREAM_PAGE_SIZE)) {
+            Iterator<Foo> iterator = revisions.iterator();
+            if (!iterator.hasNext()) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Invalid foo id");
+            }
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            try (SequenceWriter writer = createJsonWriter(AuditRevision.class)
+                    .writeValuesAsArray(response.getOutputStream())) {
+                while (iterator.hasNext()) {
+                    writer.write(iterator.next());
+                }
+            }
+        }
+    }
+
+    @GetMapping(path = "revisions", produces = MediaType.APPLICATION_JSON_VALUE)
+    @Transactional(readOnly = true)
+    @ExecutionPool("revisions")
+    @Operation(
+            summary = "Stream the Audit Revisions of many Foos",
+            description = "Stream the Audit Revisions of many Foos from the audit database while they are read,"
+                    + " as a JSON object with the revisions of each Foo from oldest to newest by Foo ID. The"
+                    + " revisions of all the Foos are read with a single query, a page at a time. Foos without"
+                    + " revisions in the requested range are left out."
+    )
+    @ApiResponses({
+        @ApiResponse(
+                responseCode = "200",
+                description = "Foo Audit Revisions returned"
+        ),
+        @ApiResponse(
+                responseCode = "400",
+                description = "Invalid number of Foo IDs",
+                content = @Content
+        )
+    })
+    public void streamFoosAuditRevisions(
+            @RequestParam
+            @Parameter(description = "The IDs of the Foos") Set<Long> ids,
+            @RequestParam(required = false)
+            @Parameter(description = "Only return revisions from this revision number") Long fromRev,
+            @RequestParam(required = false)
+            @Parameter(description = "Only return revisions up to this revision number") Long toRev,
+            @RequestParam(required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+            @Parameter(description = "Only return revisions made from this date and time") OffsetDateTime fromDate,
+            @RequestParam(required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+            @Parameter(description = "Only return revisions made up to this date and time") OffsetDateTime toDate,
+            HttpServletResponse response
+    ) throws IOException {
+        if (ids.isEmpty() || ids.size() > MAX_REVISIONS_IDS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The number of ids must be between 1 and " + MAX_REVISIONS_IDS);
+        }
+        try (Stream<Foo> revisions = auditRevisionHelper.streamAuditRevisions(em, ids, fromRev, toRev,
+                fromDate == null ? null : Date.from(fromDate.toInstant()),
+                toDate == null ? null : Date.from(toDate.toInstant()),
+                REVISIONS_STREAM_PAGE_SIZE)) {
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            ObjectWriter writer = createJsonWriter(AuditRevision.class);
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+                generator.writeStartObject();
+                Long currentId = null;
+                Iterator<Foo> iterator = revisions.iterator();
+                while (iterator.hasNext()) {
+                    Foo revision = iterator.next();
+                    // The revisions are ordered by Foo ID, so each Foo starts a new array
+                    if (!revision.getId().equals(currentId)) {
+                        if (currentId != null) {
+                            generator.writeEndArray();
+                        }
+                        currentId = revision.getId();
+                        generator.writeArrayFieldStart(currentId.toString());
+                    }
+                    writer.writeValue(generator, revision);
+                }
+                if (currentId != null) {
+                    generator.writeEndArray();
+                }
+                generator.writeEndObject();
+            }
+        }
+    }
+
+    @GetMapping(path = "changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Transactional(readOnly = true)
+    @Operation(
+            summary = "Subscribe to Foo changes",
+            description = "Stream the changes of all Foos as Server-Sent Events once they are committed, instead of"
+                    + " polling the Foos or their revisions. The events are sent in commit order, which is not always"
+                    + " the revision order. A reconnecting client resumes after the Last-Event-ID it last saw,"
+                    + " sinceRev is only used by the first subscription. A reset event means that changes were missed"
+                    + " and the revisions should be read again."
+    )
+    @ApiResponses({
+        @ApiResponse(
+                responseCode = "200",
+                description = "Foo changes streamed",
+                content = @Content(
+                        mediaType = MediaType.TEXT_EVENT_STREAM_VALUE,
+                        schema = @Schema(implementation = AuditChangeEvent.class)
+                )
+        ),
+        @ApiResponse(
+                responseCode = "503",
+                description = "Too many subscribers",
+                content = @Content
+        )
+    })
+    public SseEmitter streamFooChanges(
+            @RequestParam(required = false)
+            @Parameter(description = "Only stream the changes after this revision number") Long sinceRev,
+            @RequestHeader(name = "Last-Event-ID", required = false)
+            @Parameter(description = "The id of the last event received, set by reconnecting clients") Long lastEventId
+    ) {
+        return auditChangeFeed.subscribe(Foo.class.getName(), sinceRev, lastEventId);
+    }
+
+    /**
+     * Set the caching headers of the revisions of a Foo and check them against
+     * the conditional request headers.
+     * <p>
+     * Revisions are never changed once written, so the revisions only change
+     * when a new revision is added.
+     *
+     * @param id The ID of the Foo
+     * @param webRequest The request
+     * @param response The response
+     * @return True if the response is 304 Not Modified and has been handled
+     */
+    private boolean checkRevisionsNotModified(Long id, WebRequest webRequest, HttpServletResponse response) {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue());
+        Number latestRev = auditRevisionHelper.getLatestRevisionNumber(em, id);
+        return latestRev != null && webRequest.checkNotModified(revisionsETag(id, latestRev));
+    }
+
+    private ObjectWriter createJsonWriter(Class<?> view) {
+        return objectMapper
+                .writerWithView(view)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
 }
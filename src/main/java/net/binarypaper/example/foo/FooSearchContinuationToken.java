@@ -0,0 +1,55 @@
+package net.binarypaper.example.foo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import lombok.Value;
+
+/**
+ * Opaque continuation token of the ranked pages of a Foo search.
+ * <p>
+ * The token holds the rank (score, name, id) of the last Foo of a page,
+ * encoded so that clients do not depend on its contents.
+ */
+// Lombok annotations
+@Value
+class FooSearchContinuationToken {
+
+    private static final char SEPARATOR = ':';
+
+    private final int score;
+    private final Long id;
+    private final String name;
+
+    static FooSearchContinuationToken of(FooSearchIndex.Hit hit) {
+        return new FooSearchContinuationToken(hit.getScore(), hit.getId(), hit.getName());
+    }
+
+    /**
+     * Decode a continuation token returned by a previous page.
+     *
+     * @param token The encoded continuation token
+     * @return The decoded continuation token
+     * @throws IllegalArgumentException If the token is not a valid continuation token
+     */
+    static FooSearchContinuationToken parse(String token) {
+        String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        int scoreSeparatorIndex = decoded.indexOf(SEPARATOR);
+        int idSeparatorIndex = decoded.indexOf(SEPARATOR, scoreSeparatorIndex + 1);
+        if (scoreSeparatorIndex < 1 || idSeparatorIndex < scoreSeparatorIndex + 2) {
+            throw new IllegalArgumentException("Invalid continuation token");
+        }
+        return new FooSearchContinuationToken(
+                Integer.parseInt(decoded.substring(0, scoreSeparatorIndex)),
+                Long.valueOf(decoded.substring(scoreSeparatorIndex + 1, idSeparatorIndex)),
+                decoded.substring(idSeparatorIndex + 1));
+    }
+
+    FooSearchIndex.Hit toHit() {
+        return new FooSearchIndex.Hit(id, score, name);
+    }
+
+    String encode() {
+        String decoded = Integer.toString(score) + SEPARATOR + id + SEPARATOR + name;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(decoded.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,702 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.foo;
+
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import lombok.Value;
+
+/**
+ * In-memory inverted index of the words in the names and descriptions of the
+ * Foos.
+ * <p>
+ * The words are lower cased and stripped of their accents. Every word has an
+ * array of the indexed Foos that contain it, sorted by ID, and the words are
+ * kept sorted so that the words with a prefix are a range of them. A query is
+ * answered from the IDs of its rarest word, and every other word is looked up
+ * in the words of each of those Foos, so the time of a query depends on the
+ * number of Foos that contain its rarest word and not on the number of Foos.
+ * <p>
+ * A Foo is only replaced by a higher version, and a deleted Foo is not indexed
+ * again during the bulk load or for the tombstone retention after it and after
+ * the deletion, so the changes may be applied in any order and concurrently
+ * with a bulk load. Queries run concurrently with each other, changes are
+ * applied one at a time.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+public class FooSearchIndex {
+
+    /**
+     * The maximum number of words in a query.
+     */
+    public static final int MAX_QUERY_TERMS = 10;
+
+    private static final String[] NO_TERMS = {};
+
+    private static final Comparator<Document> BY_ID = Comparator.comparingLong(document -> document.id);
+
+    private static final Comparator<Hit> RANKING = Comparator.comparingInt(Hit::getScore).reversed()
+            .thenComparing(Hit::getName, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparingLong(Hit::getId);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<Long, Document> documents = new HashMap<>();
+
+    private final NavigableMap<String, Postings> postings = new TreeMap<>();
+
+    /**
+     * The IDs of the deleted Foos with the System.nanoTime of their deletion,
+     * oldest first. IDs are never reused, so a change of a deleted Foo that
+     * arrives after its deletion, from a chunk of the bulk load or from a
+     * transaction that committed just before the delete, is ignored.
+     */
+    private final LinkedHashMap<Long, Long> deletedIds = new LinkedHashMap<>();
+
+    private final long tombstoneRetentionNanos;
+
+    private boolean bulkLoading = true;
+
+    private long bulkLoadedAt;
+
+    /**
+     * @param tombstoneRetention How long the ID of a deleted Foo is kept after
+     * the bulk load and after the deletion, longer than a change of the Foo
+     * that was committed before the deletion can take to arrive
+     */
+    public FooSearchIndex(Duration tombstoneRetention) {
+        this.tombstoneRetentionNanos = tombstoneRetention.toNanos();
+    }
+
+    /**
+     * Start the tombstone retention of the deleted Foos, which are kept until
+     * the bulk load has finished.
+     */
+    public void finishBulkLoad() {
+        lock.writeLock().lock();
+        try {
+            bulkLoading = false;
+            bulkLoadedAt = System.nanoTime();
+            pruneDeletedIds();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Index a Foo, unless a higher or the same version of it is indexed or it
+     * was deleted.
+     *
+     * @param foo The Foo with at least its ID, version and name
+     * @return True if the Foo was indexed
+     */
+    public boolean index(Foo foo) {
+        Document document = new Document(foo);
+        lock.writeLock().lock();
+        try {
+            pruneDeletedIds();
+            return add(document);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Index Foos, as with index(Foo), while holding the lock once.
+     *
+     * @param foos The Foos
+     * @return The number of Foos that were indexed
+     */
+    public int indexAll(Collection<Foo> foos) {
+        List<Document> batch = new ArrayList<>(foos.size());
+        foos.forEach(foo -> batch.add(new Document(foo)));
+        int count = 0;
+        lock.writeLock().lock();
+        try {
+            pruneDeletedIds();
+            for (Document document : batch) {
+                if (add(document)) {
+                    count++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return count;
+    }
+
+    /**
+     * Remove a deleted Foo, which is not indexed again for the tombstone
+     * retention.
+     *
+     * @param id The ID of the Foo
+     */
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            pruneDeletedIds();
+            // Moved to the end, after the IDs that were deleted before
+            deletedIds.remove(id);
+            deletedIds.put(id, System.nanoTime());
+            Document document = documents.remove(id);
+            if (document != null) {
+                removePostings(document);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Index a Foo whatever version of it is indexed, unless it was deleted
+     * within the tombstone retention.
+     *
+     * @param foo The Foo as it is in the database
+     */
+    public void replace(Foo foo) {
+        Document document = new Document(foo);
+        lock.writeLock().lock();
+        try {
+            pruneDeletedIds();
+            if (deletedIds.containsKey(foo.getId())) {
+                return;
+            }
+            Document existing = documents.remove(foo.getId());
+            if (existing != null) {
+                removePostings(existing);
+            }
+            add(document);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Check whether a Foo is indexed.
+     *
+     * @param id The ID of the Foo
+     * @return True if a version of the Foo is indexed
+     */
+    public boolean contains(long id) {
+        lock.readLock().lock();
+        try {
+            return documents.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Check that a Foo is indexed with its version, name and the words of its
+     * description.
+     *
+     * @param foo The Foo as it is in the database
+     * @return True if the Foo is indexed as it is
+     */
+    public boolean isIndexed(Foo foo) {
+        Document expected = new Document(foo);
+        lock.readLock().lock();
+        try {
+            Document document = documents.get(foo.getId());
+            return document != null
+                    && document.version == expected.version
+                    && Objects.equals(document.name, expected.name)
+                    && Arrays.equals(document.nameTerms, expected.nameTerms)
+                    && Arrays.equals(document.descriptionTerms, expected.descriptionTerms);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the IDs of the indexed Foos.
+     *
+     * @return The sorted IDs
+     */
+    public long[] getIds() {
+        lock.readLock().lock();
+        try {
+            return documents.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of indexed Foos.
+     *
+     * @return The number of Foos
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of deleted Foos whose IDs are kept.
+     *
+     * @return The number of IDs
+     */
+    public int getDeletedIdCount() {
+        lock.readLock().lock();
+        try {
+            return deletedIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of distinct indexed words.
+     *
+     * @return The number of words
+     */
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the Foos that contain every word of a query in their name or
+     * description, ranked by their score, name and ID.
+     * <p>
+     * The score of a Foo is the sum of the scores of the words of the query: 4
+     * when the name contains the word, 3 when the name contains a word that
+     * starts with it, 2 and 1 when only the description does.
+     *
+     * @param query The query
+     * @param limit The maximum number of Foos to return
+     * @param after The last Foo of the previous page, or null for the first
+     * page
+     * @return The ranked Foos
+     */
+    public List<Hit> search(Query query, int limit, Hit after) {
+        lock.readLock().lock();
+        try {
+            List<QueryTerm> terms = new ArrayList<>(query.terms.size());
+            QueryTerm rarest = null;
+            for (int i = 0; i < query.terms.size(); i++) {
+                QueryTerm term = new QueryTerm(query.terms.get(i), query.prefixes[i]);
+                if (term.count == 0) {
+                    return Collections.emptyList();
+                }
+                if (rarest == null || term.count < rarest.count) {
+                    rarest = term;
+                }
+                terms.add(term);
+            }
+            PriorityQueue<Hit> top = new PriorityQueue<>(limit + 1, RANKING.reversed());
+            Document[] candidates = rarest.getCandidates();
+            int candidateCount = rarest.getCandidateCount(candidates);
+            for (int i = 0; i < candidateCount; i++) {
+                Document document = candidates[i];
+                int score = 0;
+                for (QueryTerm term : terms) {
+                    int termScore = document.score(term.term, term.prefix);
+                    if (termScore == 0) {
+                        score = 0;
+                        break;
+                    }
+                    score += termScore;
+                }
+                if (score == 0) {
+                    continue;
+                }
+                Hit hit = new Hit(document.id, score, document.name);
+                if (after != null && RANKING.compare(hit, after) <= 0) {
+                    continue;
+                }
+                if (top.size() < limit) {
+                    top.add(hit);
+                } else if (RANKING.compare(hit, top.peek()) < 0) {
+                    top.poll();
+                    top.add(hit);
+                }
+            }
+            List<Hit> hits = new ArrayList<>(top);
+            hits.sort(RANKING);
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forget the IDs of the Foos that were deleted more than the tombstone
+     * retention ago, or before the end of the bulk load if that is later.
+     */
+    private void pruneDeletedIds() {
+        if (bulkLoading) {
+            return;
+        }
+        long now = System.nanoTime();
+        Iterator<Long> deletedAt = deletedIds.values().iterator();
+        while (deletedAt.hasNext()) {
+            long retainedFrom = deletedAt.next();
+            if (retainedFrom - bulkLoadedAt < 0) {
+                retainedFrom = bulkLoadedAt;
+            }
+            if (now - retainedFrom < tombstoneRetentionNanos) {
+                return;
+            }
+            deletedAt.remove();
+        }
+    }
+
+    private boolean add(Document document) {
+        if (deletedIds.containsKey(document.id)) {
+            return false;
+        }
+        Document existing = documents.get(document.id);
+        if (existing != null) {
+            if (existing.version >= document.version) {
+                return false;
+            }
+            removePostings(existing);
+        }
+        // The words of the document are replaced by the instances in the
+        // index, so that every distinct word is kept in memory once
+        for (int i = 0; i < document.nameTerms.length; i++) {
+            Postings termPostings = postings.computeIfAbsent(document.nameTerms[i], Postings::new);
+            termPostings.add(document);
+            document.nameTerms[i] = termPostings.term;
+        }
+        for (int i = 0; i < document.descriptionTerms.length; i++) {
+            Postings termPostings = postings.computeIfAbsent(document.descriptionTerms[i], Postings::new);
+            termPostings.add(document);
+            document.descriptionTerms[i] = termPostings.term;
+        }
+        documents.put(document.id, document);
+        return true;
+    }
+
+    private void removePostings(Document document) {
+        for (String term : document.nameTerms) {
+            removePosting(term, document.id);
+        }
+        for (String term : document.descriptionTerms) {
+            removePosting(term, document.id);
+        }
+    }
+
+    private void removePosting(String term, long id) {
+        Postings termPostings = postings.get(term);
+        if (termPostings != null && termPostings.remove(id) && termPostings.size == 0) {
+            postings.remove(term);
+        }
+    }
+
+    /**
+     * Split a text into its distinct lower cased words without accents.
+     *
+     * @param text The text, or null
+     * @return The sorted words
+     */
+    static String[] tokenize(String text) {
+        List<String> terms = terms(text);
+        if (terms.isEmpty()) {
+            return NO_TERMS;
+        }
+        return new TreeSet<>(terms).toArray(NO_TERMS);
+    }
+
+    private static List<String> terms(String text) {
+        if (text == null || text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD);
+        List<String> terms = new ArrayList<>();
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                term.append(Character.toLowerCase(c));
+            } else if (term.length() > 0) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+        }
+        if (term.length() > 0) {
+            terms.add(term.toString());
+        }
+        return terms;
+    }
+
+    /**
+     * A parsed search query.
+     */
+    public static final class Query {
+
+        private final List<String> terms;
+
+        private final boolean[] prefixes;
+
+        private Query(List<String> terms, boolean[] prefixes) {
+            this.terms = terms;
+            this.prefixes = prefixes;
+        }
+
+        /**
+         * Parse a search query. The query is split into words like the names
+         * and descriptions, a word followed by * matches the words that start
+         * with it.
+         *
+         * @param query The query
+         * @return The parsed query
+         * @throws IllegalArgumentException If the query has no words or more
+         * than MAX_QUERY_TERMS
+         */
+        public static Query parse(String query) {
+            Map<String, Boolean> terms = new LinkedHashMap<>();
+            for (String part : query.trim().split("\\s+")) {
+                List<String> partTerms = terms(part);
+                for (int i = 0; i < partTerms.size(); i++) {
+                    boolean prefix = i == partTerms.size() - 1 && part.endsWith("*");
+                    // A word that is searched for both in full and as a prefix must match in full
+                    terms.merge(partTerms.get(i), prefix, Boolean::logicalAnd);
+                }
+            }
+            if (terms.isEmpty()) {
+                throw new IllegalArgumentException("The query must contain a word");
+            }
+            if (terms.size() > MAX_QUERY_TERMS) {
+                throw new IllegalArgumentException("The query can not contain more than " + MAX_QUERY_TERMS + " words");
+            }
+            boolean[] prefixes = new boolean[terms.size()];
+            int i = 0;
+            for (Boolean prefix : terms.values()) {
+                prefixes[i++] = prefix;
+            }
+            return new Query(new ArrayList<>(terms.keySet()), prefixes);
+        }
+    }
+
+    /**
+     * A Foo that matches a query, with its score.
+     */
+    // Lombok annotations
+    @Value
+    public static class Hit {
+
+        private final long id;
+        private final int score;
+        private final String name;
+    }
+
+    /**
+     * A word of a query with the postings of the indexed words it matches.
+     */
+    private class QueryTerm {
+
+        private final String term;
+
+        private final boolean prefix;
+
+        private final List<Postings> matches;
+
+        /**
+         * The number of Foos that contain the word, or at most that number
+         * for a prefix of several words.
+         */
+        private final int count;
+
+        QueryTerm(String term, boolean prefix) {
+            this.term = term;
+            this.prefix = prefix;
+            if (prefix) {
+                this.matches = new ArrayList<>(postings.subMap(term, true, term + Character.MAX_VALUE, false).values());
+            } else {
+                Postings termPostings = postings.get(term);
+                this.matches = termPostings == null ? Collections.emptyList() : Collections.singletonList(termPostings);
+            }
+            this.count = matches.stream().mapToInt(termPostings -> termPostings.size).sum();
+        }
+
+        /**
+         * Get the Foos that contain the word. The array of a single indexed
+         * word is not copied, so it may be longer than the number of Foos.
+         */
+        Document[] getCandidates() {
+            if (matches.size() == 1) {
+                return matches.get(0).documents;
+            }
+            Document[] documents = new Document[count];
+            int length = 0;
+            for (Postings termPostings : matches) {
+                System.arraycopy(termPostings.documents, 0, documents, length, termPostings.size);
+                length += termPostings.size;
+            }
+            Arrays.sort(documents, BY_ID);
+            int distinct = 0;
+            for (int i = 0; i < documents.length; i++) {
+                if (i == 0 || documents[i] != documents[distinct - 1]) {
+                    documents[distinct++] = documents[i];
+                }
+            }
+            return distinct == documents.length ? documents : Arrays.copyOf(documents, distinct);
+        }
+
+        int getCandidateCount(Document[] candidates) {
+            return matches.size() == 1 ? matches.get(0).size : candidates.length;
+        }
+    }
+
+    /**
+     * The indexed words of a Foo.
+     */
+    private static class Document {
+
+        private final long id;
+
+        private final int version;
+
+        private final String name;
+
+        private final String[] nameTerms;
+
+        private final String[] descriptionTerms;
+
+        Document(Foo foo) {
+            this.id = foo.getId();
+            this.version = foo.getVersion();
+            this.name = foo.getName();
+            this.nameTerms = tokenize(foo.getName());
+            this.descriptionTerms = tokenize(foo.getDescription());
+        }
+
+        int score(String term, boolean prefix) {
+            int nameMatch = match(nameTerms, term, prefix);
+            if (nameMatch > 0) {
+                return nameMatch + 2;
+            }
+            return match(descriptionTerms, term, prefix);
+        }
+
+        /**
+         * @return 2 if the words contain the word, 1 if one of them starts
+         * with the prefix, otherwise 0
+         */
+        private static int match(String[] terms, String term, boolean prefix) {
+            int index = Arrays.binarySearch(terms, term);
+            if (index >= 0) {
+                return 2;
+            }
+            int insertionPoint = -index - 1;
+            return prefix && insertionPoint < terms.length && terms[insertionPoint].startsWith(term) ? 1 : 0;
+        }
+    }
+
+    /**
+     * The Foos that contain a word, sorted by ID. New Foos have the highest
+     * IDs, so they are appended.
+     */
+    private static class Postings {
+
+        private final String term;
+
+        private Document[] documents = new Document[1];
+
+        private int size;
+
+        Postings(String term) {
+            this.term = term;
+        }
+
+        void add(Document document) {
+            if (size == 0 || documents[size - 1].id < document.id) {
+                ensureCapacity();
+                documents[size++] = document;
+                return;
+            }
+            int index = indexOf(document.id);
+            if (index >= 0) {
+                documents[index] = document;
+                return;
+            }
+            int insertionPoint = -index - 1;
+            ensureCapacity();
+            System.arraycopy(documents, insertionPoint, documents, insertionPoint + 1, size - insertionPoint);
+            documents[insertionPoint] = document;
+            size++;
+        }
+
+        boolean remove(long id) {
+            int index = indexOf(id);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(documents, index + 1, documents, index, size - index - 1);
+            documents[--size] = null;
+            return true;
+        }
+
+        /**
+         * @return The index of the Foo, or (-(insertion point) - 1) like
+         * Arrays.binarySearch
+         */
+        private int indexOf(long id) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long middleId = documents[middle].id;
+                if (middleId < id) {
+                    low = middle + 1;
+                } else if (middleId > id) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        private void ensureCapacity() {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size + (size >> 1) + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright 2020 <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.example.foo;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManagerFactory;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the FooSearchIndex in sync with the Foos in the database.
+ * <p>
+ * At startup the Foos are loaded in chunks of IDs by loadThreads threads in
+ * the background, and the index is not searched until they are loaded. Every
+ * committed insert, update and delete of a Foo is applied to the index by
+ * Hibernate post-commit event listeners, also while the Foos are loaded, so
+ * changes made with SQL outside the application are only found by the
+ * consistency check.
+ *
+ * @author <a href="mailto:willy.gadney@binarypaper.net">Willy Gadney</a>
+ */
+// Spring annotations
+@Component
+@Lazy(false)
+// Lombok annotations
+@Slf4j
+public class FooSearchIndexer implements PostCommitInsertEventListener, PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int LOAD_CHUNK_SIZE = 10000;
+
+    private static final int CHECK_PAGE_SIZE = 1000;
+
+    private static final int MAX_REPORTED_IDS = 100;
+
+    private static final long LOAD_RETRY_DELAY_MILLIS = 30000;
+
+    private final SessionFactoryImplementor sessionFactory;
+
+    private final String entityName;
+
+    private final int nameIndex;
+
+    private final int descriptionIndex;
+
+    private final int versionIndex;
+
+    private final int loadThreads;
+
+    private final FooSearchIndex index;
+
+    private final Thread loader;
+
+    private volatile boolean loaded;
+
+    public FooSearchIndexer(EntityManagerFactory entityManagerFactory,
+            @Value("${application.search.load-threads}") int loadThreads,
+            @Value("${application.search.tombstone-retention}") Duration tombstoneRetention,
+            MeterRegistry meterRegistry) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        EntityPersister persister = sessionFactory.getMetamodel().entityPersister(Foo.class);
+        this.entityName = persister.getEntityName();
+        this.nameIndex = persister.getEntityMetamodel().getPropertyIndex("name");
+        this.descriptionIndex = persister.getEntityMetamodel().getPropertyIndex("description");
+        this.versionIndex = persister.getVersionProperty();
+        this.loadThreads = loadThreads;
+        this.index = new FooSearchIndex(tombstoneRetention);
+        Gauge.builder("foo.search.documents", index, FooSearchIndex::size)
+                .description("The number of Foos in the search index")
+                .register(meterRegistry);
+        Gauge.builder("foo.search.terms", index, FooSearchIndex::getTermCount)
+                .description("The number of distinct words in the search index")
+                .register(meterRegistry);
+        Gauge.builder("foo.search.tombstones", index, FooSearchIndex::getDeletedIdCount)
+                .description("The number of deleted Foos that are kept out of the search index")
+                .register(meterRegistry);
+        this.loader = new Thread(this::load, "foo-search-loader");
+        this.loader.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void start() {
+        EventListenerRegistry eventListenerRegistry = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+        eventListenerRegistry.appendListeners(EventType.POST_COMMIT_INSERT, this);
+        eventListenerRegistry.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+        eventListenerRegistry.appendListeners(EventType.POST_COMMIT_DELETE, this);
+        loader.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        loader.interrupt();
+        loader.join();
+    }
+
+    /**
+     * Get the search index, which is only complete once it is loaded.
+     *
+     * @return The search index
+     */
+    public FooSearchIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Check whether the Foos that were in the database at startup have been
+     * loaded into the search index.
+     *
+     * @return True if the search index is loaded
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (isFoo(event.getPersister())) {
+            index.index(toFoo(event.getId(), event.getState()));
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (isFoo(event.getPersister())) {
+            index.index(toFoo(event.getId(), event.getState()));
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (isFoo(event.getPersister())) {
+            index.remove((Long) event.getId());
+        }
+    }
+
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+        // The Foo was never in the database
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+        // The indexed version of the Foo is still the one in the database
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+        // The Foo is still in the database and in the index
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return isFoo(persister);
+    }
+
+    /**
+     * @deprecated Still abstract in PostActionEventListener, see
+     * requiresPostCommitHandling
+     */
+    @Override
+    @Deprecated
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return requiresPostCommitHandling(persister);
+    }
+
+    private boolean isFoo(EntityPersister persister) {
+        return persister.getEntityName().equals(entityName);
+    }
+
+    private Foo toFoo(Serializable id, Object[] state) {
+        Foo foo = new Foo();
+        foo.setId((Long) id);
+        foo.setVersion((Integer) state[versionIndex]);
+        foo.setName((String) state[nameIndex]);
+        foo.setDescription((String) state[descriptionIndex]);
+        return foo;
+    }
+
+    /**
+     * Load all Foos into the index, retrying until it succeeds.
+     */
+    private void load() {
+        while (!loaded) {
+            try {
+                long start = System.nanoTime();
+                List<Integer> counts = mapChunks(index::indexAll);
+                index.finishBulkLoad();
+                loaded = true;
+                log.info("Loaded {} Foos into the search index in {} ms with {} threads",
+                        counts.stream().mapToInt(Integer::intValue).sum(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), loadThreads);
+            } catch (InterruptedException ex) {
+                return;
+            } catch (ExecutionException | RuntimeException ex) {
+                log.error("Could not load the Foos into the search index, retrying in " + LOAD_RETRY_DELAY_MILLIS + " ms", ex);
+                try {
+                    Thread.sleep(LOAD_RETRY_DELAY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare the search index with the Foos in the database.
+     * <p>
+     * The Foos are read in chunks of IDs in parallel, like when the index is
+     * loaded. A Foo that changes while it is compared can differ from the
+     * index for a moment, so the Foos that differ are read and compared again
+     * before they are reported.
+     *
+     * @param repair True to index the missing and stale Foos, and to remove
+     * the Foos that are not in the database
+     * @return The result of the check
+     * @throws InterruptedException If the check was interrupted
+     * @throws ExecutionException If the Foos could not be read
+     */
+    public CheckResult check(boolean repair) throws InterruptedException, ExecutionException {
+        long[] indexedIds = index.getIds();
+        List<ChunkCheck> chunkChecks = mapChunks(foos -> {
+            long[] ids = new long[foos.size()];
+            List<Long> differentIds = new ArrayList<>();
+            for (int i = 0; i < ids.length; i++) {
+                Foo foo = foos.get(i);
+                ids[i] = foo.getId();
+                if (!index.isIndexed(foo)) {
+                    differentIds.add(foo.getId());
+                }
+            }
+            return new ChunkCheck(ids, differentIds);
+        });
+        long[] databaseIds = chunkChecks.stream().flatMapToLong(chunkCheck -> Arrays.stream(chunkCheck.ids)).toArray();
+        List<Long> differentIds = new ArrayList<>();
+        chunkChecks.forEach(chunkCheck -> differentIds.addAll(chunkCheck.differentIds));
+        for (long id : indexedIds) {
+            if (Arrays.binarySearch(databaseIds, id) < 0) {
+                differentIds.add(id);
+            }
+        }
+        List<Long> missingIds = new ArrayList<>();
+        List<Long> staleIds = new ArrayList<>();
+        List<Long> extraIds = new ArrayList<>();
+        for (int from = 0; from < differentIds.size(); from += CHECK_PAGE_SIZE) {
+            List<Long> ids = differentIds.subList(from, Math.min(from + CHECK_PAGE_SIZE, differentIds.size()));
+            Map<Long, Foo> foos = new HashMap<>();
+            this.<Foo>read(session -> session.getNamedQuery("Foo.findByIds")
+                    .setParameterList("ids", ids)
+                    .list())
+                    .forEach(foo -> foos.put(foo.getId(), foo));
+            for (Long id : ids) {
+                Foo foo = foos.get(id);
+                boolean indexed = index.contains(id);
+                if (foo == null) {
+                    if (indexed) {
+                        extraIds.add(id);
+                        if (repair) {
+                            index.remove(id);
+                        }
+                    }
+                } else if (!index.isIndexed(foo)) {
+                    (indexed ? staleIds : missingIds).add(id);
+                    if (repair) {
+                        index.replace(foo);
+                    }
+                }
+            }
+        }
+        CheckResult result = new CheckResult(index.size(), databaseIds.length, missingIds.size(), staleIds.size(),
+                extraIds.size(), firstIds(missingIds), firstIds(staleIds), firstIds(extraIds), repair);
+        if (!result.isConsistent()) {
+            log.warn("The search index differs from the database: {}", result);
+        }
+        return result;
+    }
+
+    private static List<Long> firstIds(List<Long> ids) {
+        return new ArrayList<>(ids.subList(0, Math.min(ids.size(), MAX_REPORTED_IDS)));
+    }
+
+    /**
+     * Read all Foos in chunks of IDs, in parallel, and map every chunk.
+     *
+     * @param mapper The function applied to the Foos of every chunk, sorted
+     * by ID, on the thread that read them
+     * @return The results of the chunks in the order of their IDs
+     */
+    private <R> List<R> mapChunks(Function<List<Foo>, R> mapper) throws InterruptedException, ExecutionException {
+        Object[] range = (Object[]) read(session -> session.getNamedQuery("Foo.findIdRange").list()).get(0);
+        if (range[0] == null) {
+            return new ArrayList<>();
+        }
+        long minId = (Long) range[0];
+        long maxId = (Long) range[1];
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(loadThreads, runnable -> {
+            Thread thread = new Thread(runnable, "foo-search-loader-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<R>> futures = new ArrayList<>();
+            for (long fromId = minId; fromId <= maxId; fromId += LOAD_CHUNK_SIZE) {
+                long chunkFromId = fromId;
+                long chunkToId = Math.min(maxId, fromId + LOAD_CHUNK_SIZE - 1);
+                futures.add(executor.submit(() -> mapper.apply(read(session -> session.getNamedQuery("Foo.findByIdRange")
+                        .setParameter("fromId", chunkFromId)
+                        .setParameter("toId", chunkToId)
+                        .list()))));
+            }
+            List<R> results = new ArrayList<>(futures.size());
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Run a query in a read-only transaction of a stateless session, so that
+     * the Foos do not pass through the persistence context or the
+     * second-level cache.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> List<T> read(Function<StatelessSession, List<?>> query) {
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            Transaction transaction = session.beginTransaction();
+            try {
+                List<T> results = (List<T>) query.apply(session);
+                transaction.commit();
+                return results;
+            } catch (RuntimeException ex) {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw ex;
+            }
+        }
+    }
+
+    private static class ChunkCheck {
+
+        private final long[] ids;
+
+        private final List<Long> differentIds;
+
+        ChunkCheck(long[] ids, List<Long> differentIds) {
+            this.ids = ids;
+            this.differentIds = differentIds;
+        }
+    }
+
+    /**
+     * The differences between the search index and the database. At most
+     * MAX_REPORTED_IDS IDs of every kind are listed.
+     */
+    // Lombok annotations
+    @Data
+    public static class CheckResult {
+
+        private final int indexed;
+        private final int database;
+        private final int missing;
+        private final int stale;
+        private final int extra;
+        private final Collection<Long> missingIds;
+        private final Collection<Long> staleIds;
+        private final Collection<Long> extraIds;
+        private final boolean repaired;
+
+        public boolean isConsistent() {
+            return missing == 0 && stale == 0 && extra == 0;
+        }
+    }
+}
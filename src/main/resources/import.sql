@@ -0,0 +1,8 @@
+-- Indexes for the validity audit strategy. Point in time queries select the
+-- audit rows with REV <= ? AND (REVEND > ? OR REVEND IS NULL), and every
+-- change of an entity updates the REVEND of its previous audit row.
+CREATE INDEX IDX_FOO_AUD_REV_REVEND ON FOO_AUD (REV, REVEND);
+CREATE INDEX IDX_FOO_AUD_ID_REVEND ON FOO_AUD (ID, REVEND);
+-- Index for the audit archiver, which selects the audit rows that were
+-- superseded before its cutoff.
+CREATE INDEX IDX_FOO_AUD_REVEND_TSTMP ON FOO_AUD (REVEND_TSTMP);
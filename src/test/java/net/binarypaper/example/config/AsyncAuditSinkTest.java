@@ -0,0 +1,280 @@
+package net.binarypaper.example.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+import javax.persistence.EntityManager;
+import net.binarypaper.example.Application;
+import net.binarypaper.example.foo.Foo;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.FileSystemUtils;
+
+class AsyncAuditSinkTest {
+
+    private static final String DIRECTORY = "target/async-audit-sink-test";
+
+    private static final Path SPILL_FILE = Paths.get(DIRECTORY, "audit-spill.bin");
+
+    private static final Path REPLAY_FILE = Paths.get(DIRECTORY, "audit-spill.bin.replay");
+
+    private static final Path REPLAY_OFFSET_FILE = Paths.get(DIRECTORY, "audit-spill.bin.replay.offset");
+
+    private static final String DATABASE_URL = "jdbc:h2:file:./" + DIRECTORY + "/database";
+
+    private static final String[] SPILL_PROPERTIES = {
+        "application.audit.mode=async",
+        "application.audit.overflow=spill",
+        "application.audit.queue-capacity=2",
+        "application.audit.batch-size=2",
+        "application.audit.spill-file=" + DIRECTORY + "/audit-spill.bin",
+        "application.audit.shutdown-timeout=100ms"
+    };
+
+    @BeforeEach
+    void setUp() throws IOException {
+        FileSystemUtils.deleteRecursively(Paths.get(DIRECTORY));
+        User user = new User("auditor", "", AuthorityUtils.createAuthorityList("ROLE_admin"));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()));
+    }
+
+    @AfterEach
+    void clearSecurityContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void batchedWritesCreateTheSameAuditRowsAsSyncMode() throws InterruptedException {
+        Map<String, List<Map<String, Object>>> expected;
+        try (ConfigurableApplicationContext context = start("application.audit.mode=sync")) {
+            changeFoos(context);
+            expected = readAuditTables(context);
+        }
+        try (ConfigurableApplicationContext context = start("application.audit.mode=async")) {
+            // The transactions wait in the queue until the audit table is back,
+            // and are then written together
+            setAuditTableOnline(context, false);
+            changeFoos(context);
+            setAuditTableOnline(context, true);
+            await(() -> counter(context, "audit.sink.records.written") == 6);
+            assertThat(counter(context, "audit.sink.write.failures")).isPositive();
+            assertThat(readAuditTables(context)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void spilledAuditRecordsAreWrittenInCommitOrder() throws InterruptedException, IOException {
+        try (ConfigurableApplicationContext context = start(SPILL_PROPERTIES)) {
+            setAuditTableOnline(context, false);
+            List<Long> ids = addFoosWhileOffline(context);
+            // The first transaction is being written, the next two wait in the
+            // queue and the rest is spilled
+            Thread.sleep(10);
+            assertThat(gauge(context, "audit.sink.queue.depth")).isEqualTo(2);
+            assertThat(gauge(context, "audit.sink.queue.oldest.age")).isPositive();
+            assertThat(gauge(context, "audit.sink.spill.size")).isEqualTo(Files.size(SPILL_FILE)).isPositive();
+
+            setAuditTableOnline(context, true);
+            await(() -> gauge(context, "audit.sink.spill.size") == 0 && !Files.exists(SPILL_FILE));
+            assertThat(counter(context, "audit.sink.records.written")).isEqualTo(6);
+            assertThat(gauge(context, "audit.sink.queue.depth")).isZero();
+            assertThat(gauge(context, "audit.sink.queue.oldest.age")).isZero();
+            // Once the spill file has been replayed the queue is used again
+            ids.add(addFoo(context, "Foo 7"));
+            await(() -> counter(context, "audit.sink.records.written") == 7);
+            assertThat(Files.exists(SPILL_FILE)).isFalse();
+            assertThat(readAuditedFooIds(context)).isEqualTo(ids);
+        }
+    }
+
+    @Test
+    void unwrittenAuditRecordsAreReplayedAfterARestart() throws InterruptedException, IOException, SQLException {
+        String[] properties = Stream.concat(Arrays.stream(SPILL_PROPERTIES), Stream.of(
+                "spring.datasource.url=" + DATABASE_URL,
+                "spring.jpa.hibernate.ddl-auto=update")).toArray(String[]::new);
+        List<Long> ids;
+        try (ConfigurableApplicationContext context = start(properties)) {
+            setAuditTableOnline(context, false);
+            ids = addFoosWhileOffline(context);
+        }
+        // The transactions that were being written or queued at shutdown are
+        // replayed before the spilled ones
+        assertThat(REPLAY_FILE).exists();
+        assertThat(SPILL_FILE).exists();
+        // As if the first two transactions were written before a crash
+        Files.write(REPLAY_OFFSET_FILE, "2".getBytes(StandardCharsets.US_ASCII));
+        try (Connection connection = DriverManager.getConnection(DATABASE_URL, "sa", "");
+                Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE FOO_AUD_OFFLINE RENAME TO FOO_AUD");
+        }
+
+        try (ConfigurableApplicationContext context = start(properties)) {
+            await(() -> counter(context, "audit.sink.records.written") == 4 && !Files.exists(SPILL_FILE));
+            assertThat(REPLAY_FILE).doesNotExist();
+            assertThat(REPLAY_OFFSET_FILE).doesNotExist();
+            assertThat(readAuditedFooIds(context)).isEqualTo(ids.subList(2, 6));
+        }
+    }
+
+    private static ConfigurableApplicationContext start(String... properties) {
+        return new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .properties(
+                        "spring.main.banner-mode=off",
+                        "spring.datasource.generate-unique-name=true",
+                        // The JCache caches are shared with the contexts of the
+                        // other tests, which have Foos with the same IDs
+                        "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+                        "spring.jpa.properties.hibernate.cache.use_query_cache=false")
+                .run(Arrays.stream(properties).map(property -> "--" + property).toArray(String[]::new));
+    }
+
+    /**
+     * Add, change and delete Foos in 6 transactions, and in one transaction
+     * that leaves no audit data.
+     */
+    private static void changeFoos(ConfigurableApplicationContext context) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        EntityManager em = context.getBean(EntityManager.class);
+        List<Long> ids = transactionTemplate.execute(status -> {
+            List<Long> addedIds = new ArrayList<>();
+            for (int i = 1; i <= 3; i++) {
+                Foo foo = new Foo(null, "Foo " + i);
+                foo.setDescription("Description " + i);
+                em.persist(foo);
+                addedIds.add(foo.getId());
+            }
+            return addedIds;
+        });
+        transactionTemplate.executeWithoutResult(status -> {
+            Foo foo = em.find(Foo.class, ids.get(0));
+            foo.setName("Renamed");
+            em.flush();
+            foo.setDescription("Described");
+        });
+        transactionTemplate.executeWithoutResult(status -> {
+            // The old state of a detached Foo is not known to the session
+            Foo foo = new Foo(ids.get(1), "Detached");
+            foo.setVersion(0);
+            foo.setDescription("Description 2");
+            em.unwrap(Session.class).update(foo);
+        });
+        transactionTemplate.executeWithoutResult(status -> {
+            Foo foo = new Foo(null, "Added");
+            em.persist(foo);
+            em.flush();
+            foo.setName("Added and changed");
+        });
+        transactionTemplate.executeWithoutResult(status -> {
+            Foo foo = new Foo(null, "Short-lived");
+            em.persist(foo);
+            em.flush();
+            em.remove(foo);
+        });
+        transactionTemplate.executeWithoutResult(status -> em.remove(em.find(Foo.class, ids.get(2))));
+        transactionTemplate.executeWithoutResult(status -> {
+            em.find(Foo.class, ids.get(0)).setName("Renamed again");
+            em.find(Foo.class, ids.get(1)).setDescription(null);
+        });
+    }
+
+    /**
+     * Add 6 Foos in separate transactions, the first one is taken by the
+     * writer before the others are committed.
+     */
+    private static List<Long> addFoosWhileOffline(ConfigurableApplicationContext context) throws InterruptedException {
+        List<Long> ids = new ArrayList<>();
+        ids.add(addFoo(context, "Foo 1"));
+        await(() -> counter(context, "audit.sink.write.failures") > 0);
+        for (int i = 2; i <= 6; i++) {
+            ids.add(addFoo(context, "Foo " + i));
+        }
+        return ids;
+    }
+
+    private static Long addFoo(ConfigurableApplicationContext context, String name) {
+        EntityManager em = context.getBean(EntityManager.class);
+        return new TransactionTemplate(context.getBean(PlatformTransactionManager.class)).execute(status -> {
+            Foo foo = new Foo(null, name);
+            em.persist(foo);
+            return foo.getId();
+        });
+    }
+
+    private static void setAuditTableOnline(ConfigurableApplicationContext context, boolean online) {
+        context.getBean(JdbcTemplate.class).execute(online
+                ? "ALTER TABLE FOO_AUD_OFFLINE RENAME TO FOO_AUD"
+                : "ALTER TABLE FOO_AUD RENAME TO FOO_AUD_OFFLINE");
+    }
+
+    /**
+     * The revision numbers are replaced by their position, as the failed
+     * writes use up revision numbers.
+     */
+    private static Map<String, List<Map<String, Object>>> readAuditTables(ConfigurableApplicationContext context) {
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        Map<String, List<Map<String, Object>>> tables = new LinkedHashMap<>();
+        tables.put("AUDIT_REVISION", jdbcTemplate.queryForList(
+                "SELECT " + position("A.REV") + " AS REV, A.USER_NAME FROM AUDIT_REVISION AS A ORDER BY A.REV"));
+        tables.put("FOO_AUD", jdbcTemplate.queryForList("SELECT A.ID, " + position("A.REV") + " AS REV, A.REVTYPE, "
+                + position("A.REVEND") + " AS REVEND, A.REVEND_TSTMP IS NULL AS CURRENT,"
+                + " A.NAME, A.NAME_MOD, A.DESCRIPTION, A.DESCRIPTION_MOD FROM FOO_AUD AS A ORDER BY A.REV, A.ID"));
+        tables.put("AUDIT_SUMMARY", jdbcTemplate.queryForList("SELECT S.ENTITY_NAME, S.ENTITY_ID, S.REVISION_COUNT, "
+                + position("S.LAST_REV") + " AS LAST_REV, S.LAST_REV_TYPE, S.LAST_USER_NAME"
+                + " FROM AUDIT_SUMMARY AS S ORDER BY S.ENTITY_NAME, S.ENTITY_ID"));
+        return tables;
+    }
+
+    private static String position(String rev) {
+        return "(SELECT COUNT(*) FROM AUDIT_REVISION AS R WHERE R.REV <= " + rev + ")";
+    }
+
+    private static List<Long> readAuditedFooIds(ConfigurableApplicationContext context) {
+        return context.getBean(JdbcTemplate.class).queryForList("SELECT ID FROM FOO_AUD ORDER BY REV", Long.class);
+    }
+
+    private static double gauge(ConfigurableApplicationContext context, String name) {
+        return context.getBean(MeterRegistry.class).get(name).gauge().value();
+    }
+
+    private static double counter(ConfigurableApplicationContext context, String name) {
+        return context.getBean(MeterRegistry.class).get(name).counter().count();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 3000 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
@@ -0,0 +1,170 @@
+package net.binarypaper.example.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.persistence.EntityManager;
+import net.binarypaper.example.foo.Foo;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.FileSystemUtils;
+
+@SpringBootTest(properties = {
+    "spring.datasource.generate-unique-name=true",
+    "application.audit.archive.enabled=true",
+    "application.audit.archive.directory=" + AuditArchiveTest.ARCHIVE_DIRECTORY,
+    "application.audit.archive.interval=1d",
+    "application.audit.archive.batch-size=4",
+    "application.audit.archive.max-segments=2"
+})
+@WithMockUser(username = "archiver")
+class AuditArchiveTest {
+
+    static final String ARCHIVE_DIRECTORY = "target/audit-archive-test";
+
+    @Autowired
+    private EntityManager em;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private AuditRevisionHelperRegistry auditRevisionHelperRegistry;
+
+    @Autowired
+    private AuditArchive auditArchive;
+
+    @Autowired
+    private AuditArchiver auditArchiver;
+
+    @BeforeAll
+    static void deleteArchive() throws IOException {
+        FileSystemUtils.deleteRecursively(Paths.get(ARCHIVE_DIRECTORY));
+    }
+
+    @Test
+    void revisionsAreIdenticalBeforeAndAfterArchival() throws IOException {
+        List<Long> ids = createFoos(3);
+        updateFoos(ids, 4);
+        deleteFoo(ids.get(1));
+        Map<String, Object> history = readHistory(ids);
+
+        assertThat(auditArchiver.archive(Instant.now().plusSeconds(60))).isEqualTo(13);
+        // Only the latest audit row of every Foo is kept
+        assertThat(countAuditRows()).isEqualTo(3);
+        assertThat(auditArchive.getSegmentCount(Foo.class.getName())).isEqualTo(1);
+        assertThat(readHistory(ids)).isEqualTo(history);
+
+        updateFoos(Arrays.asList(ids.get(0), ids.get(2)), 3);
+        history = readHistory(ids);
+
+        assertThat(auditArchiver.archive(Instant.now().plusSeconds(60))).isEqualTo(6);
+        assertThat(countAuditRows()).isEqualTo(3);
+        assertThat(auditArchive.getSegmentCount(Foo.class.getName())).isEqualTo(1);
+        assertThat(readHistory(ids)).isEqualTo(history);
+    }
+
+    private List<Long> createFoos(int count) {
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                Foo foo = new Foo();
+                foo.setName("name " + i);
+                foo.setDescription("description " + i);
+                em.persist(foo);
+                ids.add(foo.getId());
+            }
+            return ids;
+        });
+    }
+
+    private void updateFoos(List<Long> ids, int times) {
+        for (int i = 0; i < times; i++) {
+            int change = i;
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                for (Long id : ids) {
+                    Foo foo = em.find(Foo.class, id);
+                    // Alternate the changed property, so that the modified flags differ per revision
+                    if (change % 2 == 0) {
+                        foo.setName(foo.getName() + " " + change);
+                    } else {
+                        foo.setDescription(foo.getDescription() + " " + change);
+                    }
+                }
+            });
+        }
+    }
+
+    private void deleteFoo(Long id) {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> em.remove(em.find(Foo.class, id)));
+    }
+
+    private long countAuditRows() {
+        return new TransactionTemplate(transactionManager).execute(status -> (Long) em
+                .createQuery("SELECT COUNT(a) FROM " + Foo.class.getName() + "_AUD AS a")
+                .getSingleResult());
+    }
+
+    /**
+     * Read the revisions of the Foos in every way the AuditRevisionHelper
+     * supports.
+     */
+    private Map<String, Object> readHistory(List<Long> ids) {
+        AuditRevisionHelper<Foo> helper = auditRevisionHelperRegistry.getAuditRevisionHelper(Foo.class);
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            Map<String, Object> history = new LinkedHashMap<>();
+            TreeSet<Long> revs = new TreeSet<>();
+            List<Long> timestamps = new ArrayList<>();
+            for (Long id : ids) {
+                List<Foo> revisions = helper.getAllAuditRevisions(em, id);
+                revisions.forEach(foo -> {
+                    revs.add(foo.getRevision().getRev());
+                    timestamps.add(foo.getRevision().getRevisionTimestamp());
+                });
+                Long lastRev = revisions.get(revisions.size() - 1).getRevision().getRev();
+                history.put("revisions " + id, revisions);
+                history.put("revisions page " + id, helper.getAuditRevisions(em, id, lastRev, 2, false));
+                history.put("changed revisions " + id, helper.getAuditRevisions(em, id, null, null, true, Arrays.asList("description")));
+                history.put("changes " + id, helper.getAuditRevisionChanges(em, id, null, null, false, null));
+                try (Stream<Foo> stream = helper.streamAuditRevisions(em, id, false, 2)) {
+                    history.put("stream " + id, stream.collect(Collectors.toList()));
+                }
+            }
+            try (Stream<Foo> stream = helper.streamAuditRevisions(em, ids, null, null, null, null, 2)) {
+                history.put("stream", stream.collect(Collectors.toList()));
+            }
+            try (Stream<Foo> stream = helper.streamAuditRevisions(em, ids, revs.first() + 1, revs.last() - 1, null, null, 2)) {
+                history.put("stream range", stream.collect(Collectors.toList()));
+            }
+            for (Long rev : revs) {
+                List<Foo> foos = helper.getAllEntitiesAsOf(em, rev);
+                foos.sort(Comparator.comparing(Foo::getId));
+                history.put("as of " + rev, foos);
+                for (Long id : ids) {
+                    history.put("as of " + rev + " " + id, helper.getEntityAsOf(em, id, rev));
+                }
+            }
+            for (Long timestamp : timestamps) {
+                history.put("revision at " + timestamp, helper.getRevisionNumberForDate(em, new Date(timestamp)));
+            }
+            return history;
+        });
+    }
+}
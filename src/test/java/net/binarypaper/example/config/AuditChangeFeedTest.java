@@ -0,0 +1,201 @@
+package net.binarypaper.example.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.persistence.EntityManager;
+import lombok.Value;
+import net.binarypaper.example.foo.Foo;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+    "spring.datasource.generate-unique-name=true",
+    // The JCache caches are shared with the contexts of the other tests, which
+    // have Foos with the same IDs in their own databases
+    "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+    "spring.jpa.properties.hibernate.cache.use_query_cache=false",
+    "application.audit.change-feed.dispatch-threads=1",
+    "application.audit.change-feed.send-timeout=1s"
+})
+@AutoConfigureMockMvc
+@WithMockUser(username = "subscriber", roles = "admin")
+class AuditChangeFeedTest {
+
+    private static final Pattern EVENT = Pattern.compile("id:(\\d+)\\ndata:\\{\"id\":(\\d+),\"rev\":(\\d+),");
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private EntityManager em;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private AuditChangeFeed auditChangeFeed;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @LocalServerPort
+    private int port;
+
+    @Test
+    void reconnectingClientsResumeAfterTheLastEventInCommitOrder() throws Exception {
+        // The first transaction is given its revision number first, and
+        // commits after the second transaction
+        CountDownLatch numbered = new CountDownLatch(1);
+        CountDownLatch committed = new CountDownLatch(1);
+        ExecutorService executor = new DelegatingSecurityContextExecutorService(Executors.newSingleThreadExecutor());
+        Future<Long> first = executor.submit(() -> new TransactionTemplate(transactionManager).execute(status -> {
+            Foo foo = new Foo(null, "Committed last");
+            em.persist(foo);
+            em.flush();
+            // Runs after the process of Envers, which writes the revision
+            em.unwrap(SessionImplementor.class).getActionQueue().registerProcess(
+                    (BeforeTransactionCompletionProcess) session -> {
+                        numbered.countDown();
+                        try {
+                            committed.await();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+            return foo.getId();
+        }));
+        numbered.await();
+        Long secondId = new TransactionTemplate(transactionManager).execute(status -> {
+            Foo foo = new Foo(null, "Committed first");
+            em.persist(foo);
+            return foo.getId();
+        });
+        committed.countDown();
+        Long firstId = first.get();
+        executor.shutdown();
+
+        // The first subscription starts at the first buffered revision after
+        // sinceRev
+        MvcResult subscription = subscribe("/foo/changes?sinceRev=0", null);
+        List<Event> events = awaitEvents(subscription, 2);
+        assertThat(events).extracting(Event::getFooId).containsExactly(secondId, firstId);
+        assertThat(events.get(0).getRev()).isGreaterThan(events.get(1).getRev());
+        assertThat(events.get(1).getId()).isGreaterThan(events.get(0).getId());
+
+        // A client that saw the higher revision still receives the lower one
+        MvcResult resumed = subscribe("/foo/changes", events.get(0).getId());
+        assertThat(awaitEvents(resumed, 1)).extracting(Event::getFooId).containsExactly(firstId);
+        // The Last-Event-ID of a reconnecting client takes precedence over the
+        // sinceRev of its first subscription
+        MvcResult reconnected = subscribe("/foo/changes?sinceRev=" + events.get(0).getRev(), events.get(0).getId());
+        assertThat(awaitEvents(reconnected, 1)).extracting(Event::getFooId).containsExactly(firstId);
+        // A Last-Event-ID that is not of this run of the application is reset
+        MvcResult unknown = subscribe("/foo/changes", 1L);
+        assertThat(awaitContent(unknown, "event:reset")).contains("event:reset");
+    }
+
+    @Test
+    // Leaves the buffer full of the published events
+    @DirtiesContext
+    void subscribersThatDoNotReadAreDropped() throws Exception {
+        Counter stalled = meterRegistry.get("audit.changes.stalled").counter();
+        double stalledBefore = stalled.count();
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(1024);
+            socket.connect(new InetSocketAddress("localhost", port));
+            String credentials = Base64.getEncoder().encodeToString("willy:willy".getBytes(StandardCharsets.US_ASCII));
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /foo/changes HTTP/1.1\r\nHost: localhost\r\nAccept: text/event-stream\r\n"
+                    + "Authorization: Basic " + credentials + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            // The client never reads, so sending blocks once the socket buffers
+            // are full, on the only dispatch thread
+            String username = String.join("", Collections.nCopies(1000, "x"));
+            List<AuditChangeEvent> events = new ArrayList<>();
+            for (long id = 1; id <= 100; id++) {
+                events.add(new AuditChangeEvent(Foo.class.getName(), id, 1, "MOD", username, 0));
+            }
+            for (int i = 0; i < 2000 && stalled.count() == stalledBefore; i++) {
+                auditChangeFeed.publish(events);
+                Thread.sleep(10);
+            }
+            assertThat(stalled.count()).isGreaterThan(stalledBefore);
+
+            // The other subscribers are still sent their events
+            MvcResult subscription = subscribe("/foo/changes", null);
+            auditChangeFeed.publish(Collections.singletonList(
+                    new AuditChangeEvent(Foo.class.getName(), 424242L, 2, "MOD", "reader", 0)));
+            assertThat(awaitContent(subscription, "\"id\":424242")).contains("\"id\":424242");
+        }
+    }
+
+    private MvcResult subscribe(String uri, Long lastEventId) throws Exception {
+        return mvc.perform(lastEventId != null ? get(uri).header("Last-Event-ID", lastEventId) : get(uri))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+    }
+
+    private static List<Event> awaitEvents(MvcResult subscription, int count)
+            throws InterruptedException, UnsupportedEncodingException {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 500 && events.size() < count; i++) {
+            Thread.sleep(10);
+            events.clear();
+            Matcher matcher = EVENT.matcher(subscription.getResponse().getContentAsString());
+            while (matcher.find()) {
+                events.add(new Event(Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)),
+                        Long.parseLong(matcher.group(3))));
+            }
+        }
+        return events;
+    }
+
+    private static String awaitContent(MvcResult subscription, String expected)
+            throws InterruptedException, UnsupportedEncodingException {
+        for (int i = 0; i < 500 && !subscription.getResponse().getContentAsString().contains(expected); i++) {
+            Thread.sleep(10);
+        }
+        return subscription.getResponse().getContentAsString();
+    }
+
+    @Value
+    private static class Event {
+
+        long id;
+        long fooId;
+        long rev;
+    }
+}
@@ -0,0 +1,103 @@
+package net.binarypaper.example.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import javax.persistence.EntityManager;
+import net.binarypaper.example.foo.Foo;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.FileSystemUtils;
+
+@SpringBootTest(properties = {
+    "spring.datasource.generate-unique-name=true",
+    // The JCache caches are shared with the contexts of the other tests, which
+    // have Foos with the same IDs in their own databases
+    "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+    "spring.jpa.properties.hibernate.cache.use_query_cache=false",
+    "application.audit.archive.enabled=true",
+    "application.audit.archive.directory=" + AuditSummaryTest.ARCHIVE_DIRECTORY,
+    "application.audit.archive.interval=1d"
+})
+@WithMockUser(username = "summarizer")
+class AuditSummaryTest {
+
+    static final String ARCHIVE_DIRECTORY = "target/audit-summary-test";
+
+    @Autowired
+    private EntityManager em;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private AuditSummaryService auditSummaryService;
+
+    @Autowired
+    private AuditArchiver auditArchiver;
+
+    @BeforeAll
+    static void deleteArchive() throws IOException {
+        FileSystemUtils.deleteRecursively(Paths.get(ARCHIVE_DIRECTORY));
+    }
+
+    @Test
+    void summariesAreMaintainedAndRebuiltIdentically() throws IOException {
+        List<Long> ids = new TransactionTemplate(transactionManager).execute(status -> {
+            List<Long> created = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Foo foo = new Foo();
+                foo.setName("name " + i);
+                em.persist(foo);
+                created.add(foo.getId());
+            }
+            return created;
+        });
+        for (int i = 0; i < 4; i++) {
+            int change = i;
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                Foo foo = em.find(Foo.class, ids.get(0));
+                foo.setName(foo.getName() + " " + change);
+                // Changed twice in the same revision, which is counted once
+                em.flush();
+                foo.setDescription("description " + change);
+            });
+        }
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> em.remove(em.find(Foo.class, ids.get(1))));
+
+        List<AuditSummary> summaries = readSummaries();
+        assertThat(summaries).extracting(AuditSummary::getEntityId).containsExactlyElementsOf(ids);
+        assertThat(summaries).extracting(AuditSummary::getRevisionCount).containsExactly(5L, 2L, 1L);
+        assertThat(summaries).extracting(AuditSummary::getLastRevisionType).containsExactly("MOD", "DEL", "ADD");
+        assertThat(summaries).extracting(AuditSummary::getLastUsername).containsOnly("summarizer");
+
+        assertThat(auditSummaryService.rebuild()).isEqualTo(3);
+        assertThat(readSummaries()).isEqualTo(summaries);
+
+        // The archived revisions are still counted by the rebuild
+        assertThat(auditArchiver.archive(Instant.now().plusSeconds(60))).isEqualTo(5);
+        assertThat(auditSummaryService.rebuild()).isEqualTo(3);
+        assertThat(readSummaries()).isEqualTo(summaries);
+
+        List<Foo> foos = new TransactionTemplate(transactionManager).execute(status -> em
+                .createNamedQuery("Foo.listAllWithSummary", Foo.class)
+                .setParameter("entityName", Foo.class.getName())
+                .getResultList());
+        assertThat(foos).extracting(Foo::getSummary).containsExactly(summaries.get(0), summaries.get(2));
+    }
+
+    private List<AuditSummary> readSummaries() {
+        return new TransactionTemplate(transactionManager).execute(status -> em
+                .createQuery("SELECT s FROM AuditSummary AS s ORDER BY s.entityId", AuditSummary.class)
+                .getResultList());
+    }
+}
@@ -0,0 +1,51 @@
+package net.binarypaper.example.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import net.binarypaper.example.foo.Foo;
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.jcache.internal.JCacheRegionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SpringBootTest
+class HibernateCacheTest {
+
+    @Autowired
+    private EntityManagerFactory emf;
+
+    @Autowired
+    private EntityManager em;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void entityAndQueryCachesAreEnabled() {
+        SessionFactoryImplementor sessionFactory = emf.unwrap(SessionFactoryImplementor.class);
+        SessionFactoryOptions options = sessionFactory.getSessionFactoryOptions();
+        assertThat(options.isSecondLevelCacheEnabled()).isTrue();
+        assertThat(options.isQueryCacheEnabled()).isTrue();
+        assertThat(sessionFactory.getCache().getRegionFactory()).isInstanceOf(JCacheRegionFactory.class);
+
+        // The caches are shared with the contexts of the other tests
+        sessionFactory.getCache().evictAll();
+        sessionFactory.getCache().evictQueryRegions();
+        Statistics statistics = sessionFactory.getStatistics();
+        long hits = statistics.getQueryCacheHitCount();
+        for (int i = 0; i < 2; i++) {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> em
+                    .createNamedQuery("Foo.listAll", Foo.class)
+                    .getResultList());
+        }
+        assertThat(statistics.getQueryCacheHitCount()).isEqualTo(hits + 1);
+        assertThat(statistics.getQueryRegionStatistics("foo-queries").getHitCount()).isPositive();
+    }
+}
@@ -0,0 +1,131 @@
+package net.binarypaper.example.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.jayway.jsonpath.JsonPath;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+
+@SpringBootTest(properties = {
+    "spring.datasource.generate-unique-name=true",
+    // The JCache caches are shared with the contexts of the other tests, which
+    // have Foos with the same IDs in their own databases
+    "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+    "spring.jpa.properties.hibernate.cache.use_query_cache=false",
+    "application.execution.mode=platform",
+    "application.execution.pools.revisions.threads=1",
+    "application.execution.pools.revisions.queue-capacity=0"
+})
+@AutoConfigureMockMvc
+@WithMockUser(username = "offloader", roles = "admin")
+class OffloadingRequestMappingHandlerAdapterTest {
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private HandlerExecutors handlerExecutors;
+
+    @Test
+    void handlerMethodsRunOnThePoolAsTheUserOfTheRequest() throws Exception {
+        String json = perform(post("/foo").contentType(MediaType.APPLICATION_JSON).content("{\"name\":\"Offloaded\"}"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        long id = ((Number) JsonPath.read(json, "$.id")).longValue();
+
+        // The revision is written in the transaction on the pool thread
+        assertThat(jdbcTemplate.queryForObject("SELECT R.USER_NAME FROM AUDIT_REVISION AS R"
+                + " JOIN FOO_AUD AS A ON A.REV = R.REV WHERE A.ID = ?", String.class, id))
+                .isEqualTo("offloader");
+        perform(get("/foo/{id}/revisions", id))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].revision.user").value("offloader"));
+        // Exceptions are handled as if they were thrown on the container thread
+        perform(get("/foo/{id}", 999999)).andExpect(status().isNotFound());
+    }
+
+    @Test
+    void voidHandlerMethodsStreamTheResponseFromThePool() throws Exception {
+        String json = perform(post("/foo").contentType(MediaType.APPLICATION_JSON).content("{\"name\":\"Streamed\"}"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        long id = ((Number) JsonPath.read(json, "$.id")).longValue();
+
+        perform(get("/foo/stream").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$[?(@.id == " + id + ")].name").value("Streamed"));
+        perform(get("/foo/stream").accept("application/x-ndjson"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("\"name\":\"Streamed\"")));
+        String eTag = perform(get("/foo/{id}/revisions/stream", id))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        // A void handler method that answers 304 Not Modified
+        perform(get("/foo/{id}/revisions/stream", id).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    void requestsAreRejectedWhenThePoolIsFull() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        HandlerExecutors.Pool pool = handlerExecutors.getPool("revisions");
+        pool.execute(() -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        running.await();
+        try {
+            mvc.perform(get("/foo/{id}/revisions", 1))
+                    .andExpect(request().asyncNotStarted())
+                    .andExpect(status().isServiceUnavailable());
+            // The other pools still take requests
+            perform(get("/foo")).andExpect(status().isOk());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    /**
+     * Perform a request that is handled on a pool thread, and its async
+     * dispatch. The pools have no timeout, which MockMvc takes as not to wait
+     * for the result.
+     */
+    private ResultActions perform(RequestBuilder requestBuilder) throws Exception {
+        MvcResult result = mvc.perform(requestBuilder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult(TimeUnit.SECONDS.toMillis(10));
+        return mvc.perform(asyncDispatch(result));
+    }
+}
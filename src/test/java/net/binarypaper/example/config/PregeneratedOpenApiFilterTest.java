@@ -0,0 +1,133 @@
+package net.binarypaper.example.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+class PregeneratedOpenApiFilterTest {
+
+    private static final String API_DOCS_PATH = "/v3/api-docs";
+
+    @TempDir
+    Path directory;
+
+    private String specLocation;
+
+    private PregeneratedOpenApiFilter filter;
+
+    @BeforeEach
+    void generate() throws IOException {
+        Path spec = directory.resolve("api-docs.json");
+        Files.write(spec, "{\"openapi\":\"3.0.1\"}".getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("api-docs.json.gz"), "gzip".getBytes(StandardCharsets.US_ASCII));
+        Files.write(directory.resolve("api-docs.json.br"), "br".getBytes(StandardCharsets.US_ASCII));
+        specLocation = spec.toUri().toString();
+        filter = new PregeneratedOpenApiFilter(API_DOCS_PATH, specLocation);
+    }
+
+    @Test
+    void theVariantIsChosenByTheAcceptEncodingHeader() throws Exception {
+        assertThat(get(null).getContentAsString()).isEqualTo("{\"openapi\":\"3.0.1\"}");
+        assertThat(get("gzip").getContentAsString()).isEqualTo("gzip");
+        assertThat(get("gzip").getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(get("gzip, deflate, br").getContentAsString()).isEqualTo("br");
+        assertThat(get("br;q=0, gzip").getContentAsString()).isEqualTo("gzip");
+        assertThat(get("identity").getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(get("identity").getHeader(HttpHeaders.VARY)).isEqualTo(HttpHeaders.ACCEPT_ENCODING);
+    }
+
+    @Test
+    void anExplicitCodingTakesPrecedenceOverTheWildcard() {
+        assertThat(PregeneratedOpenApiFilter.acceptsEncoding("*;q=0, gzip", "gzip")).isTrue();
+        assertThat(PregeneratedOpenApiFilter.acceptsEncoding("gzip, *;q=0", "gzip")).isTrue();
+        assertThat(PregeneratedOpenApiFilter.acceptsEncoding("*;q=0, gzip", "br")).isFalse();
+        assertThat(PregeneratedOpenApiFilter.acceptsEncoding("*, br;q=0", "br")).isFalse();
+        assertThat(PregeneratedOpenApiFilter.acceptsEncoding("*", "br")).isTrue();
+        assertThat(PregeneratedOpenApiFilter.acceptsEncoding("gzip;q=0.0", "gzip")).isFalse();
+        assertThat(PregeneratedOpenApiFilter.acceptsEncoding(null, "gzip")).isFalse();
+    }
+
+    @Test
+    void aMatchingIfNoneMatchIsAnsweredWithNotModified() throws Exception {
+        MockHttpServletResponse response = get("gzip");
+        String eTag = response.getHeader(HttpHeaders.ETAG);
+        assertThat(eTag).isNotEqualTo(get(null).getHeader(HttpHeaders.ETAG));
+
+        MockHttpServletRequest request = request("GET", "gzip");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, eTag);
+        MockHttpServletResponse notModified = perform(request);
+        assertThat(notModified.getStatus()).isEqualTo(HttpServletResponse.SC_NOT_MODIFIED);
+        assertThat(notModified.getContentAsByteArray()).isEmpty();
+        // The ETag of another variant does not match
+        request = request("GET", "br");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, eTag);
+        assertThat(perform(request).getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    }
+
+    @Test
+    void headRequestsAreAnsweredWithoutABody() throws Exception {
+        MockHttpServletResponse response = perform(request("HEAD", "gzip"));
+        assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+        assertThat(response.getContentLength()).isEqualTo(4);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo(get("gzip").getHeader(HttpHeaders.ETAG));
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void otherRequestsAreLeftToSpringdoc() throws Exception {
+        MockHttpServletRequest request = request("GET", null);
+        request.setRequestURI(API_DOCS_PATH + ".yaml");
+        MockFilterChain filterChain = new MockFilterChain();
+        filter.doFilter(request, new MockHttpServletResponse(), filterChain);
+        assertThat(filterChain.getRequest()).isSameAs(request);
+    }
+
+    @Test
+    void onlyADocumentGeneratedFromTheClassesIsCurrent() throws Exception {
+        // Without a fingerprint, or a document, springdoc generates the document at runtime
+        assertThat(PregeneratedOpenApiFilter.isCurrent(specLocation)).isFalse();
+        Path fingerprint = directory.resolve("api-docs.json" + PregeneratedOpenApiFilter.FINGERPRINT_SUFFIX);
+        Files.write(fingerprint, PregeneratedOpenApiFilter.classesFingerprint().getBytes(StandardCharsets.US_ASCII));
+        assertThat(PregeneratedOpenApiFilter.isCurrent(specLocation)).isTrue();
+
+        // A document left behind by a build of other classes
+        Files.write(fingerprint, "0123456789abcdef".getBytes(StandardCharsets.US_ASCII));
+        assertThat(PregeneratedOpenApiFilter.isCurrent(specLocation)).isFalse();
+
+        String missingLocation = directory.resolve("missing.json").toUri().toString();
+        assertThat(PregeneratedOpenApiFilter.isCurrent(missingLocation)).isFalse();
+        assertThatThrownBy(() -> new PregeneratedOpenApiFilter(API_DOCS_PATH, missingLocation))
+                .isInstanceOf(IOException.class);
+    }
+
+    private MockHttpServletResponse get(String acceptEncoding) throws IOException, ServletException {
+        return perform(request("GET", acceptEncoding));
+    }
+
+    private static MockHttpServletRequest request(String method, String acceptEncoding) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, API_DOCS_PATH);
+        if (acceptEncoding != null) {
+            request.addHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        }
+        return request;
+    }
+
+    private MockHttpServletResponse perform(MockHttpServletRequest request) throws IOException, ServletException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+}
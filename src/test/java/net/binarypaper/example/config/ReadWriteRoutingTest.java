@@ -0,0 +1,135 @@
+package net.binarypaper.example.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManager;
+import net.binarypaper.example.foo.Foo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SpringBootTest(properties = {
+    "spring.datasource.url=" + ReadWriteRoutingTest.PRIMARY_URL,
+    "application.datasource.replica.url=" + ReadWriteRoutingTest.REPLICA_URL,
+    "application.datasource.replica.username=sa",
+    "application.datasource.replica.read-your-writes-window=1m"
+})
+class ReadWriteRoutingTest {
+
+    static final String PRIMARY_URL = "jdbc:h2:mem:routing-primary;DB_CLOSE_DELAY=-1";
+
+    static final String REPLICA_URL = "jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1";
+
+    private static final String SNAPSHOT_FILE = "target/routing-replica.sql";
+
+    @Autowired
+    private EntityManager em;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void replicate() {
+        new JdbcTemplate(new DriverManagerDataSource(PRIMARY_URL, "sa", "")).execute("SCRIPT TO '" + SNAPSHOT_FILE + "'");
+        JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+        replica.execute("DROP ALL OBJECTS");
+        replica.execute("RUNSCRIPT FROM '" + SNAPSHOT_FILE + "'");
+    }
+
+    @Test
+    void readOnlyTransactionsUseTheReplicaUnlessTheUserHasJustWritten() {
+        long count = countFoos("reader");
+
+        runAs("writer", () -> new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            Foo foo = new Foo();
+            foo.setName("name");
+            em.persist(foo);
+        }));
+
+        // The replica has not caught up yet
+        assertThat(countFoos("reader")).isEqualTo(count);
+        // But the writer reads its own write from the primary
+        assertThat(countFoos("writer")).isEqualTo(count + 1);
+
+        replicate();
+        assertThat(countFoos("reader")).isEqualTo(count + 1);
+    }
+
+    @Test
+    void readsFromTheReplicaDoNotFillTheSecondLevelCache() {
+        em.getEntityManagerFactory().getCache().evictAll();
+        Foo foo = new Foo();
+        foo.setName("stale");
+        runAs("writer", () -> new TransactionTemplate(transactionManager).executeWithoutResult(status -> em.persist(foo)));
+        replicate();
+        runAs("writer", () -> new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                em.find(Foo.class, foo.getId()).setName("fresh")));
+        // As if the entry had expired, or the update came from another node
+        em.getEntityManagerFactory().getCache().evict(Foo.class, foo.getId());
+
+        // The replica has not caught up yet
+        assertThat(readName("reader", foo.getId())).isEqualTo("stale");
+        assertThat(listNames("reader")).contains("stale");
+        assertThat(em.getEntityManagerFactory().getCache().contains(Foo.class, foo.getId())).isFalse();
+
+        // The primary is read instead of the stale state of the replica
+        assertThat(readName("writer", foo.getId())).isEqualTo("fresh");
+        assertThat(listNames("writer")).contains("fresh").doesNotContain("stale");
+        assertThat(em.getEntityManagerFactory().getCache().contains(Foo.class, foo.getId())).isTrue();
+    }
+
+    private String readName(String username, Long id) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        return runAs(username, () -> transactionTemplate.execute(status -> em.find(Foo.class, id).getName()));
+    }
+
+    private List<String> listNames(String username) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        return runAs(username, () -> transactionTemplate.execute(status -> em
+                .createNamedQuery("Foo.listAll", Foo.class)
+                .getResultList()
+                .stream()
+                .map(Foo::getName)
+                .collect(Collectors.toList())));
+    }
+
+    private long countFoos(String username) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        return runAs(username, () -> transactionTemplate.execute(status -> (Long) em
+                .createQuery("SELECT COUNT(f) FROM Foo AS f")
+                .getSingleResult()));
+    }
+
+    private static <T> T runAs(String username, Supplier<T> action) {
+        User user = new User(username, "", AuthorityUtils.createAuthorityList("ROLE_admin"));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()));
+        try {
+            return action.get();
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    private static void runAs(String username, Runnable action) {
+        runAs(username, () -> {
+            action.run();
+            return null;
+        });
+    }
+}
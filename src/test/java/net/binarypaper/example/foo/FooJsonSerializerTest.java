@@ -0,0 +1,122 @@
+package net.binarypaper.example.foo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import net.binarypaper.example.config.AuditRevision;
+import net.binarypaper.example.config.AuditRevisionChanges;
+import net.binarypaper.example.config.AuditRevisionJsonSerializer;
+import net.binarypaper.example.config.AuditSummary;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+class FooJsonSerializerTest {
+
+    private static final Class<?>[] VIEWS = {
+        null, Foo.List.class, Foo.All.class, Foo.Add.class, Foo.Update.class, AuditRevision.class, AuditSummary.View.class
+    };
+
+    // Configured like the ObjectMapper of the application, with and without the direct serializers
+    private final ObjectMapper jacksonMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private final ObjectMapper directMapper = Jackson2ObjectMapperBuilder.json()
+            .serializers(new FooJsonSerializer(), new AuditRevisionJsonSerializer())
+            .build();
+
+    private final Random random = new Random(20200207);
+
+    @Test
+    void foosAreSerializedIdenticallyInEveryView() throws JsonProcessingException {
+        List<Foo> foos = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            foos.add(randomFoo());
+        }
+        for (Class<?> view : VIEWS) {
+            for (Foo foo : foos) {
+                assertSameJson(jacksonMapper.writerWithView(view).writeValueAsBytes(foo),
+                        directMapper.writerWithView(view).writeValueAsBytes(foo));
+            }
+            assertSameJson(jacksonMapper.writerWithView(view).writeValueAsBytes(foos),
+                    directMapper.writerWithView(view).writeValueAsBytes(foos));
+            assertSameJson(jacksonMapper.writerWithView(view).with(SerializationFeature.INDENT_OUTPUT).writeValueAsBytes(foos),
+                    directMapper.writerWithView(view).with(SerializationFeature.INDENT_OUTPUT).writeValueAsBytes(foos));
+        }
+    }
+
+    @Test
+    void revisionDatesAreFormattedIdentically() throws JsonProcessingException {
+        List<AuditRevision> revisions = new ArrayList<>();
+        // Around the Gregorian calendar cutover, 1583, the epoch and the end of year 9999
+        for (long timestamp : new long[]{-12219292800001L, -12219292800000L, -12212553600001L, -12212553600000L,
+            -7200001L, -7200000L, -1L, 0L, 253402293599999L, 253402293600000L, Long.MAX_VALUE / 2}) {
+            revisions.add(randomRevision(timestamp));
+        }
+        for (int i = 0; i < 100000; i++) {
+            revisions.add(randomRevision((long) (random.nextDouble() * 253402300800000L)));
+        }
+        for (Class<?> view : VIEWS) {
+            assertSameJson(jacksonMapper.writerWithView(view).writeValueAsBytes(revisions),
+                    directMapper.writerWithView(view).writeValueAsBytes(revisions));
+        }
+    }
+
+    @Test
+    void revisionChangesAreSerializedIdentically() throws JsonProcessingException {
+        AuditRevisionChanges changes = new AuditRevisionChanges(randomRevision(1581065259000L),
+                Collections.singletonMap("name", "The name of the Foo"));
+        assertSameJson(jacksonMapper.writerWithView(AuditRevision.class).writeValueAsBytes(changes),
+                directMapper.writerWithView(AuditRevision.class).writeValueAsBytes(changes));
+    }
+
+    private static void assertSameJson(byte[] expected, byte[] actual) {
+        assertThat(new String(actual, StandardCharsets.UTF_8)).isEqualTo(new String(expected, StandardCharsets.UTF_8));
+    }
+
+    private Foo randomFoo() {
+        Foo foo = new Foo();
+        foo.setId(random.nextInt(4) == 0 ? null : random.nextLong());
+        foo.setVersion(random.nextInt(4) == 0 ? null : random.nextInt(Integer.MAX_VALUE));
+        foo.setName(random.nextInt(4) == 0 ? null : randomString());
+        foo.setDescription(random.nextInt(4) == 0 ? null : randomString());
+        foo.setRevision(random.nextInt(4) == 0 ? null : randomRevision(random.nextLong() % 253402300800000L));
+        foo.setSummary(random.nextInt(4) == 0 ? null : randomSummary());
+        return foo;
+    }
+
+    private AuditRevision randomRevision(long timestamp) {
+        AuditRevision auditRevision = new AuditRevision();
+        auditRevision.setRev(random.nextInt(4) == 0 ? null : (long) random.nextInt(Integer.MAX_VALUE));
+        auditRevision.setRevisionTimestamp(timestamp);
+        auditRevision.setUsername(random.nextInt(4) == 0 ? null : randomString());
+        auditRevision.setRevisionType(random.nextInt(4) == 0 ? null : new String[]{"ADD", "MOD", "DEL"}[random.nextInt(3)]);
+        return auditRevision;
+    }
+
+    private AuditSummary randomSummary() {
+        AuditSummary auditSummary = new AuditSummary();
+        auditSummary.setEntityName(Foo.class.getName());
+        auditSummary.setEntityId(random.nextLong());
+        auditSummary.addRevision(randomRevision(random.nextLong() % 253402300800000L), randomString());
+        auditSummary.setRevisionCount(random.nextInt(Integer.MAX_VALUE));
+        auditSummary.setLastUsername(random.nextInt(4) == 0 ? null : auditSummary.getLastUsername());
+        return auditSummary;
+    }
+
+    private String randomString() {
+        // Including characters that are escaped in JSON strings and non-ASCII characters
+        String characters = "abcdefghijklmnopqrstuvwxyz ABC0123456789\"\\/\n\t\u0001é€";
+        StringBuilder builder = new StringBuilder();
+        int length = random.nextInt(40);
+        for (int i = 0; i < length; i++) {
+            builder.append(characters.charAt(random.nextInt(characters.length())));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,138 @@
+package net.binarypaper.example.foo;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+@SpringBootTest(properties = {
+    "spring.datasource.generate-unique-name=true",
+    // The JCache caches are shared with the contexts of the other tests, which
+    // have Foos with the same IDs in their own databases
+    "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+    "spring.jpa.properties.hibernate.cache.use_query_cache=false"
+})
+@AutoConfigureMockMvc
+@WithMockUser(username = "updater", roles = "admin")
+class FooRestControllerTest {
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Test
+    void updatesAreConditionalOnTheVersion() throws Exception {
+        long id = addFoo("Widget");
+        long otherId = addFoo("Other");
+
+        updateFoo(id, fooJson(id, 0, "Gadget"), null)
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, eTag(id, 1)))
+                .andExpect(jsonPath("$.version").value(1));
+        // An unchanged Foo is not written, and keeps its version and revisions
+        updateFoo(id, fooJson(id, 1, "Gadget"), null)
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, eTag(id, 1)))
+                .andExpect(jsonPath("$.version").value(1));
+        mvc.perform(get("/foo/{id}/revisions", id))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2));
+
+        // The version in the request body
+        updateFoo(id, fooJson(id, 0, "Gizmo"), null).andExpect(status().isConflict());
+        updateFoo(id, "{\"id\":" + id + ",\"name\":\"Gizmo\"}", null).andExpect(status().isBadRequest());
+        updateFoo(id, fooJson(otherId, 1, "Gizmo"), null).andExpect(status().isBadRequest());
+        updateFoo(999999, fooJson(999999, 0, "Gizmo"), null).andExpect(status().isNotFound());
+
+        // The ETag in the If-Match header takes precedence over the body
+        updateFoo(id, fooJson(id, 0, "Gizmo"), eTag(id, 0)).andExpect(status().isPreconditionFailed());
+        updateFoo(id, fooJson(id, 0, "Gizmo"), eTag(otherId, 1)).andExpect(status().isPreconditionFailed());
+        updateFoo(id, fooJson(id, 0, "Gizmo"), eTag(id, 1))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, eTag(id, 2)));
+        updateFoo(id, fooJson(id, 0, "Doohickey"), eTag(id, 1) + ", " + eTag(id, 0)).andExpect(status().isPreconditionFailed());
+        updateFoo(id, fooJson(id, 0, "Doohickey"), eTag(id, 1) + ", " + eTag(id, 2))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, eTag(id, 3)));
+        updateFoo(id, fooJson(id, 0, "Thingamajig"), "*")
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, eTag(id, 4)));
+        updateFoo(999999, fooJson(999999, 0, "Gizmo"), "*").andExpect(status().isNotFound());
+    }
+
+    @Test
+    void batchUpdatesAreConditionalOnTheVersions() throws Exception {
+        long id = addFoo("Widget");
+        long otherId = addFoo("Other");
+
+        updateFoos("[" + fooJson(id, 0, "Gadget") + "," + fooJson(otherId, 0, "Other") + "]")
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].version").value(1))
+                .andExpect(jsonPath("$[1].version").value(0));
+        updateFoos("[" + fooJson(id, 0, "Gizmo") + "]").andExpect(status().isConflict());
+        updateFoos("[" + fooJson(otherId, 0, "Gizmo") + "," + fooJson(999999, 0, "Gizmo") + "]")
+                .andExpect(status().isNotFound());
+        // The whole batch is rolled back
+        mvc.perform(get("/foo/{id}", otherId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("Other"));
+    }
+
+    @Test
+    void deletesAreConditionalOnTheVersion() throws Exception {
+        long id = addFoo("Widget");
+
+        mvc.perform(delete("/foo/{id}", id).param("version", "1")).andExpect(status().isConflict());
+        mvc.perform(delete("/foo/{id}", id).header(HttpHeaders.IF_MATCH, eTag(id, 1)))
+                .andExpect(status().isPreconditionFailed());
+        mvc.perform(delete("/foo/{id}", id).param("version", "0")).andExpect(status().isOk());
+        mvc.perform(delete("/foo/{id}", id).param("version", "0")).andExpect(status().isNotFound());
+        mvc.perform(delete("/foo/{id}", id).header(HttpHeaders.IF_MATCH, eTag(id, 0))).andExpect(status().isNotFound());
+        mvc.perform(delete("/foo/{id}", id).header(HttpHeaders.IF_MATCH, "*")).andExpect(status().isNotFound());
+
+        // Without a version the delete is unconditional
+        long otherId = addFoo("Other");
+        updateFoo(otherId, fooJson(otherId, 0, "Changed"), null).andExpect(status().isOk());
+        mvc.perform(delete("/foo/{id}", otherId)).andExpect(status().isOk());
+        mvc.perform(delete("/foo/{id}", otherId)).andExpect(status().isNotFound());
+    }
+
+    private ResultActions updateFoo(long id, String json, String ifMatch) throws Exception {
+        MockHttpServletRequestBuilder request = put("/foo/{id}", id).contentType(MediaType.APPLICATION_JSON).content(json);
+        return mvc.perform(ifMatch != null ? request.header(HttpHeaders.IF_MATCH, ifMatch) : request);
+    }
+
+    private ResultActions updateFoos(String json) throws Exception {
+        return mvc.perform(put("/foo/batch").contentType(MediaType.APPLICATION_JSON).content(json));
+    }
+
+    private long addFoo(String name) throws Exception {
+        String json = mvc.perform(post("/foo").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\":\"" + name + "\"}"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        return ((Number) JsonPath.read(json, "$.id")).longValue();
+    }
+
+    private static String eTag(long id, int version) {
+        return "\"" + id + "-" + version + "\"";
+    }
+
+    private static String fooJson(long id, int version, String name) {
+        return "{\"id\":" + id + ",\"version\":" + version + ",\"name\":\"" + name + "\"}";
+    }
+}
@@ -0,0 +1,147 @@
+package net.binarypaper.example.foo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import javax.persistence.EntityManager;
+import org.hibernate.LockOptions;
+import org.hibernate.Session;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SpringBootTest(properties = {
+    "spring.datasource.generate-unique-name=true",
+    // The JCache caches are shared with the contexts of the other tests, which
+    // have Foos with the same IDs in their own databases
+    "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+    "spring.jpa.properties.hibernate.cache.use_query_cache=false"
+})
+@WithMockUser(username = "searcher")
+class FooSearchIndexTest {
+
+    @Autowired
+    private EntityManager em;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private FooSearchIndexer fooSearchIndexer;
+
+    @Test
+    void indexFollowsTheCommittedChanges() throws InterruptedException, ExecutionException {
+        while (!fooSearchIndexer.isLoaded()) {
+            Thread.sleep(10);
+        }
+        FooSearchIndex index = fooSearchIndexer.getIndex();
+        List<Long> ids = createFoos(
+                new Foo(null, "Blue Widget"),
+                new Foo(null, "Widgetry"),
+                new Foo(null, "Crème brûlée"),
+                new Foo(null, "Gadget"));
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            em.find(Foo.class, ids.get(3)).setDescription("A blue widget for gadgets");
+        });
+        // Rolled back changes are not indexed
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            em.find(Foo.class, ids.get(2)).setName("Rolled back");
+            em.flush();
+            status.setRollbackOnly();
+        });
+
+        assertThat(search(index, "widget", 10)).containsExactly(ids.get(0), ids.get(3));
+        assertThat(search(index, "WIDGET*", 10)).containsExactly(ids.get(0), ids.get(1), ids.get(3));
+        assertThat(search(index, "blue widget*", 10)).containsExactly(ids.get(0), ids.get(3));
+        assertThat(search(index, "creme brulee", 10)).containsExactly(ids.get(2));
+        assertThat(search(index, "rolled", 10)).isEmpty();
+        // Pages continue after the rank of the last Foo of the previous page
+        List<FooSearchIndex.Hit> page = index.search(FooSearchIndex.Query.parse("widget*"), 2, null);
+        assertThat(index.search(FooSearchIndex.Query.parse("widget*"), 2, page.get(1)))
+                .extracting(FooSearchIndex.Hit::getId)
+                .containsExactly(ids.get(3));
+
+        // The single statement update and delete of the FooRestController
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            Foo foo = new Foo(ids.get(0), "Red Widget");
+            foo.setVersion(0);
+            em.unwrap(Session.class).update(foo);
+        });
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            Foo foo = new Foo(ids.get(1), null);
+            foo.setVersion(0);
+            Session session = em.unwrap(Session.class);
+            session.buildLockRequest(LockOptions.NONE).lock(foo);
+            session.delete(foo);
+        });
+
+        assertThat(search(index, "blue", 10)).containsExactly(ids.get(3));
+        assertThat(search(index, "red widget*", 10)).containsExactly(ids.get(0));
+        assertThat(search(index, "widgetry", 10)).isEmpty();
+        assertThat(fooSearchIndexer.check(false).isConsistent()).isTrue();
+
+        // Changes made with SQL are found and repaired by the consistency check
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> em
+                .createNativeQuery("UPDATE FOO SET NAME = 'Silent Gizmo', VERSION = VERSION + 1 WHERE ID = :id")
+                .setParameter("id", ids.get(2))
+                .executeUpdate());
+        FooSearchIndexer.CheckResult result = fooSearchIndexer.check(true);
+        assertThat(result.getStaleIds()).containsExactly(ids.get(2));
+        assertThat(result.getMissingIds()).isEmpty();
+        assertThat(result.getExtraIds()).isEmpty();
+        assertThat(search(index, "gizmo", 10)).containsExactly(ids.get(2));
+        assertThat(fooSearchIndexer.check(false).isConsistent()).isTrue();
+    }
+
+    @Test
+    void deletedFoosAreKeptOutOfTheIndexForTheTombstoneRetention() throws InterruptedException {
+        FooSearchIndex index = new FooSearchIndex(Duration.ofMillis(500));
+        index.remove(1);
+        // A chunk of the bulk load that was read before the deletion
+        Thread.sleep(600);
+        assertThat(index.index(foo(1, 0, "Widget"))).isFalse();
+        index.finishBulkLoad();
+        // A change that was committed just before the deletion
+        assertThat(index.index(foo(1, 1, "Widget"))).isFalse();
+        index.replace(foo(1, 1, "Widget"));
+        assertThat(index.contains(1)).isFalse();
+        assertThat(index.getDeletedIdCount()).isEqualTo(1);
+
+        // The consistency check can index the Foo again after the retention
+        Thread.sleep(600);
+        index.replace(foo(1, 1, "Widget"));
+        assertThat(index.contains(1)).isTrue();
+        assertThat(index.getDeletedIdCount()).isZero();
+    }
+
+    private static Foo foo(long id, int version, String name) {
+        Foo foo = new Foo(id, name);
+        foo.setVersion(version);
+        return foo;
+    }
+
+    private List<Long> createFoos(Foo... foos) {
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            List<Long> ids = new ArrayList<>();
+            // Cleared like a batch of Foos, before the transaction is committed
+            Arrays.stream(foos).forEach(em::persist);
+            em.flush();
+            em.clear();
+            Arrays.stream(foos).forEach(foo -> ids.add(foo.getId()));
+            return ids;
+        });
+    }
+
+    private static List<Long> search(FooSearchIndex index, String query, int limit) {
+        List<Long> ids = new ArrayList<>();
+        index.search(FooSearchIndex.Query.parse(query), limit, null).forEach(hit -> ids.add(hit.getId()));
+        return ids;
+    }
+}